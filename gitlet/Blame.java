@@ -0,0 +1,372 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** Line-by-line attribution of one file: for each line of the file as
+ *  of some commit, the commit that introduced it.
+ *
+ *  Attribution starts with every line pending at the starting commit
+ *  and works back through history, newest commits first. At each
+ *  commit the file is diffed against each parent's version; lines the
+ *  parent shares are handed on to it, and the rest are blamed on the
+ *  commit. Commits in the commit graph whose Bloom filters show they
+ *  did not touch the file hand everything to their first parent without
+ *  being read. Blobs and commits come through small LRU caches, and
+ *  each finished result is memoized in .gitlet/blame, so blaming the
+ *  same file again, or at a later commit, stops as soon as it reaches
+ *  a memoized commit.
+ *  @author Ed Scerbo
+ */
+class Blame {
+
+    /** A blame of the file PATH as of the commit with the given SHA1. */
+    Blame(String sha1, String path) {
+        _start = sha1;
+        _path = path;
+        _graph = CommitGraph.read(Main.COMMON);
+        _shallow = Promisor.shallowCommits();
+    }
+
+    /** Returns the lines of the file, or null if the starting commit
+     *  does not track it. */
+    String[] lines() {
+        String blob = commit(_start).getTracked().get(_path);
+        return blob == null ? null : lines(blob);
+    }
+
+    /** Returns, for each line of the file, the id of the commit that
+     *  introduced it. The file must be tracked by the starting
+     *  commit. */
+    String[] origins() {
+        long start = Trace.begin();
+        String[] memo = readMemo(_start);
+        if (memo != null) {
+            Trace.end("blame", start);
+            return memo;
+        }
+        int count = lines().length;
+        String[] origins = new String[count];
+        HashMap<String, List<int[]>> pending = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>(
+                Comparator.comparingLong(this::time).reversed());
+        List<int[]> all = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            all.add(new int[] {i, i});
+        }
+        pending.put(_start, all);
+        queue.add(_start);
+        while (!queue.isEmpty()) {
+            String sha1 = queue.poll();
+            List<int[]> lines = pending.remove(sha1);
+            if (lines != null) {
+                attribute(sha1, lines, origins, pending, queue);
+            }
+        }
+        writeMemo(_start, origins);
+        Trace.end("blame", start);
+        return origins;
+    }
+
+    /** Attributes LINES, pairs of a line number in the file as of
+     *  commit SHA1 and a line number in the result, either to SHA1 in
+     *  ORIGINS or to its parents by adding them to PENDING and
+     *  QUEUE. */
+    private void attribute(String sha1, List<int[]> lines, String[] origins,
+                           HashMap<String, List<int[]>> pending,
+                           PriorityQueue<String> queue) {
+        String[] memo = sha1.equals(_start) ? null : readMemo(sha1);
+        if (memo != null) {
+            for (int[] line : lines) {
+                origins[line[1]] = memo[line[0]];
+            }
+            return;
+        }
+        Commit commit = commit(sha1);
+        String blob = commit.getTracked().get(_path);
+        List<int[]> remaining = lines;
+        boolean boundary = _shallow.contains(sha1)
+                && Promisor.isShallow(sha1);
+        List<String> parents = boundary ? new ArrayList<>()
+                : Promisor.parents(commit);
+        for (String parent : parents) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+            String parentBlob = commit(parent).getTracked().get(_path);
+            if (parentBlob == null) {
+                continue;
+            } else if (parentBlob.equals(blob)) {
+                pass(parent, remaining, pending, queue);
+                remaining = new ArrayList<>();
+                continue;
+            }
+            int[] match = match(lines(parentBlob), lines(blob));
+            List<int[]> passed = new ArrayList<>();
+            List<int[]> kept = new ArrayList<>();
+            for (int[] line : remaining) {
+                if (match[line[0]] >= 0) {
+                    passed.add(new int[] {match[line[0]], line[1]});
+                } else {
+                    kept.add(line);
+                }
+            }
+            if (!passed.isEmpty()) {
+                pass(parent, passed, pending, queue);
+            }
+            remaining = kept;
+        }
+        for (int[] line : remaining) {
+            origins[line[1]] = sha1;
+        }
+    }
+
+    /** Hands LINES to the commit SHA1 by adding them to PENDING and
+     *  QUEUE, first skipping down the first-parent chain past commits
+     *  the commit graph shows did not change the file. */
+    private void pass(String sha1, List<int[]> lines,
+                      HashMap<String, List<int[]>> pending,
+                      PriorityQueue<String> queue) {
+        int pos = _graph.position(sha1);
+        while (pos >= 0 && !_graph.mayHaveChanged(pos, _path)
+                && _graph.parents(pos).length > 0
+                && !_shallow.contains(sha1)) {
+            pos = _graph.parents(pos)[0];
+            sha1 = _graph.id(pos);
+        }
+        List<int[]> existing = pending.get(sha1);
+        if (existing == null) {
+            pending.put(sha1, new ArrayList<>(lines));
+            queue.add(sha1);
+        } else {
+            existing.addAll(lines);
+        }
+    }
+
+    /** Returns, for each line of NEW, the number of the line of OLD it
+     *  is kept from in a shortest edit script, or -1 if it was added.
+     *  Uses Myers' greedy algorithm after trimming any common prefix
+     *  and suffix. */
+    static int[] match(String[] old, String[] now) {
+        int[] result = new int[now.length];
+        Arrays.fill(result, -1);
+        int prefix = 0;
+        while (prefix < old.length && prefix < now.length
+                && old[prefix].equals(now[prefix])) {
+            result[prefix] = prefix;
+            prefix += 1;
+        }
+        int suffix = 0;
+        while (suffix < old.length - prefix && suffix < now.length - prefix
+                && old[old.length - 1 - suffix]
+                .equals(now[now.length - 1 - suffix])) {
+            result[now.length - 1 - suffix] = old.length - 1 - suffix;
+            suffix += 1;
+        }
+        int n = old.length - prefix - suffix;
+        int m = now.length - prefix - suffix;
+        if (n == 0 || m == 0) {
+            return result;
+        }
+        int max = n + m;
+        int[] v = new int[2 * max + 2];
+        List<int[]> trace = new ArrayList<>();
+        int end = -1;
+        for (int d = 0; d <= max && end < 0; d += 1) {
+            trace.add(Arrays.copyOfRange(v, max - d, max + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[max + k - 1] < v[max + k + 1])) {
+                    x = v[max + k + 1];
+                } else {
+                    x = v[max + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m
+                        && old[prefix + x].equals(now[prefix + y])) {
+                    x += 1;
+                    y += 1;
+                }
+                v[max + k] = x;
+                if (x >= n && y >= m) {
+                    end = d;
+                    break;
+                }
+            }
+        }
+        int x = n, y = m;
+        for (int d = end; d > 0; d -= 1) {
+            int[] prev = trace.get(d);
+            int k = x - y;
+            int prevK;
+            if (k == -d
+                    || (k != d && at(prev, d, k - 1) < at(prev, d, k + 1))) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = at(prev, d, prevK);
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x -= 1;
+                y -= 1;
+                result[prefix + y] = prefix + x;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        while (x > 0 && y > 0) {
+            x -= 1;
+            y -= 1;
+            result[prefix + y] = prefix + x;
+        }
+        return result;
+    }
+
+    /** Returns diagonal K of V, the row saved before round D of the
+     *  diff, which holds diagonals -D through D+1. */
+    private static int at(int[] v, int d, int k) {
+        return v[k + d];
+    }
+
+    /** Returns the lines of the blob with the given SHA1, through the
+     *  blob cache. */
+    private String[] lines(String sha1) {
+        String[] result = BLOBS.get(sha1);
+        if (result == null) {
+            String contents = new String(Main.readBlob(sha1),
+                    StandardCharsets.UTF_8);
+            result = contents.split("\n", -1);
+            if (contents.endsWith("\n")) {
+                result = Arrays.copyOf(result, result.length - 1);
+            }
+            BLOBS.put(sha1, result);
+        }
+        return result;
+    }
+
+    /** Returns the commit with the given SHA1, through the commit
+     *  cache. */
+    private Commit commit(String sha1) {
+        Commit result = COMMITS.get(sha1);
+        if (result == null) {
+            result = Main.retrieveCommit(sha1);
+            COMMITS.put(sha1, result);
+        }
+        return result;
+    }
+
+    /** Returns the time of the commit SHA1, for ordering the walk. */
+    private long time(String sha1) {
+        return SearchIndex.parseTimestamp(commit(sha1).getTimestamp());
+    }
+
+    /** Returns the memoized origins of the file as of commit SHA1, or
+     *  null if there are none. */
+    private String[] readMemo(String sha1) {
+        File file = memoFile(sha1);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(file)))) {
+            String[] ids = new String[in.readInt()];
+            for (int i = 0; i < ids.length; i += 1) {
+                byte[] id = new byte[Utils.UID_LENGTH / 2];
+                in.readFully(id);
+                ids[i] = Index.toHex(id);
+            }
+            String[] result = new String[in.readInt()];
+            for (int i = 0; i < result.length; i += 1) {
+                result[i] = ids[in.readInt()];
+            }
+            return result;
+        } catch (IOException | ArrayIndexOutOfBoundsException excp) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Memoizes ORIGINS as the origins of the file as of commit
+     *  SHA1. */
+    private void writeMemo(String sha1, String[] origins) {
+        LinkedHashMap<String, Integer> ids = new LinkedHashMap<>();
+        for (String origin : origins) {
+            ids.putIfAbsent(origin, ids.size());
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(ids.size());
+            for (String id : ids.keySet()) {
+                out.write(Index.toBytes(id));
+            }
+            out.writeInt(origins.length);
+            for (String origin : origins) {
+                out.writeInt(ids.get(origin));
+            }
+            out.close();
+            File file = memoFile(sha1);
+            file.getParentFile().mkdirs();
+            Utils.writeContents(file, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the memo file for the file as of commit SHA1. */
+    private File memoFile(String sha1) {
+        return Main.objectFile(MEMOS, Utils.sha1(sha1, "\0", _path));
+    }
+
+    /** A map holding at most CAPACITY entries, dropping the least
+     *  recently used. */
+    private static <K, V> Map<K, V> lru(int capacity) {
+        return new LinkedHashMap<K, V>(capacity, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Directory of memoized results. */
+    static final File MEMOS = new File(Main.COMMON, "blame");
+
+    /** Load factor of the caches. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Recently used blobs, split into lines. */
+    private static final Map<String, String[]> BLOBS = lru(64);
+
+    /** Recently used commits. */
+    private static final Map<String, Commit> COMMITS = lru(256);
+
+    /** The commit the blame is as of. */
+    private final String _start;
+
+    /** The file being blamed. */
+    private final String _path;
+
+    /** The commit graph, for skipping commits that left the file
+     *  alone. */
+    private final CommitGraph _graph;
+
+    /** Commits whose parents were left out of a shallow clone. */
+    private final Set<String> _shallow;
+
+}
@@ -0,0 +1,290 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A bundle: a whole repository's history, or the part of it reachable
+ *  from some branches, as one file that can be copied anywhere and
+ *  imported with a single sequential read.
+ *
+ *  A bundle holds the magic number "GLBD", a version number, the
+ *  branches it carries with their heads, and the number of objects.
+ *  Then come the objects, blobs before commits, each as its type, its
+ *  20-byte SHA-1, its compressed and uncompressed lengths and its
+ *  contents compressed on their own.
+ *  At the end is an index of every object's id, type and offset,
+ *  sorted by id, followed by the offset of that index and finally the
+ *  SHA-1 of everything before it. Compressing objects separately lets
+ *  the index point straight at any one of them.
+ *  @author Ed Scerbo
+ */
+class Bundle {
+
+    /** Writes to FILE a bundle of the branches BRANCHES, mapping names
+     *  to heads, and everything reachable from them in this
+     *  repository. Returns the number of objects written. */
+    static int create(File file, Map<String, String> branches) {
+        long start = Trace.begin();
+        List<String> commits = reachableCommits(branches.values());
+        List<String> blobs = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        for (String sha1 : commits) {
+            for (String blob : Main.retrieveCommit(sha1).getTracked()
+                     .values()) {
+                if (seen.add(blob)) {
+                    blobs.add(blob);
+                }
+            }
+        }
+        Promisor.fetchBlobs(blobs);
+        MessageDigest md = Pack.sha1Digest();
+        TreeMap<String, long[]> index = new TreeMap<>();
+        try (DigestOutputStream digest = new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)), md);
+             DataOutputStream out = new DataOutputStream(digest)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(branches.size());
+            for (Map.Entry<String, String> branch : branches.entrySet()) {
+                out.writeUTF(branch.getKey());
+                out.write(Index.toBytes(branch.getValue()));
+            }
+            out.writeInt(blobs.size() + commits.size());
+            long offset = out.size();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            for (String sha1 : blobs) {
+                index.put(sha1, new long[] {Pack.BLOB, offset});
+                offset += writeObject(out, deflater, Pack.BLOB, sha1,
+                        Main.readBlob(sha1));
+            }
+            for (String sha1 : commits) {
+                index.put(sha1, new long[] {Pack.COMMIT, offset});
+                offset += writeObject(out, deflater, Pack.COMMIT, sha1,
+                        Main.objects().get(ObjectStore.Kind.COMMIT, sha1));
+            }
+            deflater.end();
+            out.writeInt(index.size());
+            for (Map.Entry<String, long[]> entry : index.entrySet()) {
+                out.write(Index.toBytes(entry.getKey()));
+                out.writeByte((int) entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+            out.writeLong(offset);
+            byte[] trailer = md.digest();
+            digest.on(false);
+            out.write(trailer);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Trace.end("bundle create", start);
+        return index.size();
+    }
+
+    /** Reads the bundle in FILE in one pass, checking every object
+     *  against its SHA-1, accepting commits in the older form that
+     *  embeds their own id as Fsck.matches does, the index against the
+     *  objects, and the whole against its trailer, and storing each
+     *  object this repository lacks straight into the object store.
+     *  Returns the branches the bundle carries, mapping names to
+     *  heads. */
+    static LinkedHashMap<String, String> unbundle(File file) {
+        long start = Trace.begin();
+        MessageDigest md = Pack.sha1Digest();
+        try (DigestInputStream digest = new DigestInputStream(
+                new BufferedInputStream(new FileInputStream(file)), md);
+             DataInputStream in = new DataInputStream(digest)) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                throw Utils.error("Not a bundle.");
+            }
+            long offset = MAGIC.length + 2 * Integer.BYTES;
+            LinkedHashMap<String, String> branches = new LinkedHashMap<>();
+            int branchCount = in.readInt();
+            for (int i = 0; i < branchCount; i += 1) {
+                String name = in.readUTF();
+                branches.put(name, readId(in));
+                offset += Short.BYTES + ID_LENGTH
+                        + name.getBytes(StandardCharsets.UTF_8).length;
+            }
+            int count = in.readInt();
+            offset += Integer.BYTES;
+            TreeMap<String, long[]> seen = new TreeMap<>();
+            Inflater inflater = new Inflater();
+            for (int i = 0; i < count; i += 1) {
+                byte type = in.readByte();
+                String sha1 = readId(in);
+                byte[] compressed = new byte[in.readInt()];
+                byte[] contents = new byte[in.readInt()];
+                in.readFully(compressed);
+                inflate(inflater, compressed, contents);
+                if ((type != Pack.BLOB && type != Pack.COMMIT)
+                        || !Fsck.matches(contents, sha1,
+                                         type == Pack.COMMIT)) {
+                    throw Utils.error("Corrupt object %s in bundle.", sha1);
+                }
+                store(type, sha1, contents);
+                seen.put(sha1, new long[] {type, offset});
+                offset += OBJECT_HEADER + compressed.length;
+            }
+            inflater.end();
+            if (in.readInt() != seen.size()) {
+                throw Utils.error("Corrupt bundle index.");
+            }
+            for (Map.Entry<String, long[]> entry : seen.entrySet()) {
+                if (!readId(in).equals(entry.getKey())
+                        || in.readByte() != entry.getValue()[0]
+                        || in.readLong() != entry.getValue()[1]) {
+                    throw Utils.error("Corrupt bundle index.");
+                }
+            }
+            if (in.readLong() != offset) {
+                throw Utils.error("Corrupt bundle index.");
+            }
+            byte[] expected = md.digest();
+            digest.on(false);
+            byte[] trailer = new byte[expected.length];
+            in.readFully(trailer);
+            if (!Arrays.equals(trailer, expected)) {
+                throw Utils.error("Corrupt bundle.");
+            }
+            for (String head : branches.values()) {
+                if (!Main.objects().contains(ObjectStore.Kind.COMMIT, head)) {
+                    throw Utils.error("Bundle lacks commit %s.", head);
+                }
+            }
+            Trace.end("bundle unbundle", start);
+            return branches;
+        } catch (EOFException excp) {
+            throw Utils.error("Truncated bundle.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the commits reachable from TIPS that are present in this
+     *  repository, newest first. */
+    private static List<String> reachableCommits(Iterable<String> tips) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        for (String tip : tips) {
+            queue.add(tip);
+        }
+        while (!queue.isEmpty()) {
+            String sha1 = queue.poll();
+            if (result.contains(sha1)
+                    || !Main.objects().contains(ObjectStore.Kind.COMMIT,
+                                                sha1)) {
+                continue;
+            }
+            result.add(sha1);
+            queue.addAll(Promisor.parents(Main.retrieveLocalCommit(sha1)));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Writes the object of the given TYPE, SHA1 and CONTENTS to OUT,
+     *  compressed with DEFLATER. Returns the number of bytes
+     *  written. */
+    private static int writeObject(DataOutputStream out, Deflater deflater,
+                                   byte type, String sha1, byte[] contents)
+        throws IOException {
+        deflater.reset();
+        deflater.setInput(contents);
+        deflater.finish();
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        while (!deflater.finished()) {
+            compressed.write(buf, 0, deflater.deflate(buf));
+        }
+        out.writeByte(type);
+        out.write(Index.toBytes(sha1));
+        out.writeInt(compressed.size());
+        out.writeInt(contents.length);
+        compressed.writeTo(out);
+        return OBJECT_HEADER + compressed.size();
+    }
+
+    /** Decompresses COMPRESSED into CONTENTS, which must be exactly
+     *  filled, using INFLATER. */
+    private static void inflate(Inflater inflater, byte[] compressed,
+                                byte[] contents) {
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < contents.length && !inflater.finished()) {
+                int got = inflater.inflate(contents, n, contents.length - n);
+                if (got == 0 && (inflater.needsInput()
+                                 || inflater.needsDictionary())) {
+                    break;
+                }
+                n += got;
+            }
+            if (n != contents.length || !inflater.finished()) {
+                throw Utils.error("Corrupt bundle.");
+            }
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupt bundle.");
+        }
+    }
+
+    /** Stores the object of the given TYPE, SHA1 and CONTENTS unless
+     *  this repository already has it. */
+    private static void store(byte type, String sha1, byte[] contents) {
+        ObjectStore.Kind kind = ObjectStore.Kind.of(type);
+        if (!Main.objects().contains(kind, sha1)) {
+            Main.objects().put(kind, sha1, contents);
+            Trace.count(Trace.Counter.OBJECTS_WRITTEN, 1);
+        }
+    }
+
+    /** Returns a 20-byte id read from IN, in hex. */
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[ID_LENGTH];
+        in.readFully(id);
+        return Index.toHex(id);
+    }
+
+    /** Magic number at the start of a bundle. */
+    private static final byte[] MAGIC =
+        "GLBD".getBytes(StandardCharsets.UTF_8);
+
+    /** Version of the bundle format. */
+    private static final int VERSION = 1;
+
+    /** Bytes in an object id. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Bytes before an object's compressed contents. */
+    private static final int OBJECT_HEADER = 1 + ID_LENGTH
+        + 2 * Integer.BYTES;
+
+    /** Size of the compression buffer. */
+    private static final int BUFFER_SIZE = 4096;
+
+}
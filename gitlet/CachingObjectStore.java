@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A read-through cache in front of another object store. Objects read
+ *  or written are kept in memory, least recently used first out, up to
+ *  a bound on their total size; objects larger than a quarter of that
+ *  bound are never kept. Writes go straight through to the other
+ *  store.
+ *  @author Ed Scerbo
+ */
+class CachingObjectStore implements ObjectStore {
+
+    /** A cache of at most CAPACITY bytes in front of BACKING. */
+    CachingObjectStore(ObjectStore backing, long capacity) {
+        _backing = backing;
+        _capacity = capacity;
+    }
+
+    @Override
+    public boolean contains(Kind kind, String sha1) {
+        return cached(kind, sha1) != null || _backing.contains(kind, sha1);
+    }
+
+    @Override
+    public byte[] get(Kind kind, String sha1) {
+        byte[] contents = cached(kind, sha1);
+        if (contents == null) {
+            contents = _backing.get(kind, sha1);
+            if (contents != null) {
+                remember(kind, sha1, contents);
+            }
+        }
+        return contents;
+    }
+
+    /** Returns the contents of those of the objects of the given KIND and
+     *  ids SHA1S that are stored, keyed by id, fetching all of those not
+     *  cached from the backing store at once. */
+    @Override
+    public Map<String, byte[]> getAll(Kind kind, Collection<String> sha1s) {
+        HashMap<String, byte[]> found = new HashMap<>();
+        List<String> wanted = new ArrayList<>();
+        for (String sha1 : sha1s) {
+            byte[] contents = cached(kind, sha1);
+            if (contents == null) {
+                wanted.add(sha1);
+            } else {
+                found.put(sha1, contents);
+            }
+        }
+        if (!wanted.isEmpty()) {
+            for (Map.Entry<String, byte[]> object
+                     : _backing.getAll(kind, wanted).entrySet()) {
+                found.put(object.getKey(), object.getValue());
+                remember(kind, object.getKey(), object.getValue());
+            }
+        }
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (String sha1 : sha1s) {
+            if (found.containsKey(sha1)) {
+                result.put(sha1, found.get(sha1));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public InputStream open(Kind kind, String sha1) {
+        byte[] contents = cached(kind, sha1);
+        if (contents != null) {
+            return new ByteArrayInputStream(contents);
+        }
+        return _backing.open(kind, sha1);
+    }
+
+    @Override
+    public File file(Kind kind, String sha1) {
+        return _backing.file(kind, sha1);
+    }
+
+    @Override
+    public void put(Kind kind, String sha1, byte[] contents) {
+        _backing.put(kind, sha1, contents);
+        remember(kind, sha1, contents);
+    }
+
+    @Override
+    public List<String> list(Kind kind, String prefix) {
+        return _backing.list(kind, prefix);
+    }
+
+    /** Returns the store behind this cache. */
+    ObjectStore backing() {
+        return _backing;
+    }
+
+    /** Returns the cached contents of the object of the given KIND and
+     *  SHA1, or null. */
+    private synchronized byte[] cached(Kind kind, String sha1) {
+        return _cache.get(key(kind, sha1));
+    }
+
+    /** Caches CONTENTS as the object of the given KIND and SHA1, then
+     *  evicts the least recently used objects until the cache fits. */
+    private synchronized void remember(Kind kind, String sha1,
+                                       byte[] contents) {
+        if (contents.length > _capacity / 4) {
+            return;
+        }
+        byte[] old = _cache.put(key(kind, sha1), contents);
+        _size += contents.length - (old == null ? 0 : old.length);
+        Iterator<Map.Entry<String, byte[]>> entries =
+            _cache.entrySet().iterator();
+        while (_size > _capacity && entries.hasNext()) {
+            _size -= entries.next().getValue().length;
+            entries.remove();
+        }
+    }
+
+    /** Returns the cache key of the object of the given KIND and
+     *  SHA1. */
+    private static String key(Kind kind, String sha1) {
+        return kind.ordinal() + sha1;
+    }
+
+    /** The store behind this cache. */
+    private final ObjectStore _backing;
+
+    /** Bound on the total size of cached objects, in bytes. */
+    private final long _capacity;
+
+    /** Total size of cached objects, in bytes. */
+    private long _size;
+
+    /** Cached objects, least recently used first. */
+    private final LinkedHashMap<String, byte[]> _cache =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+}
@@ -0,0 +1,551 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** The commit graph: every commit reachable from a branch, numbered in
+ *  topological order (parents before children) with the positions of
+ *  its parents and its generation number, so history can be walked
+ *  without deserializing commits. Selected commits also carry a
+ *  compressed bitmap of every position reachable from them, so
+ *  reachability questions mostly reduce to ORing a few bitmaps. Every
+ *  commit also carries a Bloom filter of the files it changed relative
+ *  to its first parent, so a walk looking for changes to one file can
+ *  pass over most commits without loading their trees.
+ *
+ *  Commits made after the graph was written are not in it; walks
+ *  simply read those the slow way until they reach the graph.
+ *  @author Ed Scerbo
+ */
+class CommitGraph {
+
+    /** The commits reachable from some commit, split into positions in
+     *  the graph and ids of commits outside it. */
+    static class Reach {
+        /** Positions of reachable commits in the graph. */
+        private final BitSet _bits = new BitSet();
+        /** Reachable commits that are not in the graph. */
+        private final HashSet<String> _extra = new HashSet<>();
+    }
+
+    /** An empty commit graph for the .gitlet directory GITLET. */
+    private CommitGraph(File gitlet) {
+        _gitlet = gitlet;
+    }
+
+    /** Returns the commit graph of the .gitlet directory GITLET, which
+     *  is empty if none has been written or the file cannot be read,
+     *  since walks fall back to reading commits the slow way. */
+    static CommitGraph read(File gitlet) {
+        CommitGraph graph = new CommitGraph(gitlet);
+        File file = new File(gitlet, FILE_NAME);
+        if (!file.isFile()) {
+            return graph;
+        }
+        byte[] bytes = Utils.readContents(file);
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                return new CommitGraph(gitlet);
+            }
+            int count = in.readInt();
+            if (count < 0 || count > bytes.length / ENTRY_SIZE) {
+                return new CommitGraph(gitlet);
+            }
+            graph.allocate(count);
+            for (int i = 0; i < count; i += 1) {
+                byte[] id = new byte[Utils.UID_LENGTH / 2];
+                in.readFully(id);
+                int parent = in.readInt();
+                int mergeParent = in.readInt();
+                if (parent < -1 || parent >= i
+                        || mergeParent < -1 || mergeParent >= i) {
+                    return new CommitGraph(gitlet);
+                }
+                graph.add(Index.toHex(id), parent, mergeParent);
+                int length = in.readInt();
+                if (length > in.available()) {
+                    return new CommitGraph(gitlet);
+                } else if (length >= 0) {
+                    graph._blooms[i] = new byte[length];
+                    in.readFully(graph._blooms[i]);
+                }
+            }
+            int bitmaps = in.readInt();
+            for (int i = 0; i < bitmaps; i += 1) {
+                int pos = in.readInt();
+                int length = in.readInt();
+                if (pos < 0 || pos >= count || length < 0
+                        || length > in.available()) {
+                    return new CommitGraph(gitlet);
+                }
+                byte[] compressed = new byte[length];
+                in.readFully(compressed);
+                graph._bitmaps.put(pos, inflate(compressed));
+            }
+            return graph;
+        } catch (IOException excp) {
+            return new CommitGraph(gitlet);
+        }
+    }
+
+    /** Writes a fresh commit graph for the .gitlet directory GITLET,
+     *  covering every commit reachable from TIPS, and returns it. */
+    static CommitGraph write(File gitlet, Collection<String> tips) {
+        CommitGraph graph = new CommitGraph(gitlet);
+        List<String> order = topologicalOrder(gitlet, tips);
+        graph.allocate(order.size());
+        HashMap<String, Integer> pos = new HashMap<>();
+        String lastSha1 = null;
+        Map<String, String> lastTracked = null;
+        for (String sha1 : order) {
+            Commit commit = Main.readCommit(gitlet, sha1);
+            int parent = position(pos, commit.getParent());
+            graph.add(sha1, parent, position(pos, commit.getMergeParent()));
+            Map<String, String> parentTracked;
+            if (parent < 0) {
+                parentTracked = Collections.emptyMap();
+            } else if (commit.getParent().equals(lastSha1)) {
+                parentTracked = lastTracked;
+            } else {
+                parentTracked = Main.readCommit(gitlet, commit.getParent())
+                    .getTracked();
+            }
+            graph._blooms[pos.size()] = bloom(Main.changedPaths(
+                    parentTracked, commit.getTracked()));
+            pos.put(sha1, pos.size());
+            lastSha1 = sha1;
+            lastTracked = commit.getTracked();
+        }
+        HashSet<String> tipSet = new HashSet<>(tips);
+        for (int i = 0; i < graph._count; i += 1) {
+            if (i % BITMAP_INTERVAL == BITMAP_INTERVAL - 1
+                    || tipSet.contains(graph._ids[i])) {
+                graph._bitmaps.put(i, graph.reachFrom(i));
+            }
+        }
+        graph.save();
+        return graph;
+    }
+
+    /** Returns the commits reachable from TIPS in the .gitlet directory
+     *  GITLET, each after all of its parents. */
+    private static List<String> topologicalOrder(File gitlet,
+                                                 Collection<String> tips) {
+        List<String> order = new ArrayList<>();
+        HashSet<String> visited = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        ArrayDeque<Boolean> expanded = new ArrayDeque<>();
+        for (String tip : tips) {
+            stack.push(tip);
+            expanded.push(false);
+        }
+        while (!stack.isEmpty()) {
+            String sha1 = stack.pop();
+            boolean done = expanded.pop();
+            if (done) {
+                order.add(sha1);
+            } else if (visited.add(sha1)) {
+                stack.push(sha1);
+                expanded.push(true);
+                Commit commit = Main.readCommit(gitlet, sha1);
+                for (String parent : Promisor.parents(commit)) {
+                    if (!visited.contains(parent)
+                            && Main.objects(gitlet).contains(
+                                    ObjectStore.Kind.COMMIT, parent)) {
+                        stack.push(parent);
+                        expanded.push(false);
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /** Returns the position of SHA1 in POS, or -1 if SHA1 is null or
+     *  missing. */
+    private static int position(HashMap<String, Integer> pos, String sha1) {
+        if (sha1 == null || !pos.containsKey(sha1)) {
+            return -1;
+        }
+        return pos.get(sha1);
+    }
+
+    /** Writes this graph to its file. */
+    private void save() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_count);
+            for (int i = 0; i < _count; i += 1) {
+                out.write(Index.toBytes(_ids[i]));
+                out.writeInt(_parents[i]);
+                out.writeInt(_mergeParents[i]);
+                if (_blooms[i] == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(_blooms[i].length);
+                    out.write(_blooms[i]);
+                }
+            }
+            out.writeInt(_bitmaps.size());
+            for (int pos : _bitmaps.keySet()) {
+                byte[] compressed = deflate(_bitmaps.get(pos));
+                out.writeInt(pos);
+                out.writeInt(compressed.length);
+                out.write(compressed);
+            }
+            out.close();
+            File file = new File(_gitlet, FILE_NAME);
+            File temp = new File(_gitlet, FILE_NAME + TEMP_SUFFIX);
+            Utils.writeContents(temp, bytes.toByteArray());
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Makes room for COUNT commits. */
+    private void allocate(int count) {
+        _ids = new String[count];
+        _parents = new int[count];
+        _mergeParents = new int[count];
+        _generations = new int[count];
+        _blooms = new byte[count][];
+    }
+
+    /** Appends the commit SHA1 with parents at positions PARENT and
+     *  MERGEPARENT (-1 if absent). */
+    private void add(String sha1, int parent, int mergeParent) {
+        int pos = _count;
+        _ids[pos] = sha1;
+        _parents[pos] = parent;
+        _mergeParents[pos] = mergeParent;
+        int generation = 1;
+        if (parent >= 0) {
+            generation = Math.max(generation, _generations[parent] + 1);
+        }
+        if (mergeParent >= 0) {
+            generation = Math.max(generation, _generations[mergeParent] + 1);
+        }
+        _generations[pos] = generation;
+        _positions.put(sha1, pos);
+        _count += 1;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the position of SHA1 in the graph, or -1 if it is not
+     *  there. */
+    int position(String sha1) {
+        Integer pos = _positions.get(sha1);
+        return pos == null ? -1 : pos;
+    }
+
+    /** Returns the id of the commit at position POS. */
+    String id(int pos) {
+        return _ids[pos];
+    }
+
+    /** Returns the generation number of the commit at position POS. */
+    int generation(int pos) {
+        return _generations[pos];
+    }
+
+    /** Returns the positions of the parents of the commit at POS. */
+    int[] parents(int pos) {
+        if (_parents[pos] < 0) {
+            return new int[0];
+        } else if (_mergeParents[pos] < 0) {
+            return new int[] {_parents[pos]};
+        }
+        return new int[] {_parents[pos], _mergeParents[pos]};
+    }
+
+    /** Returns false if the commit at position POS certainly did not
+     *  change the file PATH relative to its first parent, and true if
+     *  it might have. */
+    boolean mayHaveChanged(int pos, String path) {
+        byte[] filter = _blooms[pos];
+        if (filter == null) {
+            return true;
+        } else if (filter.length == 0) {
+            return false;
+        }
+        int bits = filter.length * Byte.SIZE;
+        int h1 = path.hashCode();
+        int h2 = fnv(path);
+        for (int i = 0; i < BLOOM_HASHES; i += 1) {
+            int bit = Math.floorMod(h1 + i * h2, bits);
+            if ((filter[bit / Byte.SIZE] & (1 << (bit % Byte.SIZE))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns a Bloom filter holding PATHS, or null if there are too
+     *  many of them for a filter to be worth keeping. */
+    private static byte[] bloom(List<String> paths) {
+        if (paths.size() > BLOOM_MAX_PATHS) {
+            return null;
+        } else if (paths.isEmpty()) {
+            return new byte[0];
+        }
+        int bytes = Math.max(BLOOM_MIN_BYTES,
+                (paths.size() * BLOOM_BITS_PER_PATH + Byte.SIZE - 1)
+                / Byte.SIZE);
+        byte[] filter = new byte[bytes];
+        int bits = bytes * Byte.SIZE;
+        for (String path : paths) {
+            int h1 = path.hashCode();
+            int h2 = fnv(path);
+            for (int i = 0; i < BLOOM_HASHES; i += 1) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                filter[bit / Byte.SIZE] |= (byte) (1 << (bit % Byte.SIZE));
+            }
+        }
+        return filter;
+    }
+
+    /** Returns the 32-bit FNV-1a hash of the UTF-8 bytes of S, forced
+     *  odd so that it never degenerates as a step size. */
+    private static int fnv(String s) {
+        int hash = FNV_OFFSET;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash | 1;
+    }
+
+    /** Returns the positions reachable from position START, using the
+     *  stored bitmaps wherever the walk meets one. */
+    private BitSet reachFrom(int start) {
+        BitSet result = new BitSet();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            if (result.get(pos)) {
+                continue;
+            }
+            BitSet bitmap = _bitmaps.get(pos);
+            if (bitmap != null) {
+                result.or(bitmap);
+                continue;
+            }
+            result.set(pos);
+            for (int parent : parents(pos)) {
+                queue.add(parent);
+            }
+        }
+        return result;
+    }
+
+    /** Returns everything reachable from the commits SHA1S. Commits
+     *  outside the graph are read from the object store until the walk
+     *  reaches the graph. */
+    Reach reach(Collection<String> sha1s) {
+        Reach result = new Reach();
+        ArrayDeque<String> queue = new ArrayDeque<>(sha1s);
+        while (!queue.isEmpty()) {
+            String sha1 = queue.poll();
+            int pos = position(sha1);
+            if (pos >= 0) {
+                if (!result._bits.get(pos)) {
+                    result._bits.or(reachFrom(pos));
+                }
+            } else if (result._extra.add(sha1)) {
+                Commit commit = Main.readCommit(_gitlet, sha1);
+                queue.addAll(Promisor.parents(commit));
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff the commit ANCESTOR is DESCENDANT or one of its
+     *  ancestors. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int ancestorPos = position(ancestor);
+        int descendantPos = position(descendant);
+        if (ancestorPos >= 0 && descendantPos >= 0
+                && _generations[ancestorPos] > _generations[descendantPos]) {
+            return false;
+        }
+        return contains(reach(Arrays.asList(descendant)), ancestor);
+    }
+
+    /** Returns true iff the commit SHA1 is one of those in REACH. */
+    boolean contains(Reach reach, String sha1) {
+        int pos = position(sha1);
+        if (pos >= 0) {
+            return reach._bits.get(pos);
+        }
+        return reach._extra.contains(sha1);
+    }
+
+    /** Returns the commits reachable from WANTS but not from HAVES.
+     *  HAVES that this repository does not have are ignored. */
+    List<String> missing(Collection<String> wants, Collection<String> haves) {
+        ObjectStore objects = Main.objects(_gitlet);
+        List<String> known = new ArrayList<>();
+        for (String sha1 : haves) {
+            if (objects.contains(ObjectStore.Kind.COMMIT, sha1)) {
+                known.add(sha1);
+            }
+        }
+        Reach want = reach(wants);
+        Reach have = reach(known);
+        List<String> result = new ArrayList<>();
+        for (String sha1 : want._extra) {
+            if (!have._extra.contains(sha1)) {
+                result.add(sha1);
+            }
+        }
+        BitSet bits = (BitSet) want._bits.clone();
+        bits.andNot(have._bits);
+        for (int pos = bits.length() - 1; pos >= 0;
+             pos = bits.previousSetBit(pos - 1)) {
+            result.add(_ids[pos]);
+        }
+        return result;
+    }
+
+    /** Returns BITMAP compressed. */
+    private static byte[] deflate(BitSet bitmap) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(bitmap.toByteArray());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[BUFFER_SIZE];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** Returns the bitmap compressed into COMPRESSED. */
+    private static BitSet inflate(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IOException("truncated bitmap");
+                }
+                out.write(buf, 0, n);
+            }
+        } catch (DataFormatException excp) {
+            throw new IOException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return BitSet.valueOf(out.toByteArray());
+    }
+
+    /** Name of the commit graph file within .gitlet. */
+    static final String FILE_NAME = "commit-graph";
+
+    /** Suffix of the temporary file the graph is written to before it
+     *  is renamed into place. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Smallest size of one commit's entry in the file: its id, its
+     *  parents' positions and the length of its Bloom filter. */
+    private static final int ENTRY_SIZE = Utils.UID_LENGTH / 2
+        + 3 * Integer.BYTES;
+
+    /** A bitmap is stored for every BITMAP_INTERVAL-th commit, as well
+     *  as for every branch head. */
+    static final int BITMAP_INTERVAL = 100;
+
+    /** Bits set in a Bloom filter for each path. */
+    private static final int BLOOM_HASHES = 7;
+
+    /** Bits of Bloom filter per changed path. */
+    private static final int BLOOM_BITS_PER_PATH = 10;
+
+    /** Smallest Bloom filter, in bytes. */
+    private static final int BLOOM_MIN_BYTES = 8;
+
+    /** Commits changing more paths than this get no Bloom filter. */
+    private static final int BLOOM_MAX_PATHS = 512;
+
+    /** FNV-1a offset basis. */
+    private static final int FNV_OFFSET = 0x811c9dc5;
+
+    /** FNV-1a prime. */
+    private static final int FNV_PRIME = 0x01000193;
+
+    /** Size of the buffer used for (de)compression. */
+    private static final int BUFFER_SIZE = 4096;
+
+    /** Magic number at the start of a commit graph file. */
+    private static final byte[] MAGIC =
+        "GLCG".getBytes(StandardCharsets.UTF_8);
+
+    /** Version of the commit graph format. */
+    private static final int VERSION = 2;
+
+    /** The .gitlet directory this graph describes. */
+    private final File _gitlet;
+
+    /** Number of commits in the graph. */
+    private int _count;
+
+    /** Commit ids by position. */
+    private String[] _ids = new String[0];
+
+    /** Positions of first parents by position, -1 if none. */
+    private int[] _parents = new int[0];
+
+    /** Positions of merge parents by position, -1 if none. */
+    private int[] _mergeParents = new int[0];
+
+    /** Changed-path Bloom filters by position, null where every path
+     *  might have changed. */
+    private byte[][] _blooms = new byte[0][];
+
+    /** Generation numbers by position. */
+    private int[] _generations = new int[0];
+
+    /** Positions by commit id. */
+    private final HashMap<String, Integer> _positions = new HashMap<>();
+
+    /** Reachability bitmaps of selected commits, by position. */
+    private final HashMap<Integer, BitSet> _bitmaps = new HashMap<>();
+
+}
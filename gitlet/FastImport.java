@@ -0,0 +1,641 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import gitlet.ObjectStore.Kind;
+
+/** The fast-import command: reads a stream of blobs, commits and
+ *  branch updates and writes them straight into a new pack in
+ *  .gitlet/packs, without touching the working directory or the
+ *  staging area.
+ *
+ *  The stream is a sequence of commands, one per line, with the
+ *  contents of blobs and commit messages given as raw bytes:
+ *
+ *      blob
+ *      mark :N                 (optional)
+ *      data LEN
+ *      LEN bytes of contents, then an optional newline
+ *
+ *      commit BRANCH
+ *      mark :N                 (optional)
+ *      date SECONDS            (optional; the default is now)
+ *      data LEN
+ *      LEN bytes of message, then an optional newline
+ *      from REF                (optional)
+ *      merge REF               (optional)
+ *      M [MODE] REF NAME       (any number)
+ *      D NAME                  (any number)
+ *
+ *      reset BRANCH
+ *      from REF                (optional)
+ *
+ *      done                    (optional; ends the stream)
+ *
+ *  Blank lines and lines starting with # are ignored. A REF is :N, for
+ *  the blob or commit marked N earlier in the stream, a full id, or, for
+ *  commits, a branch. A commit with no from line follows the last one
+ *  made on its branch in the stream, or else the branch's head, or else
+ *  the initial commit; it tracks what its first parent does, changed by
+ *  its M and D lines. MODE is accepted for compatibility and ignored.
+ *
+ *  Parsing, hashing and writing overlap. A reader thread parses the
+ *  stream and hands each blob to a pool of hashing threads, one per
+ *  core, as soon as it is read; the calling thread takes the commands
+ *  in order, waits for each blob's id, builds commits and adds objects
+ *  to a batch that is appended to the pack in one write whenever it
+ *  grows large. Blobs read but not yet written are bounded in total
+ *  size, so the reader waits rather than outruns the writer. The pack
+ *  is written under a temporary name no other command opens; at the
+ *  end it is forced to disk once, its index written beside it, and
+ *  only then is it renamed into place, the branches updated, and the
+ *  commit-graph rebuilt once for all of them. A stream that fails part
+ *  way leaves the repository as it was.
+ *  @author Ed Scerbo
+ */
+class FastImport {
+
+    /** An import reading the stream IN. */
+    FastImport(InputStream in) {
+        _in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /** Imports everything in the stream, then points each branch it
+     *  names at the last commit made on it. */
+    void run() {
+        long start = Trace.begin();
+        Main.PACKS.mkdirs();
+        File packFile = new File(Main.PACKS,
+                System.currentTimeMillis() + Main.PACK_SUFFIX);
+        File indexFile = PackObjectStore.indexFile(packFile);
+        File tempFile = new File(packFile.getPath() + TEMP_SUFFIX);
+        _pack = new PackObjectStore(tempFile, indexFile);
+        int threads = Runtime.getRuntime().availableProcessors();
+        _hashers = Executors.newFixedThreadPool(threads);
+        Thread reader = new Thread(this::parse, "fast-import reader");
+        reader.setDaemon(true);
+        boolean done = false;
+        try {
+            reader.start();
+            write();
+            flush();
+            done = true;
+        } finally {
+            reader.interrupt();
+            _hashers.shutdownNow();
+            try {
+                if (done && _blobs + _commits > 0) {
+                    _pack.close();
+                    Files.move(tempFile.toPath(), packFile.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE);
+                    try (FileChannel dir = FileChannel.open(
+                            Main.PACKS.toPath(), StandardOpenOption.READ)) {
+                        dir.force(false);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                if (tempFile.exists()) {
+                    abandon(indexFile, tempFile);
+                }
+            }
+        }
+        Main.useObjects(null);
+        for (Map.Entry<String, String> tip : _tips.entrySet()) {
+            Refs.set(tip.getKey(), tip.getValue(), Reflog.Action.IMPORT);
+        }
+        if (!_tips.isEmpty()) {
+            CommitGraph.write(Main.COMMON, Remote.branchHeads(Main.COMMON));
+        }
+        Trace.end("fastImport", start);
+    }
+
+    /** Closes the pack, unfinished or empty, and deletes it and its
+     *  INDEX from its TEMP file. */
+    private void abandon(File index, File temp) {
+        try {
+            _pack.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            temp.delete();
+            index.delete();
+        }
+    }
+
+    /** Returns the number of blobs written. */
+    int blobs() {
+        return _blobs;
+    }
+
+    /** Returns the number of commits written. */
+    int commits() {
+        return _commits;
+    }
+
+    /** The kinds of command in the stream. */
+    private enum Type {
+        /** A blob. */
+        BLOB,
+        /** A commit. */
+        COMMIT,
+        /** A branch update. */
+        RESET,
+        /** The end of the stream. */
+        END,
+        /** A malformed stream. */
+        ERROR
+    }
+
+    /** One command parsed from the stream. */
+    private static class Command {
+        /** A command of the given TYPE. */
+        Command(Type type) {
+            _type = type;
+        }
+
+        /** The kind of command. */
+        private final Type _type;
+        /** Its mark, or null. */
+        private String _mark;
+        /** The branch a commit or reset names. */
+        private String _branch;
+        /** A blob's contents. */
+        private byte[] _contents;
+        /** A blob's id, once hashed. */
+        private Future<String> _sha1;
+        /** The number of bytes reserved for a blob. */
+        private int _reserved;
+        /** A commit's time in seconds since the epoch, or -1 for now. */
+        private long _date = -1;
+        /** A commit's message, or what is wrong with the stream. */
+        private String _message;
+        /** A commit or reset's first parent, or null. */
+        private String _from;
+        /** A commit's merged-in parent, or null. */
+        private String _merge;
+        /** A commit's file changes in order: a ref and a name for each
+         *  file added or changed, a null ref for each one removed. */
+        private final List<String[]> _changes = new ArrayList<>();
+    }
+
+    /** Parses the stream, handing each command to the writer, and
+     *  starts hashing each blob as it is read. Run by the reader
+     *  thread. */
+    private void parse() {
+        try {
+            String line;
+            while ((line = nextLine()) != null) {
+                if (line.equals("blob")) {
+                    _queue.put(parseBlob());
+                } else if (line.startsWith("commit ")) {
+                    _queue.put(parseCommit(line.substring(7)));
+                } else if (line.startsWith("reset ")) {
+                    Command reset = new Command(Type.RESET);
+                    reset._branch = line.substring(6);
+                    reset._from = optional("from ");
+                    _queue.put(reset);
+                } else if (line.equals("done")) {
+                    break;
+                } else {
+                    throw bad();
+                }
+            }
+            _queue.put(new Command(Type.END));
+        } catch (InterruptedException excp) {
+            return;
+        } catch (GitletException | IOException | NumberFormatException excp) {
+            Command error = new Command(Type.ERROR);
+            error._message = excp instanceof GitletException
+                ? excp.getMessage()
+                : String.format("Bad fast-import input at line %d.", _line);
+            try {
+                _queue.put(error);
+            } catch (InterruptedException interrupted) {
+                return;
+            }
+        }
+    }
+
+    /** Returns the blob command whose first line has just been read. */
+    private Command parseBlob() throws IOException, InterruptedException {
+        final Command blob = new Command(Type.BLOB);
+        blob._mark = mark();
+        int length = dataLength();
+        blob._reserved = Math.min(length, PENDING_BYTES / 2);
+        _pending.acquire(blob._reserved);
+        final byte[] contents = data(length);
+        blob._contents = contents;
+        blob._sha1 = _hashers.submit(() -> Utils.sha1(contents));
+        return blob;
+    }
+
+    /** Returns the commit on BRANCH whose first line has just been
+     *  read. */
+    private Command parseCommit(String branch) throws IOException {
+        Command commit = new Command(Type.COMMIT);
+        commit._branch = branch;
+        commit._mark = mark();
+        String date = optional("date ");
+        if (date != null) {
+            commit._date = Long.parseLong(date);
+        }
+        commit._message = new String(data(dataLength()),
+                StandardCharsets.UTF_8);
+        commit._from = optional("from ");
+        commit._merge = optional("merge ");
+        String line;
+        while ((line = nextLine()) != null) {
+            if (line.startsWith("M ")) {
+                String[] parts = line.substring(2).split(" ", 2);
+                if (parts.length == 2 && parts[0].matches("[0-7]{6}")) {
+                    parts = parts[1].split(" ", 2);
+                }
+                if (parts.length != 2) {
+                    throw bad();
+                }
+                commit._changes.add(parts);
+            } else if (line.startsWith("D ")) {
+                commit._changes.add(new String[] { null, line.substring(2) });
+            } else {
+                _pushedBack = line;
+                break;
+            }
+        }
+        return commit;
+    }
+
+    /** Returns the mark on the next line, if there is one, or null. */
+    private String mark() throws IOException {
+        String mark = optional("mark ");
+        if (mark != null && !mark.matches(":[0-9]+")) {
+            throw bad();
+        }
+        return mark;
+    }
+
+    /** Returns the rest of the next line if it starts with PREFIX, or
+     *  null, leaving the line to be read again, if it does not. */
+    private String optional(String prefix) throws IOException {
+        String line = nextLine();
+        if (line != null && line.startsWith(prefix)) {
+            return line.substring(prefix.length());
+        }
+        _pushedBack = line;
+        return null;
+    }
+
+    /** Reads a data line and returns the length it gives. */
+    private int dataLength() throws IOException {
+        String line = nextLine();
+        if (line == null || !line.startsWith("data ")) {
+            throw bad();
+        }
+        int length = Integer.parseInt(line.substring(5));
+        if (length < 0) {
+            throw bad();
+        }
+        return length;
+    }
+
+    /** Reads and returns LENGTH bytes of data, and the newline after
+     *  them, if there is one. */
+    private byte[] data(int length) throws IOException {
+        byte[] contents = new byte[length];
+        _in.readFully(contents);
+        for (byte b : contents) {
+            if (b == '\n') {
+                _line += 1;
+            }
+        }
+        _in.mark(1);
+        if (_in.read() != '\n') {
+            _in.reset();
+        } else {
+            _line += 1;
+        }
+        return contents;
+    }
+
+    /** Returns the next line that is neither blank nor a comment, or null
+     *  at the end of the stream. */
+    private String nextLine() throws IOException {
+        if (_pushedBack != null) {
+            String line = _pushedBack;
+            _pushedBack = null;
+            return line;
+        }
+        while (true) {
+            String line = readLine();
+            if (line == null || !line.isEmpty() && !line.startsWith("#")) {
+                return line;
+            }
+        }
+    }
+
+    /** Returns the next line of the stream, without its newline, or
+     *  null at the end of the stream. */
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = _in.read()) != -1 && c != '\n') {
+            line.write(c);
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        _line += 1;
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Returns the error for a malformed stream at the current line. */
+    private GitletException bad() {
+        return Utils.error("Bad fast-import input at line %d.", _line);
+    }
+
+    /** Takes the parsed commands in order and writes their objects,
+     *  until the end of the stream. */
+    private void write() {
+        try {
+            while (true) {
+                Command command = _queue.take();
+                switch (command._type) {
+                case BLOB:
+                    writeBlob(command);
+                    break;
+                case COMMIT:
+                    writeCommit(command);
+                    break;
+                case RESET:
+                    _tips.put(command._branch, command._from == null
+                            ? initialCommit() : commitRef(command._from));
+                    break;
+                case ERROR:
+                    throw Utils.error(command._message);
+                default:
+                    return;
+                }
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw Utils.error("Import failed: %s", excp.getMessage());
+        }
+    }
+
+    /** Adds the blob BLOB to the batch, once it has been hashed. */
+    private void writeBlob(Command blob)
+        throws InterruptedException, ExecutionException {
+        String sha1 = blob._sha1.get();
+        if (blob._mark != null) {
+            _marks.put(blob._mark, sha1);
+        }
+        if (has(Kind.BLOB, sha1)) {
+            _pending.release(blob._reserved);
+        } else {
+            _batchBlobs.put(sha1, blob._contents);
+            _batchBytes += blob._contents.length;
+            _batchReserved += blob._reserved;
+            _blobs += 1;
+        }
+        if (_batchBytes >= BATCH_BYTES) {
+            flush();
+        }
+    }
+
+    /** Builds the commit COMMIT describes and adds it to the batch. */
+    private void writeCommit(Command commit) {
+        String parent = commit._from != null ? commitRef(commit._from)
+            : _tips.containsKey(commit._branch) ? _tips.get(commit._branch)
+            : Refs.exists(commit._branch) ? Refs.get(commit._branch)
+            : initialCommit();
+        String mergeParent = commit._merge == null ? null
+            : commitRef(commit._merge);
+        HashMap<String, String> tracked = new HashMap<>(tracked(parent));
+        for (String[] change : commit._changes) {
+            String name = change[1];
+            if (name.isEmpty() || name.contains("/")) {
+                throw Utils.error("Invalid file name %s.", name);
+            }
+            if (change[0] == null) {
+                tracked.remove(name);
+            } else {
+                tracked.put(name, blobRef(change[0]));
+            }
+        }
+        SimpleDateFormat date
+            = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
+        String timestamp = date.format(commit._date < 0 ? new Date()
+                : new Date(commit._date * 1000));
+        byte[] serialized = Utils.serialize(new Commit(timestamp,
+                commit._message, tracked, parent, mergeParent));
+        String sha1 = Utils.sha1(serialized);
+        if (!has(Kind.COMMIT, sha1)) {
+            _batchCommits.put(sha1, serialized);
+            _batchBytes += serialized.length;
+            _commits += 1;
+        }
+        if (commit._mark != null) {
+            _marks.put(commit._mark, sha1);
+        }
+        _tips.put(commit._branch, sha1);
+        _lastCommit = sha1;
+        _lastTracked = tracked;
+    }
+
+    /** Appends the batch to the pack in one write and lets the reader
+     *  go on with the room it took. */
+    private void flush() {
+        _pack.putAll(Kind.BLOB, _batchBlobs);
+        _pack.putAll(Kind.COMMIT, _batchCommits);
+        Trace.count(Trace.Counter.OBJECTS_WRITTEN,
+                _batchBlobs.size() + _batchCommits.size());
+        _batchBlobs.clear();
+        _batchCommits.clear();
+        _batchBytes = 0;
+        _pending.release(_batchReserved);
+        _batchReserved = 0;
+    }
+
+    /** Returns the files tracked by the commit SHA1, mapped to their
+     *  blobs. */
+    private Map<String, String> tracked(String sha1) {
+        if (sha1.equals(_lastCommit)) {
+            return _lastTracked;
+        }
+        byte[] contents = get(Kind.COMMIT, sha1);
+        if (contents == null) {
+            throw Utils.error("Missing commit %s.", sha1);
+        }
+        return Utils.deserialize(contents, Commit.class).getTracked();
+    }
+
+    /** Returns the id of the commit REF names. */
+    private String commitRef(String ref) {
+        if (ref.startsWith(":")) {
+            return mark(ref);
+        } else if (_tips.containsKey(ref)) {
+            return _tips.get(ref);
+        } else if (Refs.exists(ref)) {
+            return Refs.get(ref);
+        } else if (has(Kind.COMMIT, ref)) {
+            return ref;
+        }
+        throw Utils.error("Missing commit %s.", ref);
+    }
+
+    /** Returns the id of the blob REF names. */
+    private String blobRef(String ref) {
+        if (ref.startsWith(":")) {
+            return mark(ref);
+        } else if (has(Kind.BLOB, ref)) {
+            return ref;
+        }
+        throw Utils.error("Missing blob %s.", ref);
+    }
+
+    /** Returns the id of the object marked MARK. */
+    private String mark(String mark) {
+        String sha1 = _marks.get(mark);
+        if (sha1 == null) {
+            throw Utils.error("Unknown mark %s.", mark);
+        }
+        return sha1;
+    }
+
+    /** Returns the id of the initial commit, adding it to the batch if
+     *  this repository does not have it. */
+    private String initialCommit() {
+        byte[] serialized = Utils.serialize(new Commit.InitialCommit());
+        String sha1 = Utils.sha1(serialized);
+        if (!has(Kind.COMMIT, sha1)) {
+            _batchCommits.put(sha1, serialized);
+            _commits += 1;
+        }
+        return sha1;
+    }
+
+    /** Returns true iff the object of the given KIND and SHA1 is in the
+     *  batch, the pack or the repository. */
+    private boolean has(Kind kind, String sha1) {
+        return get(kind, sha1, false) != null;
+    }
+
+    /** Returns the contents of the object of the given KIND and SHA1,
+     *  or null if there is none. */
+    private byte[] get(Kind kind, String sha1) {
+        return get(kind, sha1, true);
+    }
+
+    /** Returns the contents of the object of the given KIND and SHA1,
+     *  or null if there is none. If not READ, returns any non-null
+     *  array instead of reading an object that is not in the batch. */
+    private byte[] get(Kind kind, String sha1, boolean read) {
+        Map<String, byte[]> batch =
+            kind == Kind.BLOB ? _batchBlobs : _batchCommits;
+        if (batch.containsKey(sha1)) {
+            return batch.get(sha1);
+        }
+        for (ObjectStore store : new ObjectStore[] {_pack, Main.objects()}) {
+            if (store.contains(kind, sha1)) {
+                return read ? store.get(kind, sha1) : NO_BYTES;
+            }
+        }
+        return null;
+    }
+
+    /** Bound on the total size of blobs read but not yet written. */
+    private static final int PENDING_BYTES = 64 << 20;
+
+    /** Suffix of the pack's name until it is complete. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Size past which a batch is written to the pack. */
+    private static final int BATCH_BYTES = 8 << 20;
+
+    /** Bound on the number of commands parsed but not yet written. */
+    private static final int QUEUE_LENGTH = 1024;
+
+    /** An empty array. */
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /** The stream. */
+    private final DataInputStream _in;
+
+    /** The number of the line last read. */
+    private int _line;
+
+    /** A line to be read again, or null. */
+    private String _pushedBack;
+
+    /** Commands parsed but not yet written, in order. */
+    private final BlockingQueue<Command> _queue =
+        new ArrayBlockingQueue<>(QUEUE_LENGTH);
+
+    /** Room left for blobs read but not yet written, in bytes. */
+    private final Semaphore _pending = new Semaphore(PENDING_BYTES);
+
+    /** The threads hashing blobs. */
+    private ExecutorService _hashers;
+
+    /** The pack being written. */
+    private PackObjectStore _pack;
+
+    /** Blobs waiting to be written, keyed by id. */
+    private final LinkedHashMap<String, byte[]> _batchBlobs =
+        new LinkedHashMap<>();
+
+    /** Commits waiting to be written, keyed by id. */
+    private final LinkedHashMap<String, byte[]> _batchCommits =
+        new LinkedHashMap<>();
+
+    /** Total size of the objects waiting to be written. */
+    private long _batchBytes;
+
+    /** Room taken from _pending by the blobs in the batch. */
+    private int _batchReserved;
+
+    /** The id of each marked object, keyed by mark. */
+    private final HashMap<String, String> _marks = new HashMap<>();
+
+    /** The last commit made on each branch, in the order the branches
+     *  were first named. */
+    private final LinkedHashMap<String, String> _tips =
+        new LinkedHashMap<>();
+
+    /** The id of the last commit made, or null. */
+    private String _lastCommit;
+
+    /** The files the last commit made tracks. */
+    private Map<String, String> _lastTracked;
+
+    /** The number of blobs written. */
+    private int _blobs;
+
+    /** The number of commits written. */
+    private int _commits;
+
+}
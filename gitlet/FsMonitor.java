@@ -0,0 +1,406 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/** An optional file-system monitor: a background daemon, one per
+ *  repository, that watches the working directory through a
+ *  WatchService and remembers which files changed. Clients ask it what
+ *  changed since a token it handed out earlier, and so only need to
+ *  look at those files.
+ *
+ *  The daemon listens on a local socket whose port it records in
+ *  .gitlet/fsmonitor. A client sends its token, and the daemon answers
+ *  with a new token, then either "full", meaning the client must scan
+ *  everything (the daemon restarted or its event queue overflowed since
+ *  the token was issued), or "partial" followed by the changed names,
+ *  one per line. Before answering, the daemon creates a cookie file and
+ *  waits until its own event comes back, so every change made before
+ *  the query has been seen.
+ *  @author Ed Scerbo
+ */
+class FsMonitor {
+
+    /** The answer to a query. */
+    static class Changes {
+        /** An answer with the new TOKEN, the changed NAMES, and FULL
+         *  true iff everything must be scanned. */
+        Changes(String token, boolean full, List<String> names) {
+            _token = token;
+            _full = full;
+            _names = names;
+        }
+
+        /** Returns the token to send with the next query. */
+        String token() {
+            return _token;
+        }
+
+        /** Returns true iff the client must scan everything. */
+        boolean full() {
+            return _full;
+        }
+
+        /** Returns the names of the files changed since the token. */
+        List<String> names() {
+            return _names;
+        }
+
+        /** The new token. */
+        private final String _token;
+        /** True iff a full scan is needed. */
+        private final boolean _full;
+        /** The changed names. */
+        private final List<String> _names;
+    }
+
+    /** Asks the running monitor what changed since TOKEN, which may be
+     *  null. Returns null if no monitor is running. */
+    static Changes query(String token) {
+        if (!STATE.isFile()) {
+            return null;
+        }
+        try (Socket socket = connect()) {
+            PrintWriter out = writer(socket);
+            BufferedReader in = reader(socket);
+            out.println(QUERY + " " + (token == null ? "" : token));
+            out.flush();
+            String newToken = in.readLine();
+            String kind = in.readLine();
+            if (newToken == null || kind == null) {
+                return null;
+            }
+            List<String> names = new ArrayList<>();
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                names.add(line);
+            }
+            return new Changes(newToken, !kind.equals(PARTIAL), names);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns true iff a monitor answers for this repository. */
+    static boolean isRunning() {
+        return query(null) != null;
+    }
+
+    /** Starts the daemon in a new process, unless one is running, and
+     *  waits until it answers. */
+    static void start() {
+        if (isRunning()) {
+            return;
+        }
+        String java = new File(new File(System.getProperty("java.home"),
+                "bin"), "java").getPath();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                System.getProperty("java.class.path"), Main.class.getName(),
+                "fsmonitor", "run");
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            builder.start();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (int i = 0; i < START_ATTEMPTS && !isRunning(); i += 1) {
+            pause(START_WAIT);
+        }
+    }
+
+    /** Asks the running daemon, if any, to exit. */
+    static void stop() {
+        if (!STATE.isFile()) {
+            return;
+        }
+        try (Socket socket = connect()) {
+            PrintWriter out = writer(socket);
+            out.println(STOP);
+            out.flush();
+            reader(socket).readLine();
+        } catch (IOException excp) {
+            STATE.delete();
+        }
+    }
+
+    /** Returns a connection to the daemon named in the state file. */
+    private static Socket connect() throws IOException {
+        int port;
+        try {
+            port = Integer.parseInt(
+                    Utils.readContentsAsString(STATE).trim());
+        } catch (IllegalArgumentException excp) {
+            throw new IOException("bad monitor state");
+        }
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                port), CONNECT_TIMEOUT);
+        socket.setSoTimeout(READ_TIMEOUT);
+        return socket;
+    }
+
+    /** Returns a line writer on SOCKET. */
+    private static PrintWriter writer(Socket socket) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(
+                socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /** Returns a line reader on SOCKET. */
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /** Sleeps for MILLIS milliseconds. */
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Runs the daemon for the repository in the current directory
+     *  until it is stopped or the repository goes away. */
+    static void runDaemon() {
+        new FsMonitor().run();
+    }
+
+    /** A daemon for the repository in the current directory. */
+    private FsMonitor() {
+        _instance = Long.toHexString(System.nanoTime());
+    }
+
+    /** Runs this daemon. */
+    private void run() {
+        try (WatchService watcher = FileSystems.getDefault()
+                .newWatchService();
+             ServerSocket server = new ServerSocket(0, 0,
+                     InetAddress.getLoopbackAddress())) {
+            COOKIES.mkdirs();
+            Path workDir = new File(".").toPath();
+            Path cookieDir = COOKIES.toPath();
+            workDir.register(watcher, KINDS);
+            cookieDir.register(watcher, KINDS);
+            Thread listener = new Thread(() -> listen(server));
+            listener.setDaemon(true);
+            listener.start();
+            Utils.writeContents(STATE,
+                    Integer.toString(server.getLocalPort()));
+            while (!_stopped && Main.GITLET.isDirectory()) {
+                WatchKey key = watcher.poll(POLL_INTERVAL,
+                        TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                boolean cookie = key.watchable().equals(cookieDir);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    record(event, cookie);
+                }
+                if (!key.reset() && !cookie) {
+                    break;
+                }
+            }
+        } catch (IOException excp) {
+            return;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!_stopped) {
+                STATE.delete();
+            }
+            Utils.recursiveDelete(COOKIES);
+        }
+    }
+
+    /** Records EVENT, which came from the cookie directory iff
+     *  COOKIE. */
+    private synchronized void record(WatchEvent<?> event, boolean cookie) {
+        _sequence += 1;
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            _overflow = _sequence;
+        } else if (cookie) {
+            _cookiesSeen.add(event.context().toString());
+        } else {
+            String name = event.context().toString();
+            if (!name.equals(Main.GITLET.getName())) {
+                _changed.put(name, _sequence);
+            }
+        }
+        notifyAll();
+    }
+
+    /** Answers clients on SERVER until the daemon stops. */
+    private void listen(ServerSocket server) {
+        while (!_stopped) {
+            try (Socket socket = server.accept()) {
+                String request = reader(socket).readLine();
+                PrintWriter out = writer(socket);
+                if (request == null) {
+                    continue;
+                } else if (request.equals(STOP)) {
+                    _stopped = true;
+                    STATE.delete();
+                    out.println(STOP);
+                } else if (request.startsWith(QUERY)) {
+                    answer(request.substring(QUERY.length()).trim(), out);
+                }
+                out.flush();
+            } catch (IOException excp) {
+                continue;
+            }
+        }
+    }
+
+    /** Writes to OUT what changed since TOKEN. */
+    private void answer(String token, PrintWriter out) {
+        long since = -1;
+        String[] parts = token.split(":");
+        try {
+            if (parts.length == 2 && parts[0].equals(_instance)) {
+                since = Long.parseLong(parts[1]);
+            }
+        } catch (NumberFormatException excp) {
+            since = -1;
+        }
+        boolean synced = sync();
+        TreeSet<String> names = new TreeSet<>();
+        long now;
+        boolean full;
+        synchronized (this) {
+            now = _sequence;
+            full = !synced || since < 0 || _overflow > since;
+            if (!full) {
+                for (String name : _changed.keySet()) {
+                    if (_changed.get(name) > since) {
+                        names.add(name);
+                    }
+                }
+            }
+        }
+        out.println(_instance + ":" + now);
+        out.println(full ? FULL : PARTIAL);
+        for (String name : names) {
+            out.println(name);
+        }
+    }
+
+    /** Creates a cookie file and waits until its creation has been
+     *  seen, which means every earlier change has been seen as well.
+     *  Returns false if that takes too long. */
+    private boolean sync() {
+        String name = COOKIE_PREFIX + _cookies;
+        _cookies += 1;
+        File cookie = new File(COOKIES, name);
+        try {
+            Utils.writeContents(cookie, "");
+            long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+            synchronized (this) {
+                while (!_cookiesSeen.contains(name)) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        return false;
+                    }
+                    wait(left);
+                }
+                _cookiesSeen.remove(name);
+            }
+            return true;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            cookie.delete();
+        }
+    }
+
+    /** The state file, holding the daemon's port. */
+    static final File STATE = new File(Main.GITLET, "fsmonitor");
+
+    /** Directory holding the daemon's cookie files. */
+    private static final File COOKIES =
+        new File(Main.GITLET, "fsmonitor-cookies");
+
+    /** Prefix of cookie file names. */
+    private static final String COOKIE_PREFIX = "cookie-";
+
+    /** The kinds of events watched. */
+    private static final WatchEvent.Kind<?>[] KINDS = {
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE,
+        StandardWatchEventKinds.ENTRY_MODIFY
+    };
+
+    /** Request for changes since a token. */
+    private static final String QUERY = "query";
+
+    /** Request to stop the daemon. */
+    private static final String STOP = "stop";
+
+    /** Answer meaning everything must be scanned. */
+    private static final String FULL = "full";
+
+    /** Answer meaning only the listed names changed. */
+    private static final String PARTIAL = "partial";
+
+    /** Milliseconds allowed for connecting to the daemon. */
+    private static final int CONNECT_TIMEOUT = 500;
+
+    /** Milliseconds allowed for the daemon to answer. */
+    private static final int READ_TIMEOUT = 5000;
+
+    /** Milliseconds the daemon waits for its own cookie. */
+    private static final long SYNC_TIMEOUT = 2000;
+
+    /** Milliseconds between checks that the repository still exists. */
+    private static final long POLL_INTERVAL = 1000;
+
+    /** Times to check that a newly started daemon answers. */
+    private static final int START_ATTEMPTS = 50;
+
+    /** Milliseconds between those checks. */
+    private static final long START_WAIT = 100;
+
+    /** Identifies this run of the daemon within its tokens. */
+    private final String _instance;
+
+    /** Number of events seen so far. */
+    private long _sequence;
+
+    /** Sequence number of the last overflow, or -1. */
+    private long _overflow = -1;
+
+    /** For each changed file, the sequence number of its last change. */
+    private final HashMap<String, Long> _changed = new HashMap<>();
+
+    /** Cookie files whose creation has been seen. */
+    private final TreeSet<String> _cookiesSeen = new TreeSet<>();
+
+    /** Number of cookies created so far. */
+    private int _cookies;
+
+    /** True once the daemon has been asked to stop. */
+    private volatile boolean _stopped;
+
+}
@@ -0,0 +1,310 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Integrity checking of the object store. The fsck command hashes
+ *  every object again, in parallel, and checks that commits' parents
+ *  and blobs exist and that every object is reachable. A corrupt blob
+ *  that is hard-linked into a working tree by link-mode checkout is
+ *  flagged as such, since an edit in place is the likely cause.
+ *  Separately, when the environment
+ *  variable GITLET_VERIFY is set, objects are checked against their
+ *  names as they are read. Objects that pass are remembered, with their
+ *  sizes, in .gitlet/verified, so later reads of them cost nothing
+ *  extra, unless they are linked.
+ *  @author Ed Scerbo
+ */
+class Fsck {
+
+    /** Hashes the objects IDS[LO .. HI-1] of the given KIND, splitting
+     *  the work across the fork/join pool, and returns the ids of those
+     *  whose contents do not match their names. */
+    private static class HashTask extends RecursiveTask<List<String>> {
+        /** A task covering IDS[LO .. HI-1], which are commits iff
+         *  COMMITS. */
+        HashTask(List<String> ids, boolean commits, int lo, int hi) {
+            _ids = ids;
+            _commits = commits;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (_hi - _lo <= BATCH_SIZE) {
+                List<String> bad = new ArrayList<>();
+                ObjectStore.Kind kind = _commits
+                    ? ObjectStore.Kind.COMMIT : ObjectStore.Kind.BLOB;
+                for (int i = _lo; i < _hi; i += 1) {
+                    String sha1 = _ids.get(i);
+                    if (!matches(Main.objects().get(kind, sha1), sha1,
+                                 _commits)) {
+                        bad.add(sha1);
+                    }
+                }
+                return bad;
+            }
+            int mid = (_lo + _hi) >>> 1;
+            HashTask left = new HashTask(_ids, _commits, _lo, mid);
+            left.fork();
+            List<String> bad = new HashTask(_ids, _commits, mid, _hi)
+                .compute();
+            bad.addAll(left.join());
+            return bad;
+        }
+
+        /** The object ids. */
+        private final List<String> _ids;
+        /** True iff they are commits. */
+        private final boolean _commits;
+        /** The range covered. */
+        private final int _lo, _hi;
+
+        /** Pinned for -Xlint; a task is never written out. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Checks the whole repository, returning one line per problem:
+     *  corrupt objects, noting blobs hard-linked into a working tree,
+     *  commits whose parents or blobs are missing, and objects no branch
+     *  or staged file reaches. */
+    static List<String> check() {
+        long start = Trace.begin();
+        List<String> commitIds = Main.objects().list(ObjectStore.Kind.COMMIT,
+                "");
+        List<String> blobIds = Main.objects().list(ObjectStore.Kind.BLOB, "");
+        TreeSet<String> corruptCommits = new TreeSet<>(rehash(commitIds,
+                true));
+        TreeSet<String> corruptBlobs = new TreeSet<>(rehash(blobIds,
+                false));
+        List<String> problems = new ArrayList<>();
+        for (String sha1 : corruptCommits) {
+            problems.add("corrupt commit " + sha1);
+        }
+        for (String sha1 : corruptBlobs) {
+            problems.add("corrupt blob " + sha1 + (linked(sha1, false)
+                    ? " (hard-linked into a working tree)" : ""));
+        }
+
+        HashSet<String> commits = new HashSet<>(commitIds);
+        HashSet<String> blobs = new HashSet<>(blobIds);
+        HashSet<String> usedBlobs = new HashSet<>();
+        TreeSet<String> shallow = Promisor.shallowCommits();
+        for (String sha1 : new TreeSet<>(commits)) {
+            if (corruptCommits.contains(sha1)) {
+                continue;
+            }
+            Commit commit = Main.retrieveLocalCommit(sha1);
+            for (String parent : Promisor.parents(commit)) {
+                if (!commits.contains(parent) && !shallow.contains(sha1)
+                        && !Promisor.hasCommit(parent)) {
+                    problems.add("missing commit " + parent
+                            + " (parent of " + sha1 + ")");
+                }
+            }
+            for (String blob : new TreeSet<>(commit.getTracked().values())) {
+                usedBlobs.add(blob);
+                if (!blobs.contains(blob) && !promised(blob)) {
+                    problems.add("missing blob " + blob
+                            + " (tracked by " + sha1 + ")");
+                }
+            }
+        }
+
+        HashSet<String> reachable = new HashSet<>();
+        ArrayDeque<String> queue = new ArrayDeque<>(
+                Remote.branchHeads(Main.COMMON));
+        while (!queue.isEmpty()) {
+            String sha1 = queue.poll();
+            if (commits.contains(sha1) && !corruptCommits.contains(sha1)
+                    && reachable.add(sha1)) {
+                queue.addAll(Promisor.parents(
+                        Main.retrieveLocalCommit(sha1)));
+            }
+        }
+        for (String sha1 : new TreeSet<>(commits)) {
+            if (!reachable.contains(sha1)) {
+                problems.add("dangling commit " + sha1);
+            }
+        }
+        for (File gitlet : Worktree.all().values()) {
+            Index index = Index.read(new File(gitlet, Main.INDEX.getName()));
+            for (String name : index.staged()) {
+                usedBlobs.add(index.get(name).blob());
+            }
+        }
+        for (String sha1 : new TreeSet<>(blobs)) {
+            if (!usedBlobs.contains(sha1)) {
+                problems.add("dangling blob " + sha1);
+            }
+        }
+        Trace.end("fsck", start);
+        return problems;
+    }
+
+    /** Returns true iff verify-on-read is on. */
+    static boolean verifying() {
+        String value = System.getenv(ENV_VAR);
+        return value != null && !value.isEmpty() && !value.equals("0");
+    }
+
+    /** If verify-on-read is on, checks CONTENTS, which are a commit iff
+     *  COMMIT, against their name SHA1, unless an object of that name
+     *  and size was verified before and its file is not hard-linked
+     *  into a working tree, where it may have been written in place.
+     *  Objects read through Main.withObjects may be another
+     *  repository's, so those are always checked and never recorded.
+     *  Throws a GitletException if they do not match. */
+    static void verifyOnRead(String sha1, byte[] contents, boolean commit) {
+        if (!verifying()) {
+            return;
+        }
+        if (Main.borrowedObjects()) {
+            if (!matches(contents, sha1, commit)) {
+                throw Utils.error("Corrupt %s %s.",
+                        commit ? "commit" : "blob", sha1);
+            }
+            return;
+        }
+        long size = contents.length;
+        Long known;
+        synchronized (Fsck.class) {
+            known = verified().get(sha1);
+        }
+        boolean linked = linked(sha1, commit);
+        if (known != null && known == size && !linked) {
+            return;
+        }
+        if (!matches(contents, sha1, commit)) {
+            throw Utils.error("Corrupt %s %s%s.", commit ? "commit" : "blob",
+                    sha1, linked ? ", which is hard-linked into a working tree"
+                    : "");
+        }
+        synchronized (Fsck.class) {
+            verified().put(sha1, size);
+            _newlyVerified.add(sha1);
+        }
+    }
+
+    /** Returns true iff the object of the given SHA1, a commit iff
+     *  COMMIT, is kept in a file of its own that has other hard links,
+     *  as a blob checked out in link mode does. */
+    private static boolean linked(String sha1, boolean commit) {
+        File file = Main.objects().file(commit ? ObjectStore.Kind.COMMIT
+                : ObjectStore.Kind.BLOB, sha1);
+        return file != null && Main.linkCount(file) > 1;
+    }
+
+    /** Appends the objects verified during this command to the
+     *  verified file, after cutting off any torn record at its end. */
+    static synchronized void finish() {
+        if (_newlyVerified.isEmpty() || !Main.GITLET.isDirectory()) {
+            return;
+        }
+        ByteBuffer records = ByteBuffer.allocate(_newlyVerified.size()
+                * RECORD_SIZE);
+        for (String sha1 : _newlyVerified) {
+            records.put(Index.toBytes(sha1)).putLong(_verified.get(sha1));
+        }
+        Utils.appendRecords(VERIFIED, records.array(), RECORD_SIZE);
+        _newlyVerified.clear();
+    }
+
+    /** Returns true iff CONTENTS, which are a commit iff COMMIT, have
+     *  the name SHA1. Commits written before commit files held exactly
+     *  their hashed bytes carry their own id, and are checked by
+     *  hashing them without it. */
+    static boolean matches(byte[] contents, String sha1, boolean commit) {
+        if (Utils.sha1(contents).equals(sha1)) {
+            return true;
+        } else if (!commit) {
+            return false;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(contents));
+            Commit old = (Commit) in.readObject();
+            if (!sha1.equals(old.getSha1())) {
+                return false;
+            }
+            old.setSha1(null);
+            return Utils.sha1(Utils.serialize(old)).equals(sha1);
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the ids among IDS, which are commits iff COMMITS, whose
+     *  contents do not match. */
+    private static List<String> rehash(List<String> ids, boolean commits) {
+        if (ids.size() <= BATCH_SIZE) {
+            return new HashTask(ids, commits, 0, ids.size()).compute();
+        }
+        return ForkJoinPool.commonPool().invoke(
+                new HashTask(ids, commits, 0, ids.size()));
+    }
+
+    /** Returns true iff the promisor holds the blob SHA1. */
+    private static boolean promised(String sha1) {
+        File source = Promisor.source();
+        return source != null
+                && Main.objects(source).contains(ObjectStore.Kind.BLOB, sha1);
+    }
+
+    /** Returns the verified objects, reading them on first use. */
+    private static HashMap<String, Long> verified() {
+        if (_verified == null) {
+            _verified = new HashMap<>();
+            if (VERIFIED.isFile()) {
+                byte[] bytes = Utils.readContents(VERIFIED);
+                try (DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(bytes))) {
+                    byte[] id = new byte[Utils.UID_LENGTH / 2];
+                    for (int n = bytes.length / RECORD_SIZE; n > 0; n -= 1) {
+                        in.readFully(id);
+                        _verified.put(Index.toHex(id), in.readLong());
+                    }
+                } catch (IOException excp) {
+                    _verified.clear();
+                }
+            }
+        }
+        return _verified;
+    }
+
+    /** Environment variable that turns on verify-on-read. */
+    static final String ENV_VAR = "GITLET_VERIFY";
+
+    /** File of verified objects. */
+    static final File VERIFIED = new File(Main.COMMON, "verified");
+
+    /** Bytes per record in the verified file. */
+    private static final int RECORD_SIZE = Utils.UID_LENGTH / 2 + Long.BYTES;
+
+    /** Number of objects hashed by one fork/join task. */
+    private static final int BATCH_SIZE = 64;
+
+    /** Verified objects and their sizes, or null if not
+     *  yet read. */
+    private static HashMap<String, Long> _verified;
+
+    /** Objects verified during this command. */
+    private static List<String> _newlyVerified = new ArrayList<>();
+
+}
@@ -0,0 +1,305 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The staging area, kept as a single sorted binary file. Each entry
+ *  records a file name together with the SHA-1 of the blob staged for
+ *  it (whose contents are already in the object store) and the mode,
+ *  size and modification time the file had when it was staged, or
+ *  marks the file as staged for removal.
+ *
+ *  The file consists of the magic number "GLIX", a version number and
+ *  an entry count, followed by the entries sorted by file name, and
+ *  ends with the SHA-1 of everything before it.
+ *  @author Ed Scerbo
+ */
+class Index {
+
+    /** A single staging area entry. */
+    static class Entry {
+        /** An entry for a file staged with contents BLOB, MODE, SIZE and
+         *  MTIME, or for a removal if BLOB is null. */
+        Entry(String blob, int mode, long size, long mtime) {
+            _blob = blob;
+            _mode = mode;
+            _size = size;
+            _mtime = mtime;
+        }
+
+        /** Returns the SHA-1 of the staged blob, or null for a removal. */
+        String blob() {
+            return _blob;
+        }
+
+        /** Returns the staged file's mode. */
+        int mode() {
+            return _mode;
+        }
+
+        /** Returns the size the file had when staged. */
+        long size() {
+            return _size;
+        }
+
+        /** Returns the modification time the file had when staged. */
+        long mtime() {
+            return _mtime;
+        }
+
+        /** Returns true iff this entry marks a removal. */
+        boolean isRemoval() {
+            return _blob == null;
+        }
+
+        /** The SHA-1 of the staged blob, or null for a removal. */
+        private final String _blob;
+        /** The staged file's mode. */
+        private final int _mode;
+        /** The size the file had when staged. */
+        private final long _size;
+        /** The modification time the file had when staged. */
+        private final long _mtime;
+    }
+
+    /** An empty staging area. */
+    Index() {
+    }
+
+    /** Returns the staging area stored in FILE, which is empty if FILE
+     *  does not exist. */
+    static Index read(File file) {
+        byte[] pending = Journal.pending(file);
+        if (pending == Journal.DELETED
+                || (pending == null && !file.isFile())) {
+            return new Index();
+        } else if (pending != null) {
+            return read(ByteBuffer.wrap(pending));
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the staging area whose serialized form is in BUF. */
+    private static Index read(ByteBuffer buf) {
+        Index index = new Index();
+        checkTrailer(buf);
+        byte[] magic = new byte[MAGIC.length];
+        buf.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buf.getInt() != VERSION) {
+            throw Utils.error("Corrupt index file.");
+        }
+        int count = buf.getInt();
+        for (int i = 0; i < count; i += 1) {
+            byte[] name = new byte[buf.getShort() & 0xffff];
+            buf.get(name);
+            boolean removal = buf.get() == 1;
+            byte[] blob = new byte[Utils.UID_LENGTH / 2];
+            buf.get(blob);
+            Entry entry = new Entry(removal ? null : toHex(blob),
+                    buf.getInt(), buf.getLong(), buf.getLong());
+            index._entries.put(new String(name, StandardCharsets.UTF_8),
+                    entry);
+        }
+        return index;
+    }
+
+    /** Checks the SHA-1 trailer at the end of BUF, which must be
+     *  positioned at its start. */
+    private static void checkTrailer(ByteBuffer buf) {
+        try {
+            int end = buf.limit() - Utils.UID_LENGTH / 2;
+            if (end < 0) {
+                throw Utils.error("Corrupt index file.");
+            }
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            buf.limit(end);
+            md.update(buf);
+            buf.limit(end + Utils.UID_LENGTH / 2);
+            byte[] trailer = new byte[Utils.UID_LENGTH / 2];
+            buf.get(trailer);
+            if (!Arrays.equals(trailer, md.digest())) {
+                throw Utils.error("Corrupt index file.");
+            }
+            buf.rewind();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Writes this staging area to FILE, replacing it atomically. */
+    void write(File file) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_entries.size());
+            for (String name : _entries.keySet()) {
+                Entry entry = _entries.get(name);
+                byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(nameBytes.length);
+                out.write(nameBytes);
+                out.writeByte(entry.isRemoval() ? 1 : 0);
+                if (entry.isRemoval()) {
+                    out.write(new byte[Utils.UID_LENGTH / 2]);
+                } else {
+                    out.write(toBytes(entry.blob()));
+                }
+                out.writeInt(entry.mode());
+                out.writeLong(entry.size());
+                out.writeLong(entry.mtime());
+            }
+            out.write(toBytes(Utils.sha1(bytes.toByteArray())));
+            out.close();
+            byte[] contents = bytes.toByteArray();
+            if (Journal.defer(file, contents)) {
+                return;
+            }
+            File temp = new File(file.getPath() + ".lock");
+            Utils.writeContents(temp, contents);
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stages FILE, stored under NAME, with contents BLOB. */
+    synchronized void stage(String name, String blob, File file) {
+        Trace.count(Trace.Counter.FILES_STATED, 1);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            int mode = Files.isExecutable(file.toPath())
+                    ? EXECUTABLE_MODE : REGULAR_MODE;
+            _entries.put(name, new Entry(blob, mode, attrs.size(),
+                    attrs.lastModifiedTime().toMillis()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stages the blob BLOB under NAME without a working file, as for
+     *  a file outside the sparse-checkout patterns. */
+    synchronized void stage(String name, String blob) {
+        _entries.put(name, new Entry(blob, REGULAR_MODE, -1, 0));
+    }
+
+    /** Stages NAME for removal. */
+    synchronized void remove(String name) {
+        _entries.put(name, new Entry(null, 0, 0, 0));
+    }
+
+    /** Drops any entry for NAME. Returns true iff NAME was staged for
+     *  addition. */
+    synchronized boolean unstage(String name) {
+        Entry entry = _entries.remove(name);
+        return entry != null && !entry.isRemoval();
+    }
+
+    /** Returns the entry for NAME, or null if there is none. */
+    synchronized Entry get(String name) {
+        return _entries.get(name);
+    }
+
+    /** Returns true iff NAME is staged for addition. */
+    synchronized boolean isStaged(String name) {
+        Entry entry = _entries.get(name);
+        return entry != null && !entry.isRemoval();
+    }
+
+    /** Returns true iff NAME is staged for removal. */
+    synchronized boolean isRemoved(String name) {
+        Entry entry = _entries.get(name);
+        return entry != null && entry.isRemoval();
+    }
+
+    /** Returns the names of all files staged for addition, in order. */
+    synchronized TreeSet<String> staged() {
+        TreeSet<String> result = new TreeSet<>();
+        for (String name : _entries.keySet()) {
+            if (!_entries.get(name).isRemoval()) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the names of all files staged for removal, in order. */
+    synchronized TreeSet<String> removed() {
+        TreeSet<String> result = new TreeSet<>();
+        for (String name : _entries.keySet()) {
+            if (_entries.get(name).isRemoval()) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff nothing is staged. */
+    synchronized boolean isEmpty() {
+        return _entries.isEmpty();
+    }
+
+    /** Unstages everything. */
+    synchronized void clear() {
+        _entries.clear();
+    }
+
+    /** Returns the 20 bytes denoted by the hexadecimal SHA1. */
+    static byte[] toBytes(String sha1) {
+        byte[] result = new byte[sha1.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                    sha1.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns BYTES as a hexadecimal numeral. */
+    static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    /** Mode of an ordinary file. */
+    static final int REGULAR_MODE = 0100644;
+
+    /** Mode of an executable file. */
+    static final int EXECUTABLE_MODE = 0100755;
+
+    /** Magic number at the start of an index file. */
+    private static final byte[] MAGIC =
+        "GLIX".getBytes(StandardCharsets.UTF_8);
+
+    /** Version of the index file format. */
+    private static final int VERSION = 1;
+
+    /** The entries, sorted by file name. */
+    private final TreeMap<String, Entry> _entries = new TreeMap<>();
+
+}
@@ -0,0 +1,449 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/** A write-ahead journal making each command one crash-safe
+ *  transaction.
+ *
+ *  While a transaction is open, new objects are written to the object
+ *  store as usual, each by an atomic rename, and their paths are added
+ *  to the transaction. Writes to the mutable files, the staging area,
+ *  HEAD and the branches, are held back instead, and reads of them see
+ *  the held-back contents; so are appends to the reflogs. At commit the
+ *  new objects and their directories are synced in one batch; then the
+ *  transaction, naming the objects and holding the contents of the
+ *  held-back files and the records to append with the offsets they go
+ *  at, is appended to .gitlet/journal followed by its SHA-1, the
+ *  journal is forced to disk once, and only then are the held-back
+ *  files written, each by an atomic rename, and the records appended;
+ *  an applied mark ends the transaction. Objects are never copied into
+ *  the journal, so a command holds none of them in memory and writes
+ *  each to disk once.
+ *
+ *  On startup, a journal that does not end in an applied mark shows that
+ *  a command was interrupted. The transactions after the last applied
+ *  mark that have a valid SHA-1 are then applied again, in order, and
+ *  any torn transaction at the end is dropped: its files were never
+ *  written, and the objects it left behind are merely unreferenced.
+ *  Transactions already marked applied are never replayed, since files
+ *  such as branches may have been changed since by writers outside the
+ *  journal, such as a push from another repository. Appends are
+ *  replayed at their recorded offsets, so a replay never appends twice.
+ *  Once the journal grows past CHECKPOINT_BYTES, the files it wrote are
+ *  synced and it is emptied.
+ *  @author Ed Scerbo
+ */
+class Journal {
+
+    /** Starts a transaction. */
+    static synchronized void begin() {
+        _objects = new LinkedHashSet<>();
+        _files = new LinkedHashMap<>();
+        _appends = new LinkedHashMap<>();
+        _recordSizes = new LinkedHashMap<>();
+    }
+
+    /** Returns true iff a transaction is open. */
+    static synchronized boolean active() {
+        return _files != null;
+    }
+
+    /** If a transaction is open, holds back writing CONTENTS to FILE, or
+     *  deleting FILE if CONTENTS is DELETED, until it commits, and
+     *  returns true. Otherwise returns false and the caller writes FILE
+     *  itself. */
+    static synchronized boolean defer(File file, byte[] contents) {
+        if (_files == null) {
+            return false;
+        }
+        _files.put(file.getPath(), contents);
+        return true;
+    }
+
+    /** If a transaction is open, holds back appending RECORDS, made of
+     *  records of RECORDSIZE bytes each, to FILE until it commits, and
+     *  returns true. Otherwise returns false and the caller appends
+     *  them itself. */
+    static synchronized boolean deferAppend(File file, byte[] records,
+                                            int recordSize) {
+        if (_files == null) {
+            return false;
+        }
+        _appends.computeIfAbsent(file.getPath(),
+                path -> new ByteArrayOutputStream()).writeBytes(records);
+        _recordSizes.put(file.getPath(), recordSize);
+        return true;
+    }
+
+    /** Returns the held-back contents of FILE, DELETED if it is to be
+     *  deleted, or null if nothing is held back for it. */
+    static synchronized byte[] pending(File file) {
+        return _files == null ? null : _files.get(file.getPath());
+    }
+
+    /** Adds the object just stored in FILE to the open transaction, if
+     *  there is one. */
+    static synchronized void logObject(File file) {
+        if (_objects != null) {
+            _objects.add(file.getPath());
+        }
+    }
+
+    /** Commits the open transaction: logs it durably, then writes the
+     *  files held back. */
+    static synchronized void commit() {
+        if (_files == null) {
+            return;
+        }
+        long start = Trace.begin();
+        try {
+            if (_files.isEmpty() && _objects.isEmpty()
+                && _appends.isEmpty()) {
+                return;
+            } else if (!Main.GITLET.isDirectory()) {
+                applyDirectly();
+                return;
+            }
+            syncObjects();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(BEGIN);
+            for (String path : _objects) {
+                out.writeByte(OBJECT);
+                out.writeUTF(path);
+            }
+            for (Map.Entry<String, byte[]> file : _files.entrySet()) {
+                writeRecord(out, FILE, file.getKey(), file.getValue());
+            }
+            List<Object[]> appends = appendRecords();
+            for (Object[] append : appends) {
+                out.writeByte(APPEND);
+                out.writeUTF((String) append[0]);
+                out.writeLong((Long) append[1]);
+                out.writeInt(((byte[]) append[2]).length);
+                out.write((byte[]) append[2]);
+            }
+            out.writeByte(COMMIT);
+            out.write(Utils.sha1(bytes.toByteArray())
+                      .getBytes(StandardCharsets.UTF_8));
+            try (FileChannel channel = FileChannel.open(JOURNAL.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                channel.position(channel.size());
+                channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+                channel.force(false);
+                Trace.count(Trace.Counter.FSYNCS, 1);
+                for (Map.Entry<String, byte[]> file : _files.entrySet()) {
+                    apply(file.getKey(), file.getValue());
+                }
+                for (Object[] append : appends) {
+                    applyAppend((String) append[0], (Long) append[1],
+                            (byte[]) append[2]);
+                }
+                channel.write(ByteBuffer.wrap(APPLIED));
+                if (channel.size() > CHECKPOINT_BYTES) {
+                    checkpoint(channel);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            abort();
+            Trace.end("Journal.commit", start);
+        }
+    }
+
+    /** Abandons the open transaction. Files and records held back are
+     *  never written. */
+    static synchronized void abort() {
+        _objects = null;
+        _files = null;
+        _appends = null;
+        _recordSizes = null;
+    }
+
+    /** Finishes any transaction a crash interrupted: applies again
+     *  every complete transaction after the last applied mark in the
+     *  journal and drops a torn one at its end. */
+    static synchronized void recover() {
+        if (!JOURNAL.isFile() || JOURNAL.length() == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(JOURNAL.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size >= APPLIED.length) {
+                ByteBuffer tail = ByteBuffer.allocate(APPLIED.length);
+                channel.read(tail, size - APPLIED.length);
+                if (Arrays.equals(tail.array(), APPLIED)) {
+                    return;
+                }
+            }
+            long start = Trace.begin();
+            byte[] bytes = Utils.readContents(JOURNAL);
+            long valid = replay(bytes);
+            channel.truncate(valid);
+            checkpoint(channel);
+            Trace.end("Journal.recover", start);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Applies again, in order, every complete transaction in BYTES, the
+     *  contents of the journal, that follows its last applied mark.
+     *  Returns the length of the part holding complete transactions. */
+    private static long replay(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes));
+        long valid = 0;
+        List<Object[]> unapplied = new ArrayList<>();
+        try {
+            while (in.available() > 0) {
+                int txnStart = bytes.length - in.available();
+                int type = in.readUnsignedByte();
+                if (type == APPLIED[0]) {
+                    in.readFully(new byte[APPLIED.length - 1]);
+                    valid = bytes.length - in.available();
+                    unapplied.clear();
+                    continue;
+                } else if (type != BEGIN) {
+                    break;
+                }
+                List<Object[]> records = new ArrayList<>();
+                for (type = in.readUnsignedByte(); type != COMMIT;
+                     type = in.readUnsignedByte()) {
+                    String path = in.readUTF();
+                    if (type == OBJECT) {
+                        continue;
+                    }
+                    long offset = type == APPEND ? in.readLong() : -1;
+                    int length = in.readInt();
+                    byte[] contents = length < 0 ? DELETED : new byte[length];
+                    in.readFully(contents);
+                    records.add(new Object[] {path, contents, offset});
+                }
+                int txnEnd = bytes.length - in.available();
+                byte[] sha1 = new byte[Utils.UID_LENGTH];
+                in.readFully(sha1);
+                String expected = Utils.sha1(Arrays.copyOfRange(bytes,
+                        txnStart, txnEnd));
+                if (!expected.equals(new String(sha1,
+                        StandardCharsets.UTF_8))) {
+                    break;
+                }
+                unapplied.addAll(records);
+                valid = bytes.length - in.available();
+            }
+        } catch (EOFException excp) {
+            /* A torn transaction or mark: everything before it counts. */
+        }
+        for (Object[] record : unapplied) {
+            long offset = (Long) record[2];
+            if (offset < 0) {
+                apply((String) record[0], (byte[]) record[1]);
+            } else {
+                applyAppend((String) record[0], offset, (byte[]) record[1]);
+            }
+        }
+        return valid;
+    }
+
+    /** Syncs every file the journal open as CHANNEL wrote, then
+     *  empties it. Its objects were synced before it was written. */
+    private static void checkpoint(FileChannel channel) throws IOException {
+        channel.force(false);
+        LinkedHashSet<String> paths = new LinkedHashSet<>();
+        byte[] bytes = new byte[(int) channel.size()];
+        channel.read(ByteBuffer.wrap(bytes), 0);
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes));
+        try {
+            while (true) {
+                int type = in.readUnsignedByte();
+                if (type == OBJECT) {
+                    in.readUTF();
+                } else if (type == FILE || type == APPEND) {
+                    paths.add(in.readUTF());
+                    if (type == APPEND) {
+                        in.readLong();
+                    }
+                    int length = in.readInt();
+                    in.skipBytes(Math.max(length, 0));
+                } else if (type == COMMIT) {
+                    in.skipBytes(Utils.UID_LENGTH);
+                } else if (type == APPLIED[0]) {
+                    in.skipBytes(APPLIED.length - 1);
+                }
+            }
+        } catch (EOFException excp) {
+            for (String path : paths) {
+                sync(new File(path));
+            }
+            channel.truncate(0);
+            channel.force(false);
+        }
+    }
+
+    /** Syncs the objects of the open transaction, then the directories
+     *  holding them, so that their renames are durable too. */
+    private static void syncObjects() throws IOException {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (String path : _objects) {
+            File file = new File(path);
+            sync(file);
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            sync(dir);
+        }
+    }
+
+    /** Forces FILE, which may be a directory, to disk if it exists. */
+    private static void sync(File file) throws IOException {
+        if (file.exists()) {
+            try (FileChannel sync = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ)) {
+                sync.force(false);
+                Trace.count(Trace.Counter.FSYNCS, 1);
+            }
+        }
+    }
+
+    /** Writes CONTENTS to the file PATH by an atomic rename, or deletes
+     *  it if CONTENTS is DELETED. */
+    private static void apply(String path, byte[] contents)
+        throws IOException {
+        File file = new File(path);
+        if (contents == DELETED) {
+            file.delete();
+            return;
+        }
+        file.getParentFile().mkdirs();
+        File temp = new File(path + ".lock");
+        Utils.writeContents(temp, contents);
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Writes RECORDS to the file PATH at OFFSET, cutting off whatever
+     *  follows OFFSET first, so that writing them again changes
+     *  nothing. If the file is shorter than OFFSET, they go at its
+     *  end. */
+    private static void applyAppend(String path, long offset,
+                                    byte[] records) throws IOException {
+        File file = new File(path);
+        file.getParentFile().mkdirs();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long at = Math.min(offset, channel.size());
+            channel.truncate(at);
+            ByteBuffer buf = ByteBuffer.wrap(records);
+            while (buf.hasRemaining()) {
+                at += channel.write(buf, at);
+            }
+        }
+    }
+
+    /** Returns the held-back appends of the open transaction, each as
+     *  its path, the offset it goes at and its records. Each offset is
+     *  the end of the last whole record of the file as it will be once
+     *  the held-back files are written. */
+    private static List<Object[]> appendRecords() {
+        List<Object[]> result = new ArrayList<>();
+        for (Map.Entry<String, ByteArrayOutputStream> append
+                 : _appends.entrySet()) {
+            String path = append.getKey();
+            byte[] pending = _files.get(path);
+            long size = pending != null ? pending.length
+                : new File(path).length();
+            long offset = size - size % _recordSizes.get(path);
+            result.add(new Object[] {path, offset,
+                                     append.getValue().toByteArray()});
+        }
+        return result;
+    }
+
+    /** Writes the held-back files and appends with no journal, as when
+     *  the command removed the repository. */
+    private static void applyDirectly() throws IOException {
+        for (Map.Entry<String, byte[]> file : _files.entrySet()) {
+            if (new File(file.getKey()).getParentFile().isDirectory()) {
+                apply(file.getKey(), file.getValue());
+            }
+        }
+        for (Object[] append : appendRecords()) {
+            if (new File((String) append[0]).getParentFile().isDirectory()) {
+                applyAppend((String) append[0], (Long) append[1],
+                        (byte[]) append[2]);
+            }
+        }
+    }
+
+    /** Writes to OUT a record of the given TYPE for the file PATH with
+     *  CONTENTS. */
+    private static void writeRecord(DataOutputStream out, byte type,
+                                    String path, byte[] contents)
+        throws IOException {
+        out.writeByte(type);
+        out.writeUTF(path);
+        if (contents == DELETED) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(contents.length);
+            out.write(contents);
+        }
+    }
+
+    /** Contents standing for a deleted file. */
+    static final byte[] DELETED = new byte[0];
+
+    /** The journal. */
+    static final File JOURNAL = new File(Main.GITLET, "journal");
+
+    /** Size past which the journal is checkpointed. */
+    static final long CHECKPOINT_BYTES = 4L << 20;
+
+    /** Record types. */
+    private static final byte BEGIN = 'B', OBJECT = 'O', FILE = 'F',
+        APPEND = 'P', COMMIT = 'C';
+
+    /** Mark following a transaction whose files have been written. */
+    private static final byte[] APPLIED = {'A', 'P', 'P', 'L', 'I', 'E',
+                                           'D', '\n'};
+
+    /** Paths of the objects stored by the open transaction, or null if
+     *  no transaction is open. */
+    private static LinkedHashSet<String> _objects;
+
+    /** Files held back by the open transaction, mapped to their
+     *  contents, or null if no transaction is open. */
+    private static LinkedHashMap<String, byte[]> _files;
+
+    /** Records held back by the open transaction, by the path of the
+     *  file they are appended to, or null if no transaction is open. */
+    private static LinkedHashMap<String, ByteArrayOutputStream> _appends;
+
+    /** The size of the records appended to each path in _appends. */
+    private static LinkedHashMap<String, Integer> _recordSizes;
+
+}
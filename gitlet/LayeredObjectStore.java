@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** An object store made of several others: a repository's loose
+ *  objects on top, and below them the packs in its .gitlet/packs
+ *  directory, such as fast-import writes. Reads look in each store in
+ *  turn; new objects go to the top one.
+ *  @author Ed Scerbo
+ */
+class LayeredObjectStore implements ObjectStore {
+
+    /** A store writing to TOP and reading from TOP, then each of
+     *  BELOW in order. */
+    LayeredObjectStore(ObjectStore top, List<? extends ObjectStore> below) {
+        _layers = new ArrayList<>();
+        _layers.add(top);
+        _layers.addAll(below);
+    }
+
+    @Override
+    public boolean contains(Kind kind, String sha1) {
+        for (ObjectStore layer : _layers) {
+            if (layer.contains(kind, sha1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] get(Kind kind, String sha1) {
+        for (ObjectStore layer : _layers) {
+            byte[] contents = layer.get(kind, sha1);
+            if (contents != null) {
+                return contents;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public File file(Kind kind, String sha1) {
+        for (ObjectStore layer : _layers) {
+            if (layer.contains(kind, sha1)) {
+                return layer.file(kind, sha1);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public InputStream open(Kind kind, String sha1) {
+        for (ObjectStore layer : _layers) {
+            if (layer.contains(kind, sha1)) {
+                return layer.open(kind, sha1);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the contents of those of the objects of the given KIND and
+     *  ids SHA1S that are stored, keyed by id, asking each layer in turn
+     *  for all of those not yet found. */
+    @Override
+    public Map<String, byte[]> getAll(Kind kind, Collection<String> sha1s) {
+        HashMap<String, byte[]> found = new HashMap<>();
+        List<String> wanted = new ArrayList<>(sha1s);
+        for (ObjectStore layer : _layers) {
+            if (wanted.isEmpty()) {
+                break;
+            }
+            found.putAll(layer.getAll(kind, wanted));
+            wanted.removeIf(found::containsKey);
+        }
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (String sha1 : sha1s) {
+            if (found.containsKey(sha1)) {
+                result.put(sha1, found.get(sha1));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void put(Kind kind, String sha1, byte[] contents) {
+        if (!contains(kind, sha1)) {
+            _layers.get(0).put(kind, sha1, contents);
+        }
+    }
+
+    @Override
+    public List<String> list(Kind kind, String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        for (ObjectStore layer : _layers) {
+            result.addAll(layer.list(kind, prefix));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** The stores, top first. */
+    private final List<ObjectStore> _layers;
+
+}
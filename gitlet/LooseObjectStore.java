@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The usual object store: each object in its own file, named by the
+ *  last 38 digits of its id, in a directory named by the first two,
+ *  under .gitlet/blobs or .gitlet/commits. An object is written to a
+ *  temporary file in the same directory and renamed into place, so
+ *  that none is ever seen half written. An object already stored is
+ *  written again unless its file holds exactly the same contents, so
+ *  storing it repairs a damaged copy. New objects of this repository
+ *  are added to the open journal transaction, which syncs them.
+ *  @author Ed Scerbo
+ */
+class LooseObjectStore implements ObjectStore {
+
+    /** The loose objects of the repository whose .gitlet directory is
+     *  GITLET. */
+    LooseObjectStore(File gitlet) {
+        _gitlet = gitlet;
+    }
+
+    @Override
+    public boolean contains(Kind kind, String sha1) {
+        return path(kind, sha1).isFile();
+    }
+
+    @Override
+    public byte[] get(Kind kind, String sha1) {
+        File file = path(kind, sha1);
+        return file.isFile() ? Utils.readContents(file) : null;
+    }
+
+    @Override
+    public InputStream open(Kind kind, String sha1) {
+        try {
+            return new FileInputStream(path(kind, sha1));
+        } catch (FileNotFoundException excp) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(Kind kind, String sha1, byte[] contents) {
+        File file = path(kind, sha1);
+        if (file.length() == contents.length && file.isFile()
+            && Arrays.equals(Utils.readContents(file), contents)) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        try {
+            Path temp = Files.createTempFile(file.getParentFile().toPath(),
+                    file.getName(), TEMP_SUFFIX);
+            try {
+                Files.write(temp, contents);
+                Files.move(temp, file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_gitlet.equals(Main.COMMON)) {
+            Journal.logObject(file);
+        }
+    }
+
+    @Override
+    public List<String> list(Kind kind, String prefix) {
+        List<String> result = new ArrayList<>();
+        String[] dirs = new File(_gitlet, kind.directory()).list();
+        if (dirs == null) {
+            return result;
+        }
+        Arrays.sort(dirs);
+        for (String dir : dirs) {
+            if (!(dir.startsWith(prefix) || prefix.startsWith(dir))) {
+                continue;
+            }
+            String[] names = new File(new File(_gitlet, kind.directory()),
+                    dir).list();
+            if (names == null) {
+                continue;
+            }
+            Arrays.sort(names);
+            for (String name : names) {
+                if (name.length() == Utils.UID_LENGTH - 2
+                    && (dir + name).startsWith(prefix)) {
+                    result.add(dir + name);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public File file(Kind kind, String sha1) {
+        File file = path(kind, sha1);
+        return file.isFile() ? file : null;
+    }
+
+    /** Returns the file that holds, or would hold, the object of the
+     *  given KIND and SHA1. */
+    private File path(Kind kind, String sha1) {
+        return Main.objectFile(new File(_gitlet, kind.directory()), sha1);
+    }
+
+    /** Suffix of the temporary files objects are written to. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** The .gitlet directory. */
+    private final File _gitlet;
+
+}
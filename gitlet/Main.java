@@ -1,22 +1,66 @@
 package gitlet;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import java.util.regex.PatternSyntaxException;
+
+import gitlet.ObjectStore.Kind;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Ed Scerbo
  */
 public class Main {
 
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+    /** Usage: java gitlet.Main [--trace=FILE] ARGS, where ARGS contains
+     *  <COMMAND> <OPERAND> .... With --trace=FILE, or with the
+     *  environment variable GITLET_TRACE set to FILE, timings and
+     *  counters for the command are written to FILE. With the
+     *  environment variable GITLET_VERIFY set, every object is checked
+     *  against its id the first time it is read. With GITLET_CHECKOUT
+     *  set to "link", files are checked out as hard links to their
+     *  blobs; see checkoutBlob. Each command runs as one journaled
+     *  transaction, abandoned if the command fails; see Journal. */
     public static void main(String... args) {
+        args = Trace.start(args);
+        try {
+            Journal.recover();
+            Journal.begin();
+            dispatch(args);
+            Journal.commit();
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } finally {
+            Journal.abort();
+            Worktree.release();
+            Fsck.finish();
+            Trace.finish();
+        }
+    }
+
+    /** Runs the command given by ARGS. */
+    public static void dispatch(String... args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
         } else {
@@ -51,6 +95,15 @@ public class Main {
             case "branch":
                 doBranch(args);
                 break;
+            case "reflog":
+                doReflog(args);
+                break;
+            case "worktree":
+                doWorktree(args);
+                break;
+            case "pack-refs":
+                doPackRefs(args);
+                break;
             case "rm-branch":
                 doRemoveBranch(args);
                 break;
@@ -60,6 +113,60 @@ public class Main {
             case "merge":
                 doMerge(args);
                 break;
+            case "diff":
+                doDiff(args);
+                break;
+            case "clone":
+                doClone(args);
+                break;
+            case "add-remote":
+                doAddRemote(args);
+                break;
+            case "rm-remote":
+                doRemoveRemote(args);
+                break;
+            case "fetch":
+                doFetch(args);
+                break;
+            case "push":
+                doPush(args);
+                break;
+            case "pull":
+                doPull(args);
+                break;
+            case "commit-graph":
+                doCommitGraph(args);
+                break;
+            case "fsmonitor":
+                doFsMonitor(args);
+                break;
+            case "sparse-checkout":
+                doSparseCheckout(args);
+                break;
+            case "search":
+                doSearch(args);
+                break;
+            case "blame":
+                doBlame(args);
+                break;
+            case "bundle":
+                doBundle(args);
+                break;
+            case "fast-import":
+                doFastImport(args);
+                break;
+            case "fsck":
+                doFsck(args);
+                break;
+            case "merge-tree":
+                doMergeTree(args);
+                break;
+            case "cherry-pick":
+                doCherryPick(args);
+                break;
+            case "rebase":
+                doRebase(args);
+                break;
             default:
                 System.out.println("No command with that name exists.");
             }
@@ -79,24 +186,69 @@ public class Main {
                 BLOBS.mkdir();
                 COMMITS.mkdir();
                 BRANCHES.mkdir();
-                STAGED.mkdir();
-                REMOVED.mkdir();
+                Refs.clear();
+                useObjects(null);
                 Commit initCommit = Commit.INITIAL_COMMIT;
                 writeCommit(initCommit);
-                String sha1 = initCommit.getSha1();
-                File masterFile = new File(BRANCHES, "master");
-                Utils.writeContents(masterFile, sha1);
-                Utils.writeContents(HEAD, "master");
+                Refs.set("master", initCommit.getSha1(),
+                        Reflog.Action.INIT);
+                Refs.setHead("master");
             }
         }
     }
 
-    /** Does the add command, where ARGS is input by user. */
+    /** Does the clone command, where ARGS is input by user: clone
+     *  DIRECTORY [--depth=N]. Makes the current directory a shallow,
+     *  partial copy of the repository in DIRECTORY, which becomes its
+     *  promisor. Only the last N generations of history (all of it if
+     *  N is not given) and the blobs of the checked-out commit are
+     *  copied; the rest is fetched from DIRECTORY when needed. */
+    public static void doClone(String... args) {
+        int depth = 0;
+        if (args.length == 3 && args[2].matches("--depth=[1-9][0-9]*")) {
+            depth = Integer.parseInt(args[2].substring("--depth=".length()));
+        }
+        File source = new File(args.length > 1 ? args[1] : "", ".gitlet");
+        if (args.length < 2 || args.length > 3
+                || (args.length == 3 && depth == 0)) {
+            System.out.println("Incorrect operands.");
+        } else if (GITLET.exists()) {
+            System.out.println("A Gitlet version-control "
+                    + "system already exists in the current directory.");
+        } else if (!source.isDirectory()) {
+            System.out.println("Remote directory not found.");
+        } else {
+            doInit("init");
+            Promisor.setSource(source);
+            HashMap<String, String> branches = new HashMap<>();
+            for (Map.Entry<String, String> branch
+                     : Refs.all(source).entrySet()) {
+                if (!branch.getKey().contains("/")) {
+                    branches.put(branch.getKey(), branch.getValue());
+                }
+            }
+            Promisor.copyHistory(source, branches.values(), depth, true);
+            String head = Utils.readContentsAsString(new File(source, "head"));
+            String headSha1 = branches.get(head);
+            Promisor.fetchBlobs(retrieveCommit(headSha1).getTracked().values());
+            checkout3ResetHelper(headSha1);
+            for (String branch : branches.keySet()) {
+                Refs.set(branch, branches.get(branch),
+                        Reflog.Action.CLONE);
+            }
+            Refs.setHead(head);
+        }
+    }
+
+    /** Does the add command, where ARGS is input by user. With -A,
+     *  stages every change in the working directory. */
     public static void doAdd(String... args) {
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
         } else if (!GITLET.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args[1].equals("-A")) {
+            addAll();
         } else {
             String fileName = args[1];
             File file = new File(fileName);
@@ -104,19 +256,56 @@ public class Main {
                 System.out.println("File does not exist.");
             } else {
                 HashMap<String, String> trackedMap = headCommit().getTracked();
-                String fileSHA1 = Utils.sha1(Utils.readContents(file));
-                File stagedFile = new File(STAGED, fileName);
+                Index index = Index.read(INDEX);
+                byte[] contents = Utils.readContents(file);
+                String fileSHA1 = Utils.sha1(contents);
                 if (trackedMap.keySet().contains(fileName)
                         && trackedMap.get(fileName).equals(fileSHA1)) {
-                    File removedFile = new File(REMOVED, fileName);
-                    stagedFile.delete();
-                    removedFile.delete();
+                    index.unstage(fileName);
                 } else {
-                    String contents = Utils.readContentsAsString(file);
-                    Utils.writeContents(stagedFile, contents);
+                    writeBlob(fileSHA1, contents);
+                    index.stage(fileName, fileSHA1, file);
                 }
+                index.write(INDEX);
+            }
+        }
+    }
+
+    /** Stages every file in the working directory that differs from
+     *  the current commit, and stages for removal every tracked file
+     *  that is gone. */
+    public static void addAll() {
+        HashMap<String, String> trackedMap = headCommit().getTracked();
+        Index index = Index.read(INDEX);
+        WorkingTree tree = WorkingTree.scan();
+        tree.hash(tree.names());
+        for (String fileName : tree.names()) {
+            String fileSHA1 = tree.sha1(fileName);
+            Index.Entry entry = index.get(fileName);
+            if (fileSHA1.equals(trackedMap.get(fileName))) {
+                index.unstage(fileName);
+            } else if (entry == null || entry.isRemoval()
+                    || !entry.blob().equals(fileSHA1)) {
+                File file = new File(fileName);
+                byte[] contents = Utils.readContents(file);
+                fileSHA1 = Utils.sha1(contents);
+                writeBlob(fileSHA1, contents);
+                index.stage(fileName, fileSHA1, file);
+            }
+        }
+        Sparse sparse = Sparse.read();
+        for (String fileName : trackedMap.keySet()) {
+            if (!tree.contains(fileName) && sparse.includes(fileName)) {
+                index.remove(fileName);
+            }
+        }
+        for (String fileName : index.staged()) {
+            if (!tree.contains(fileName) && sparse.includes(fileName)) {
+                index.unstage(fileName);
             }
         }
+        tree.save();
+        index.write(INDEX);
     }
 
     /** Does the commit command, where ARGS is input by user. */
@@ -132,13 +321,23 @@ public class Main {
 
     /** Helper function used by doCommit and doMerge. Implements
      *  the bulk of the commit command. Makes new commit with MESSAGE
-     *  and MERGEPARENT.*/
+     *  and MERGEPARENT. Staged blobs are already in the object store,
+     *  so this only writes metadata.*/
     public static void commitHelper(String message, String mergeParent) {
-        HashSet<String> stagedFiles, removedFiles;
-        stagedFiles = new HashSet<>(Arrays.asList(STAGED.list()));
-        removedFiles = new HashSet<>(Arrays.asList(REMOVED.list()));
+        long start = Trace.begin();
+        try {
+            commitHelper(Index.read(INDEX), message, mergeParent);
+        } finally {
+            Trace.end("commitHelper", start);
+        }
+    }
+
+    /** Makes a new commit of INDEX on top of the current commit,
+     *  with MESSAGE and MERGEPARENT. */
+    private static void commitHelper(Index index, String message,
+                                     String mergeParent) {
 
-        if (stagedFiles.isEmpty() && removedFiles.isEmpty()) {
+        if (index.isEmpty()) {
             System.out.println("No changes added to the commit.");
         } else if (message.equals("")) {
             System.out.println("Please enter a commit message.");
@@ -152,32 +351,23 @@ public class Main {
 
             HashMap<String, String> trackedMap = headCommit.getTracked();
             for (String fileName : trackedMap.keySet()) {
-                if (!stagedFiles.contains(fileName)
-                        && !removedFiles.contains(fileName)) {
+                if (index.get(fileName) == null) {
                     blobMap.put(fileName, trackedMap.get(fileName));
                 }
             }
-            for (String fileName : stagedFiles) {
-                File file = new File(STAGED, fileName);
-                String fileSHA1 = Utils.sha1(Utils.readContents(file));
-                blobMap.put(fileName, fileSHA1);
-                writeBlob(file);
+            for (String fileName : index.staged()) {
+                blobMap.put(fileName, index.get(fileName).blob());
             }
 
             Commit com;
             com = new Commit(timestamp, message, blobMap, parent, mergeParent);
             writeCommit(com);
-            String branch = Utils.readContentsAsString(HEAD);
-            File branchFile = new File(BRANCHES, branch);
+            SearchIndex.record(com, trackedMap);
+            Refs.set(Refs.head(), com.getSha1(), mergeParent == null
+                    ? Reflog.Action.COMMIT : Reflog.Action.MERGE);
 
-            Utils.writeContents(branchFile, com.getSha1());
-
-            for (File file : STAGED.listFiles()) {
-                file.delete();
-            }
-            for (File file : REMOVED.listFiles()) {
-                file.delete();
-            }
+            index.clear();
+            index.write(INDEX);
         }
     }
 
@@ -190,33 +380,37 @@ public class Main {
         } else {
             String fileName = args[1];
             File workingDirFile = new File(fileName);
-            File stagedFile = new File(STAGED, fileName);
-            boolean isStaged = stagedFile.delete();
+            Index index = Index.read(INDEX);
+            boolean isStaged = index.unstage(fileName);
             Set<String> tracked = headCommit().getTracked().keySet();
             boolean isTracked = tracked.contains(fileName);
             if (isTracked) {
-                File removedFile = new File(REMOVED, fileName);
-                try {
-                    removedFile.createNewFile();
-                } catch (IOException ioEx) {
-                    System.out.println(fileName + " not marked for removal.");
-                }
+                index.remove(fileName);
                 Utils.restrictedDelete(workingDirFile);
             }
+            index.write(INDEX);
             if (!isStaged && !isTracked) {
                 System.out.println("No reason to remove the file.");
             }
         }
     }
 
-    /** Does the log command, where ARGS is input by user. */
+    /** Does the log command, where ARGS is input by user. With
+     *  --name-status, each entry also lists the files the commit
+     *  changed, including renames. With -- FILE, only the commits that
+     *  changed FILE are listed. */
     public static void doLog(String... args) {
-        if (args.length > 1) {
+        boolean nameStatus = args.length == 2
+                && args[1].equals("--name-status");
+        boolean path = args.length == 3 && args[1].equals("--");
+        if (args.length > 1 && !nameStatus && !path) {
             System.out.println("Incorrect operands.");
         } else if (!GITLET.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
+        } else if (path) {
+            pathHistory(args[2]);
         } else {
-            commitHistory(headCommit());
+            commitHistory(headCommit(), nameStatus);
         }
     }
 
@@ -227,11 +421,8 @@ public class Main {
         } else if (!GITLET.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
         } else {
-            for (File directory : COMMITS.listFiles()) {
-                for (File commitFile : directory.listFiles()) {
-                    Commit commit = Utils.readObject(commitFile, Commit.class);
-                    commitLog(commit);
-                }
+            for (String sha1 : objects().list(Kind.COMMIT, "")) {
+                commitLog(retrieveLocalCommit(sha1));
             }
         }
     }
@@ -243,22 +434,116 @@ public class Main {
         } else if (!GITLET.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
         } else {
-            boolean foundCommit = false;
-            for (File directory : COMMITS.listFiles()) {
-                for (File commitFile : directory.listFiles()) {
-                    Commit commit = Utils.readObject(commitFile, Commit.class);
-                    if (commit.getMessage().equals(args[1])) {
-                        System.out.println(commit.getSha1());
-                        foundCommit = true;
-                    }
-                }
+            SearchIndex search = SearchIndex.load();
+            List<String> found = search.ids(search.equalTo(args[1]));
+            for (String sha1 : found) {
+                System.out.println(sha1);
             }
-            if (!foundCommit) {
+            if (found.isEmpty()) {
                 System.out.println("Found no commit with that message.");
             }
         }
     }
 
+    /** Does the search command, where ARGS is input by user. Logs,
+     *  newest first, every commit that satisfies all of the options
+     *  --message=TEXT (message contains TEXT), --grep=REGEX (message
+     *  matches REGEX), --since=DATE, --until=DATE and --path=FILE
+     *  (commit changed FILE). Dates are yyyy-MM-dd, optionally followed
+     *  by HH:mm:ss. */
+    public static void doSearch(String... args) {
+        if (args.length < 2) {
+            System.out.println("Incorrect operands.");
+            return;
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        SearchIndex search = SearchIndex.load();
+        BitSet result = search.all();
+        long since = Long.MIN_VALUE, until = Long.MAX_VALUE;
+        for (int i = 1; i < args.length; i += 1) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+            try {
+                switch (option[0]) {
+                case "--message":
+                    result.and(search.containing(option[1]));
+                    break;
+                case "--grep":
+                    result.and(search.matching(option[1]));
+                    break;
+                case "--path":
+                    result.and(search.touching(option[1]));
+                    break;
+                case "--since":
+                    since = parseDate(option[1], false);
+                    break;
+                case "--until":
+                    until = parseDate(option[1], true);
+                    break;
+                default:
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+            } catch (PatternSyntaxException | ParseException excp) {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+        }
+        if (since != Long.MIN_VALUE || until != Long.MAX_VALUE) {
+            result.and(search.between(since, until));
+        }
+        for (String sha1 : search.ids(result)) {
+            commitLog(retrieveCommit(sha1));
+        }
+    }
+
+    /** Returns the time in milliseconds given by DATE, which is either
+     *  yyyy-MM-dd HH:mm:ss or just yyyy-MM-dd, meaning the start of the
+     *  day, or its end if END. */
+    static long parseDate(String date, boolean end)
+        throws ParseException {
+        if (date.length() > DAY_FORMAT.length()) {
+            return new SimpleDateFormat(DAY_FORMAT + " HH:mm:ss")
+                .parse(date).getTime();
+        }
+        long day = new SimpleDateFormat(DAY_FORMAT).parse(date).getTime();
+        return end ? day + MILLIS_PER_DAY - 1 : day;
+    }
+
+    /** Does the blame command, where ARGS is input by user: blame
+     *  [COMMIT] FILE. Prints each line of FILE as of COMMIT, or of the
+     *  current commit, after the abbreviated id and the timestamp of
+     *  the commit that introduced it. */
+    public static void doBlame(String... args) {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else {
+            String sha1 = args.length == 3 ? resolve(args[1]) : headSHA1();
+            if (sha1 == null) {
+                return;
+            }
+            Blame blame = new Blame(sha1, args[args.length - 1]);
+            String[] lines = blame.lines();
+            if (lines == null) {
+                System.out.println("File does not exist in that commit.");
+                return;
+            }
+            String[] origins = blame.origins();
+            for (int i = 0; i < lines.length; i += 1) {
+                System.out.println(origins[i].substring(0, BLAME_ID_LENGTH)
+                        + " (" + retrieveCommit(origins[i]).getTimestamp()
+                        + ") " + lines[i]);
+            }
+        }
+    }
+
     /** Does the status command, where ARGS is input by user. */
     public static void doStatus(String... args) {
         if (args.length > 1) {
@@ -266,20 +551,20 @@ public class Main {
         } else if (!GITLET.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
         } else {
-            String[] branchList = BRANCHES.list();
-            String[] stagedList = STAGED.list();
-            String[] removedList = REMOVED.list();
-            String[] modifiedList = new String[modifiedButNotStaged().size()];
-            modifiedButNotStaged().toArray(modifiedList);
-            String[] untrackedList = new String[untrackedFiles().size()];
-            untrackedFiles().toArray(untrackedList);
+            String[] branchList = branchNames().toArray(new String[0]);
+            Index index = Index.read(INDEX);
+            WorkingTree tree = WorkingTree.scan();
+            String[] stagedList = index.staged().toArray(new String[0]);
+            String[] removedList = index.removed().toArray(new String[0]);
+            String[] modifiedList =
+                modifiedButNotStaged(tree).toArray(new String[0]);
+            String[] untrackedList =
+                untrackedFiles(tree).toArray(new String[0]);
             Arrays.sort(branchList);
-            Arrays.sort(stagedList);
-            Arrays.sort(removedList);
             Arrays.sort(modifiedList);
             Arrays.sort(untrackedList);
 
-            String currentBranch = Utils.readContentsAsString(HEAD);
+            String currentBranch = Refs.head();
             System.out.println("=== Branches ===");
             for (int i = 0; i < branchList.length; i += 1) {
                 if (branchList[i].equals(currentBranch)) {
@@ -301,6 +586,16 @@ public class Main {
             }
             System.out.println("");
 
+            List<Renames.Pair> renames = Renames.detect(headCommit()
+                    .getTracked(), stagedTree(index), false);
+            if (!renames.isEmpty()) {
+                System.out.println("=== Renamed Files ===");
+                for (Renames.Pair pair : renames) {
+                    System.out.println(pair.from() + " -> " + pair.to());
+                }
+                System.out.println("");
+            }
+
             System.out.println("=== Modifications Not Staged For Commit ===");
             for (int i = 0; i < modifiedList.length; i += 1) {
                 System.out.println(modifiedList[i]);
@@ -315,6 +610,386 @@ public class Main {
         }
     }
 
+    /** Does the diff command, where ARGS is input by user. Lists the
+     *  files changed between two commits, between a commit and the
+     *  current commit, or, with no commits given, between the current
+     *  commit and the staging area. Renames are always detected, and
+     *  copies as well if -C is given. */
+    public static void doDiff(String... args) {
+        boolean copies = args.length > 1 && args[1].equals("-C");
+        int first = copies ? 2 : 1;
+        if (args.length - first > 2) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else {
+            HashMap<String, String> oldTree, newTree;
+            if (args.length == first) {
+                oldTree = headCommit().getTracked();
+                newTree = stagedTree(Index.read(INDEX));
+            } else {
+                String oldSha1 = resolve(args[first]);
+                String newSha1 = args.length == first + 2
+                        ? resolve(args[first + 1]) : headSHA1();
+                if (oldSha1 == null || newSha1 == null) {
+                    return;
+                }
+                oldTree = retrieveCommit(oldSha1).getTracked();
+                newTree = retrieveCommit(newSha1).getTracked();
+            }
+            for (String line : nameStatus(oldTree, newTree, copies)) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    /** Returns lines describing the changes from OLDTREE to NEWTREE,
+     *  one per file, in file name order: "A", "M" or "D" followed by
+     *  the file name, or a rename (or copy, if COPIES) with its
+     *  similarity score. */
+    public static List<String> nameStatus(Map<String, String> oldTree,
+                                          Map<String, String> newTree,
+                                          boolean copies) {
+        TreeMap<String, String> lines = new TreeMap<>();
+        HashSet<String> renamed = new HashSet<>();
+        for (Renames.Pair pair : Renames.detect(oldTree, newTree, copies)) {
+            lines.put(pair.to(), pair.toString());
+            if (!pair.isCopy()) {
+                renamed.add(pair.from());
+            }
+        }
+        for (String fileName : oldTree.keySet()) {
+            if (!newTree.containsKey(fileName)) {
+                if (!renamed.contains(fileName)) {
+                    lines.put(fileName, "D " + fileName);
+                }
+            } else if (!oldTree.get(fileName).equals(newTree.get(fileName))) {
+                lines.put(fileName, "M " + fileName);
+            }
+        }
+        for (String fileName : newTree.keySet()) {
+            if (!oldTree.containsKey(fileName)
+                    && !lines.containsKey(fileName)) {
+                lines.put(fileName, "A " + fileName);
+            }
+        }
+        return new ArrayList<>(lines.values());
+    }
+
+    /** Returns the tree that committing INDEX on top of the current
+     *  commit would produce. */
+    public static HashMap<String, String> stagedTree(Index index) {
+        HashMap<String, String> tree = new HashMap<>(headCommit().getTracked());
+        for (String fileName : index.removed()) {
+            tree.remove(fileName);
+        }
+        for (String fileName : index.staged()) {
+            tree.put(fileName, index.get(fileName).blob());
+        }
+        return tree;
+    }
+
+    /** Does the add-remote command, where ARGS is input by user:
+     *  add-remote NAME DIRECTORY, where DIRECTORY is the remote's
+     *  .gitlet directory, written with forward slashes. */
+    public static void doAddRemote(String... args) {
+        if (args.length != 3) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else {
+            File remoteFile = new File(REMOTES, args[1]);
+            if (remoteFile.exists()) {
+                System.out.println("A remote with that name already exists.");
+            } else {
+                REMOTES.mkdir();
+                String path = args[2].replace("/", File.separator);
+                Utils.writeContents(remoteFile, path);
+            }
+        }
+    }
+
+    /** Does the rm-remote command, where ARGS is input by user. */
+    public static void doRemoveRemote(String... args) {
+        if (args.length != 2) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (!new File(REMOTES, args[1]).delete()) {
+            System.out.println("A remote with that name does not exist.");
+        }
+    }
+
+    /** Does the fetch command, where ARGS is input by user: fetch
+     *  REMOTE BRANCH. Copies the commits and blobs of the remote's
+     *  branch that are missing here, and points the local branch
+     *  REMOTE/BRANCH at its head. */
+    public static void doFetch(String... args) {
+        if (args.length != 3) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else {
+            fetchHelper(args[1], args[2]);
+        }
+    }
+
+    /** Helper function used by doFetch and doPull. Fetches BRANCH from
+     *  the remote named REMOTE. Returns false, after printing an error
+     *  message, if that fails. */
+    public static boolean fetchHelper(String remote, String branch) {
+        File remoteDir = Remote.directory(remote);
+        if (remoteDir == null || !remoteDir.isDirectory()) {
+            System.out.println("Remote directory not found.");
+            return false;
+        }
+        String remoteHead = Remote.branchHead(remoteDir, branch);
+        if (remoteHead == null) {
+            System.out.println("That remote does not have that branch.");
+            return false;
+        }
+        Remote.transfer(remoteDir, COMMON, remoteHead);
+        Refs.set(remote + "/" + branch, remoteHead, Reflog.Action.FETCH);
+        return true;
+    }
+
+    /** Does the push command, where ARGS is input by user: push
+     *  REMOTE BRANCH. Copies the commits and blobs of the current
+     *  branch that the remote is missing and fast-forwards the remote's
+     *  BRANCH to the current commit. */
+    public static void doPush(String... args) {
+        if (args.length != 3) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else {
+            File remoteDir = Remote.directory(args[1]);
+            if (remoteDir == null || !remoteDir.isDirectory()) {
+                System.out.println("Remote directory not found.");
+                return;
+            }
+            String head = headSHA1();
+            String remoteHead = Remote.branchHead(remoteDir, args[2]);
+            if (remoteHead != null && !isAncestor(remoteHead, head)) {
+                System.out.println("Please pull down remote "
+                        + "changes before pushing.");
+                return;
+            }
+            Remote.transfer(COMMON, remoteDir, head);
+            Refs.set(remoteDir, args[2], head, Reflog.Action.PUSH);
+        }
+    }
+
+    /** Does the pull command, where ARGS is input by user: pull
+     *  REMOTE BRANCH. Fetches the branch and merges it into the
+     *  current branch. */
+    public static void doPull(String... args) {
+        if (args.length != 3) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (fetchHelper(args[1], args[2])) {
+            doMerge("merge", args[1] + "/" + args[2]);
+        }
+    }
+
+    /** Does the commit-graph command, where ARGS is input by user.
+     *  Writes the commit graph and reachability bitmaps for every
+     *  commit reachable from a branch. */
+    public static void doCommitGraph(String... args) {
+        if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else {
+            CommitGraph.write(COMMON, Remote.branchHeads(COMMON));
+        }
+    }
+
+    /** Does the bundle command, where ARGS is input by user: bundle
+     *  create FILE BRANCH... writes FILE holding those branches and
+     *  their history, and bundle unbundle FILE imports the objects in
+     *  FILE and records each branch it carries as bundle/BRANCH. */
+    public static void doBundle(String... args) {
+        if (args.length < 3) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args[1].equals("create") && args.length > 3) {
+            LinkedHashMap<String, String> branches = new LinkedHashMap<>();
+            for (int i = 3; i < args.length; i += 1) {
+                String head = Refs.get(args[i]);
+                if (head == null) {
+                    System.out.println("A branch with that name "
+                            + "does not exist.");
+                    return;
+                }
+                branches.put(args[i], head);
+            }
+            Bundle.create(new File(args[2]), branches);
+        } else if (args[1].equals("unbundle") && args.length == 3) {
+            File file = new File(args[2]);
+            if (!file.isFile()) {
+                System.out.println("File does not exist.");
+                return;
+            }
+            Map<String, String> branches;
+            try {
+                branches = Bundle.unbundle(file);
+            } catch (GitletException excp) {
+                System.out.println(excp.getMessage());
+                return;
+            }
+            for (String branch : branches.keySet()) {
+                Refs.set(BUNDLE_PREFIX + "/" + branch, branches.get(branch),
+                        Reflog.Action.UNBUNDLE);
+            }
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /** Does the fast-import command, where ARGS is input by user:
+     *  fast-import [FILE] reads a stream of blobs, commits and branch
+     *  updates from FILE, or from the standard input, and writes them
+     *  straight into a new pack. See FastImport for the format. */
+    public static void doFastImport(String... args) {
+        if (args.length > 2) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args.length == 2 && !new File(args[1]).isFile()) {
+            System.out.println("File does not exist.");
+        } else {
+            try (InputStream in = args.length == 2
+                    ? new FileInputStream(args[1]) : System.in) {
+                FastImport importer = new FastImport(in);
+                importer.run();
+                System.out.println("Imported " + importer.blobs()
+                        + " blobs and " + importer.commits() + " commits.");
+            } catch (GitletException excp) {
+                System.out.println(excp.getMessage());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Does the fsck command, where ARGS is input by user: fsck checks
+     *  every object against its id, in parallel, and that every commit's
+     *  parents and files exist, and prints each problem found and each
+     *  object no branch reaches. */
+    public static void doFsck(String... args) {
+        if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else {
+            for (String problem : Fsck.check()) {
+                System.out.println(problem);
+            }
+        }
+    }
+
+    /** Does the fsmonitor command, where ARGS is input by user:
+     *  fsmonitor start, stop or status. While the monitor runs, status,
+     *  add -A and the untracked-file checks look only at files that
+     *  changed. */
+    public static void doFsMonitor(String... args) {
+        if (args.length != 2) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args[1].equals("start")) {
+            FsMonitor.start();
+        } else if (args[1].equals("stop")) {
+            FsMonitor.stop();
+        } else if (args[1].equals("status")) {
+            if (FsMonitor.isRunning()) {
+                System.out.println("File-system monitor is running.");
+            } else {
+                System.out.println("File-system monitor is not running.");
+            }
+        } else if (args[1].equals("run")) {
+            FsMonitor.runDaemon();
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /** Does the sparse-checkout command, where ARGS is input by user:
+     *  sparse-checkout set PATTERN..., list or disable. Setting or
+     *  disabling the patterns writes the current commit's files that
+     *  came into them and deletes the unmodified ones that fell out. */
+    public static void doSparseCheckout(String... args) {
+        if (args.length < 2) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args[1].equals("list") && args.length == 2) {
+            for (String pattern : Sparse.read().patterns()) {
+                System.out.println(pattern);
+            }
+        } else if (args[1].equals("set") && args.length > 2) {
+            Sparse old = Sparse.read();
+            Sparse.write(Arrays.asList(args).subList(2, args.length));
+            applySparse(old, Sparse.read());
+        } else if (args[1].equals("disable") && args.length == 2) {
+            Sparse old = Sparse.read();
+            Sparse.write(Collections.emptyList());
+            applySparse(old, Sparse.read());
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /** Brings the working directory from the patterns OLD to the
+     *  patterns NOW: files of the current commit that only NOW includes
+     *  are written, and those that only OLD included are deleted unless
+     *  they were modified. */
+    private static void applySparse(Sparse old, Sparse now) {
+        WorkingTree.CACHE.delete();
+        HashMap<String, String> trackedMap = headCommit().getTracked();
+        List<String> added = new ArrayList<>();
+        for (String fileName : trackedMap.keySet()) {
+            if (now.includes(fileName) && !old.includes(fileName)) {
+                added.add(trackedMap.get(fileName));
+            }
+        }
+        Promisor.fetchBlobs(added);
+        for (String fileName : trackedMap.keySet()) {
+            File file = new File(fileName);
+            String blob = trackedMap.get(fileName);
+            if (now.includes(fileName) && !old.includes(fileName)) {
+                if (!file.exists()) {
+                    checkoutBlob(blob, file);
+                }
+            } else if (!now.includes(fileName) && old.includes(fileName)
+                    && file.isFile()
+                    && Utils.sha1(Utils.readContents(file)).equals(blob)) {
+                Utils.restrictedDelete(file);
+            }
+        }
+    }
+
+    /** Returns the names of all branches, sorted, including remote
+     *  tracking branches of the form REMOTE/BRANCH. */
+    public static List<String> branchNames() {
+        return new ArrayList<>(Refs.all().keySet());
+    }
+
+    /** Returns true iff the commit ANCESTOR is DESCENDANT or one of
+     *  its ancestors, answered from the reachability bitmaps of the
+     *  commit graph where possible. */
+    public static boolean isAncestor(String ancestor, String descendant) {
+        long start = Trace.begin();
+        try {
+            return CommitGraph.read(COMMON).isAncestor(ancestor, descendant);
+        } finally {
+            Trace.end("isAncestor", start);
+        }
+    }
+
     /** Does the checkout command, where ARGS is input by user. */
     public static void doCheckout(String... args) {
         if (args.length == 3 && args[1].equals("--")) {
@@ -363,9 +1038,7 @@ public class Main {
      *  the full SHA1 from the sha1Prefix. Checks out
      *  FILENAME from the commit with given SHA1. */
     public static void checkout2Helper(String sha1, String fileName) {
-        File prefixDir = new File(COMMITS, sha1.substring(0, 2));
-        File serializedCommit = new File(prefixDir, sha1.substring(2));
-        if (!serializedCommit.exists()) {
+        if (!hasCommit(sha1)) {
             System.out.println("No commit with that id exists.");
         } else {
             Commit commit = retrieveCommit(sha1);
@@ -374,10 +1047,7 @@ public class Main {
                 System.out.println("File does not exist in that commit.");
             } else {
                 String blobSHA1 = trackedMap.get(fileName);
-                File file = new File(fileName);
-                File blobPrefixDir = new File(BLOBS, blobSHA1.substring(0, 2));
-                File blobFile = new File(blobPrefixDir, blobSHA1.substring(2));
-                Utils.writeContents(file, Utils.readContentsAsString(blobFile));
+                checkoutBlob(blobSHA1, new File(fileName));
             }
         }
 
@@ -386,16 +1056,16 @@ public class Main {
     /** Implements the version of checkout where the args
      *  are of the form checkout BRANCH. */
     public static void doCheckout3(String branch) {
-        File branchFile = new File(BRANCHES, branch);
-        String currentBranch = Utils.readContentsAsString(HEAD);
-        if (!branchFile.exists()) {
+        String sha1 = Refs.get(branch);
+        if (sha1 == null) {
             System.out.println("No such branch exists.");
-        } else if (branch.equals(currentBranch)) {
+        } else if (branch.equals(Refs.head())) {
             System.out.println("No need to checkout the current branch.");
+        } else if (checkedOutElsewhere(branch)) {
+            return;
         } else {
-            String sha1 = Utils.readContentsAsString(branchFile);
             checkout3ResetHelper(sha1);
-            Utils.writeContents(HEAD, branch);
+            Refs.setHead(branch);
         }
     }
 
@@ -407,15 +1077,100 @@ public class Main {
             System.out.println("Not in an initialized Gitlet directory.");
         } else {
             String newBranch = args[1];
-            File newBranchFile = new File(BRANCHES, newBranch);
-            if (newBranchFile.exists()) {
+            if (Refs.exists(newBranch)) {
                 System.out.println("A branch with that name already exists.");
             } else {
-                Utils.writeContents(newBranchFile, headSHA1());
+                Refs.set(newBranch, headSHA1(), Reflog.Action.BRANCH);
             }
         }
     }
 
+    /** Does the reflog command, where ARGS is input by user: reflog
+     *  [REF] prints the values REF, a branch or HEAD, has held, newest
+     *  first, and reflog expire [--days=N] drops entries older than N
+     *  days, 90 by default, from every log. */
+    public static void doReflog(String... args) {
+        if (args.length > 3) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args.length > 1 && args[1].equals("expire")) {
+            long millis = Reflog.EXPIRE_MILLIS;
+            if (args.length == 3) {
+                if (!args[2].matches("--days=[0-9]+")) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+                millis = Long.parseLong(args[2].substring("--days=".length()))
+                        * MILLIS_PER_DAY;
+            }
+            long cutoff = System.currentTimeMillis() - millis;
+            Reflog.expire(Reflog.HEAD, cutoff, Reflog.MAX_ENTRIES);
+            for (String branch : Refs.all().keySet()) {
+                Reflog.expire(branch, cutoff, Reflog.MAX_ENTRIES);
+            }
+        } else if (args.length == 3) {
+            System.out.println("Incorrect operands.");
+        } else {
+            String ref = args.length == 2 ? args[1] : Reflog.HEAD;
+            List<Reflog.Entry> entries = Reflog.read(ref);
+            for (int n = 0; n < entries.size(); n += 1) {
+                Reflog.Entry entry = entries.get(entries.size() - 1 - n);
+                System.out.println(entry.now().substring(0, BLAME_ID_LENGTH)
+                        + " " + ref + "@{" + n + "}: "
+                        + entry.action().label());
+            }
+        }
+    }
+
+    /** Does the worktree command, where ARGS is input by user:
+     *  worktree add PATH BRANCH creates a worktree in PATH with BRANCH
+     *  checked out, sharing this repository's objects and branches, and
+     *  worktree list prints every worktree and its branch. */
+    public static void doWorktree(String... args) {
+        if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args.length == 4 && args[1].equals("add")) {
+            if (!Refs.exists(args[3])) {
+                System.out.println("No such branch exists.");
+                return;
+            }
+            Worktree.add(new File(args[2]), args[3]);
+        } else if (args.length == 2 && args[1].equals("list")) {
+            for (Map.Entry<File, File> tree : Worktree.all().entrySet()) {
+                System.out.println(tree.getKey().getPath() + " ["
+                        + Worktree.branch(tree.getValue()) + "]");
+            }
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /** Returns true, after printing an error message, iff BRANCH is
+     *  checked out in another worktree. */
+    private static boolean checkedOutElsewhere(String branch) {
+        File elsewhere = Worktree.checkedOutElsewhere(branch);
+        if (elsewhere != null) {
+            System.out.println("'" + branch + "' is already checked out at '"
+                    + elsewhere.getPath() + "'.");
+            return true;
+        }
+        return false;
+    }
+
+    /** Does the pack-refs command, where ARGS is input by user: moves
+     *  every branch into the sorted packed-refs file, so that commands
+     *  need not read one file per branch. */
+    public static void doPackRefs(String... args) {
+        if (args.length != 1) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else {
+            Refs.pack();
+        }
+    }
+
     /** Does the rm-branch command, where ARGS is input by user. */
     public static void doRemoveBranch(String... args) {
         if (args.length != 2) {
@@ -424,13 +1179,12 @@ public class Main {
             System.out.println("Not in an initialized Gitlet directory.");
         } else {
             String branch = args[1];
-            File branchFile = new File(BRANCHES, branch);
-            if (!branchFile.exists()) {
+            if (!Refs.exists(branch)) {
                 System.out.println("A branch with that name does not exist.");
-            } else if (branch.equals(Utils.readContentsAsString(HEAD))) {
+            } else if (branch.equals(Refs.head())) {
                 System.out.println("Cannot remove the current branch.");
-            } else {
-                branchFile.delete();
+            } else if (!checkedOutElsewhere(branch)) {
+                Refs.delete(branch);
             }
         }
     }
@@ -443,7 +1197,12 @@ public class Main {
             System.out.println("Not in an initialized Gitlet directory.");
         } else {
             String sha1Prefix = args[1];
-            if (sha1Prefix.length() == 8 * 5) {
+            if (sha1Prefix.contains("@{")) {
+                String sha1 = resolve(sha1Prefix);
+                if (sha1 != null) {
+                    resetHelper(sha1);
+                }
+            } else if (sha1Prefix.length() == 8 * 5) {
                 resetHelper(sha1Prefix);
             } else {
                 String sha1 = sha1(sha1Prefix);
@@ -458,93 +1217,239 @@ public class Main {
      *  the full SHA1 from the sha1Prefix. Resets the working
      *  directory to the commit with given SHA1. */
     public static void resetHelper(String sha1) {
-        File prefixDir = new File(COMMITS, sha1.substring(0, 2));
-        File serializedCommit = new File(prefixDir, sha1.substring(2));
-        if (!serializedCommit.exists()) {
+        if (!hasCommit(sha1)) {
             System.out.println("No commit with that id exists.");
         } else {
             checkout3ResetHelper(sha1);
-            String currentBranch = Utils.readContentsAsString(HEAD);
-            File currentBranchFile = new File(BRANCHES, currentBranch);
-            Utils.writeContents(currentBranchFile, sha1);
+            Refs.set(Refs.head(), sha1, Reflog.Action.RESET);
         }
     }
 
     /** Helper function called by both resetHelper and doCheckout3
      *  to do what they both have in common: Checks out
-     *  FILENAME from the commit with given SHA1. */
-    public static void checkout3ResetHelper(String sha1) {
-        Commit currentCommit = headCommit();
+     *  FILENAME from the commit with given SHA1. Returns false, having
+     *  changed nothing, if an untracked file is in the way. */
+    public static boolean checkout3ResetHelper(String sha1) {
+        long start = Trace.begin();
+        try {
+            return checkout3ResetHelper(sha1, headCommit());
+        } finally {
+            Trace.end("checkout3ResetHelper", start);
+        }
+    }
+
+    /** Checks out the commit with the given SHA1 in place of
+     *  CURRENTCOMMIT, returning false if an untracked file is in the
+     *  way. */
+    private static boolean checkout3ResetHelper(String sha1,
+                                             Commit currentCommit) {
         Set<String> currentTracked = currentCommit.getTracked().keySet();
         Commit otherCommit = retrieveCommit(sha1);
-        Set<String> otherTracked = otherCommit.getTracked().keySet();
-        for (String fileName : new File(".").list()) {
+        HashMap<String, String> otherMap = otherCommit.getTracked();
+        Set<String> otherTracked = otherMap.keySet();
+        Index index = Index.read(INDEX);
+        Sparse sparse = Sparse.read();
+        List<String> blobs = new ArrayList<>();
+        for (String fileName : otherTracked) {
+            if (sparse.includes(fileName)) {
+                blobs.add(otherMap.get(fileName));
+            }
+        }
+        Promisor.fetchBlobs(blobs);
+        for (String fileName : WorkingTree.scan().names()) {
             if ((!currentTracked.contains(fileName)
                     && otherTracked.contains(fileName))
                     || (currentTracked.contains(fileName)
                     && !otherTracked.contains(fileName)
-                    && new File(REMOVED, fileName).exists())) {
+                    && index.isRemoved(fileName))) {
                 String error = "There is an untracked file "
                         + "in the way; delete it or add it first.";
                 System.out.println(error);
-                return;
+                return false;
             }
         }
 
         for (String fileName : otherTracked) {
-            checkout2Helper(sha1, fileName);
+            if (sparse.includes(fileName)) {
+                checkoutBlob(otherMap.get(fileName), new File(fileName));
+            }
         }
         for (String fileName : currentTracked) {
-            if ((!otherTracked.contains(fileName))) {
+            if (!otherTracked.contains(fileName)
+                    && sparse.includes(fileName)) {
                 Utils.restrictedDelete(fileName);
             }
         }
 
-        for (File file : STAGED.listFiles()) {
-            file.delete();
+        index.clear();
+        index.write(INDEX);
+        return true;
+    }
+
+    /** Does the cherry-pick command, where ARGS is input by user:
+     *  cherry-pick COMMIT applies the changes COMMIT made to its parent
+     *  on top of the current commit, as a new commit. */
+    public static void doCherryPick(String... args) {
+        if (args.length != 2) {
+            System.out.println("Incorrect operands.");
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (!Index.read(INDEX).isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+        } else {
+            String sha1 = resolve(args[1]);
+            if (sha1 == null) {
+                return;
+            } else if (retrieveCommit(sha1).getParent() == null) {
+                System.out.println("Cannot cherry-pick the initial commit.");
+                return;
+            }
+            String result = replay(headSHA1(),
+                    Collections.singletonList(sha1));
+            if (result == null) {
+                return;
+            } else if (result.equals(headSHA1())) {
+                System.out.println("No changes added to the commit.");
+            } else {
+                moveHead(result, Reflog.Action.CHERRY_PICK);
+            }
+        }
+    }
+
+    /** Does the rebase command, where ARGS is input by user: rebase
+     *  BRANCH replays the commits of the current branch that BRANCH
+     *  lacks on top of BRANCH, oldest first, and moves the current
+     *  branch to the last of them. Merge commits are dropped. The
+     *  commits are replayed in memory and the working directory is
+     *  checked out once, at the end. */
+    public static void doRebase(String... args) {
+        if (args.length != 2) {
+            System.out.println("Incorrect operands.");
+            return;
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        String upstream = Refs.get(args[1]);
+        if (!Index.read(INDEX).isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+        } else if (upstream == null) {
+            System.out.println("A branch with that name does not exist.");
+        } else if (args[1].equals(Refs.head())) {
+            System.out.println("Cannot rebase a branch onto itself.");
+        } else {
+            String head = headSHA1();
+            CommitGraph graph = CommitGraph.read(COMMON);
+            if (graph.isAncestor(upstream, head)) {
+                System.out.println("Current branch is up to date.");
+            } else if (graph.isAncestor(head, upstream)) {
+                if (moveHead(upstream, Reflog.Action.FAST_FORWARD)) {
+                    System.out.println("Current branch fast-forwarded.");
+                }
+            } else {
+                CommitGraph.Reach onto =
+                    graph.reach(Arrays.asList(upstream));
+                List<String> commits = new ArrayList<>();
+                for (String sha1 = head; sha1 != null
+                         && !graph.contains(onto, sha1);) {
+                    Commit commit = retrieveCommit(sha1);
+                    if (commit.getMergeParent() == null) {
+                        commits.add(sha1);
+                    }
+                    sha1 = commit.getParent();
+                }
+                Collections.reverse(commits);
+                String result = replay(upstream, commits);
+                if (result != null) {
+                    moveHead(result, Reflog.Action.REBASE);
+                }
+            }
+        }
+    }
+
+    /** Replays COMMITS, in order, on top of the commit BASE: each
+     *  commit's changes against its first parent are merged into the
+     *  result so far purely from the tracked maps, and written as a new
+     *  commit with the original message and time. Commits whose changes
+     *  are already present are skipped. Returns the last commit written,
+     *  or BASE if there was none. If a commit does not apply cleanly,
+     *  prints which and returns null, leaving the branches alone. */
+    private static String replay(String base, List<String> commits) {
+        long start = Trace.begin();
+        try {
+            String head = base;
+            HashMap<String, String> tracked = retrieveCommit(base)
+                .getTracked();
+            for (String sha1 : commits) {
+                Commit commit = retrieveCommit(sha1);
+                MergePlan plan = new MergePlan(
+                        retrieveCommit(commit.getParent()).getTracked(),
+                        tracked, commit.getTracked());
+                if (plan.hasConflicts()) {
+                    System.out.println("Could not apply " + sha1
+                            + "; encountered a merge conflict.");
+                    return null;
+                }
+                HashMap<String, String> result = plan.result(tracked);
+                if (result.equals(tracked)) {
+                    continue;
+                }
+                Commit replayed = new Commit(commit.getTimestamp(),
+                        commit.getMessage(), result, head, null);
+                writeCommit(replayed);
+                SearchIndex.record(replayed, tracked);
+                head = replayed.getSha1();
+                tracked = result;
+            }
+            return head;
+        } finally {
+            Trace.end("replay", start);
         }
-        for (File file : REMOVED.listFiles()) {
-            file.delete();
+    }
+
+    /** Checks out the commit SHA1 and points the current branch at it,
+     *  logging the move as ACTION. Returns false, having changed
+     *  nothing, if an untracked file is in the way. */
+    private static boolean moveHead(String sha1, Reflog.Action action) {
+        if (!checkout3ResetHelper(sha1)) {
+            return false;
         }
+        Refs.set(Refs.head(), sha1, action);
+        return true;
     }
 
     /** Does the merge command, where ARGS is input by user. */
     public static void doMerge(String... args) {
-        HashSet<String> stagedFiles;
-        stagedFiles = new HashSet<>(Arrays.asList(STAGED.list()));
-        HashSet<String> removedFiles;
-        removedFiles = new HashSet<>(Arrays.asList(REMOVED.list()));
         String mergeBranch = args[1];
-        File mergeBranchFile = new File(BRANCHES, mergeBranch);
-        String currentBranch = Utils.readContentsAsString(HEAD);
+        String mergeSha1 = Refs.get(mergeBranch);
+        String currentBranch = Refs.head();
 
         if (args.length != 2) {
             System.out.println("Incorrect operands.");
         } else if (!GITLET.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
-        } else if (!stagedFiles.isEmpty() || !removedFiles.isEmpty()) {
+        } else if (!Index.read(INDEX).isEmpty()) {
             System.out.println("You have uncommitted changes.");
-        } else if (!mergeBranchFile.exists()) {
+        } else if (mergeSha1 == null) {
             System.out.println("A branch with that name does not exist.");
         } else if (mergeBranch.equals(currentBranch)) {
             System.out.println("Cannot merge a branch with itself.");
+        } else if (isAncestor(mergeSha1, headSHA1())) {
+            String error = "Given branch is an "
+                    + "ancestor of the current branch.";
+            System.out.println(error);
         } else if (unsafeToMerge(mergeBranch)) {
             String error = "There is an untracked file "
                     + "in the way; delete it or add it first.";
             System.out.println(error);
         } else {
-            String splitSha1 = splitPoint(mergeBranch);
-            String mergeSha1 = Utils.readContentsAsString(mergeBranchFile);
             String currentSha1 = headSHA1();
-            if (splitSha1.equals(mergeSha1)) {
-                String error = "Given branch is an "
-                        + "ancestor of the current branch.";
-                System.out.println(error);
-            } else if (splitSha1.equals(currentSha1)) {
-                File file = new File(BRANCHES, currentBranch);
-                Utils.writeContents(file, mergeSha1);
+            if (isAncestor(currentSha1, mergeSha1)) {
+                Refs.set(currentBranch, mergeSha1,
+                        Reflog.Action.FAST_FORWARD);
                 System.out.println("Current branch fast-forwarded.");
             } else {
+                String splitSha1 = splitPoint(mergeBranch);
                 HashMap<String, String> splitTracked
                         = retrieveCommit(splitSha1).getTracked();
                 HashMap<String, String> mergeTracked
@@ -552,13 +1457,8 @@ public class Main {
                 HashMap<String, String> currentTracked
                         = retrieveCommit(currentSha1).getTracked();
 
-                HashSet<String> fileNames = new HashSet<>();
-                fileNames.addAll(splitTracked.keySet());
-                fileNames.addAll(mergeTracked.keySet());
-                fileNames.addAll(currentTracked.keySet());
-
                 boolean inConflict = mergeHelper(splitTracked,
-                        currentTracked, mergeTracked, mergeSha1);
+                        currentTracked, mergeTracked);
 
                 String message = "Merged " + mergeBranch
                         + " into " + currentBranch + ".";
@@ -570,73 +1470,70 @@ public class Main {
         }
     }
 
+    /** Does the merge-tree command, where ARGS is input by user:
+     *  merge-tree OURS THEIRS merges the commits named by OURS and
+     *  THEIRS, each a branch or a commit id, entirely in the object
+     *  store, leaving HEAD, the staging area and the working directory
+     *  alone. A clean merge is written as a new commit whose id is
+     *  printed; otherwise each conflicting file is listed and nothing
+     *  is written. */
+    public static void doMergeTree(String... args) {
+        if (args.length != 3) {
+            System.out.println("Incorrect operands.");
+            return;
+        } else if (!GITLET.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        String ours = resolve(args[1]);
+        String theirs = ours == null ? null : resolve(args[2]);
+        if (theirs == null) {
+            return;
+        }
+        String split = splitPoint(ours, theirs);
+        if (split == null) {
+            System.out.println("Commits have no common ancestor.");
+            return;
+        }
+        HashMap<String, String> currentTracked
+                = retrieveCommit(ours).getTracked();
+        MergePlan plan = new MergePlan(retrieveCommit(split).getTracked(),
+                currentTracked, retrieveCommit(theirs).getTracked());
+        if (plan.hasConflicts()) {
+            for (Map.Entry<String, MergePlan.Step> entry
+                     : plan.steps().entrySet()) {
+                if (entry.getValue().action() == MergePlan.Action.CONFLICT) {
+                    System.out.println("Merge conflict in "
+                            + entry.getKey());
+                }
+            }
+            System.out.println("Encountered a merge conflict.");
+            return;
+        }
+        SimpleDateFormat date
+                = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
+        Commit merged = new Commit(date.format(new Date()),
+                "Merged " + args[2] + " into " + args[1] + ".",
+                plan.result(currentTracked), ours, theirs);
+        writeCommit(merged);
+        System.out.println(merged.getSha1());
+    }
+
     /** Nonsense helper function for doMerge solely to meet the
      *  completely arbitrary style restriction of 60 lines per
      *  method. The arguments to this method are SPLITTRACKED,
-     *  CURRENTTRACKED, MERGETRACKED, AND MERGESHA1. Returns true
-     *  if and only if ongoing merge will cause a conflict. Thank
-     *  you and good night.*/
+     *  CURRENTTRACKED, and MERGETRACKED. Plans the merge, carries
+     *  it out, and returns true if and only if it caused a
+     *  conflict. Thank you and good night.*/
     public static boolean mergeHelper(HashMap<String, String> splitTracked,
                                    HashMap<String, String> currentTracked,
-                                   HashMap<String, String> mergeTracked,
-                                   String mergeSha1) {
-        boolean inConflict = false;
-        HashSet<String> fileNames = new HashSet<>();
-        fileNames.addAll(splitTracked.keySet());
-        fileNames.addAll(mergeTracked.keySet());
-        fileNames.addAll(currentTracked.keySet());
-        for (String fileName : fileNames) {
-            String splitFileSha1 = null;
-            String mergeFileSha1 = null;
-            String currentFileSha1 = null;
-            if (splitTracked.keySet().contains(fileName)) {
-                splitFileSha1 = splitTracked.get(fileName);
-            }
-            if (mergeTracked.keySet().contains(fileName)) {
-                mergeFileSha1 = mergeTracked.get(fileName);
-            }
-            if (currentTracked.keySet().contains(fileName)) {
-                currentFileSha1 = currentTracked.get(fileName);
-            }
-            if (equals(splitFileSha1, currentFileSha1)
-                    && !equals(splitFileSha1, mergeFileSha1)
-                    && mergeFileSha1 != null) {
-                checkout2Helper(mergeSha1, fileName);
-                File file = new File(fileName);
-                File stagedFile = new File(STAGED, fileName);
-                String contents = Utils.readContentsAsString(file);
-                Utils.writeContents(stagedFile, contents);
-            } else if (equals(splitFileSha1, currentFileSha1)
-                    && mergeFileSha1 == null) {
-                doRemove("rm", fileName);
-            } else if (!equals(splitFileSha1, mergeFileSha1)
-                    && !equals(currentFileSha1, mergeFileSha1)) {
-                String currentCont = "";
-                String mergeContents = "";
-                if (currentFileSha1 != null) {
-                    String prefix = currentFileSha1.substring(0, 2);
-                    File currentCommitPrefix = new File(BLOBS, prefix);
-                    String tail = currentFileSha1.substring(2);
-                    File currentComFile = new File(currentCommitPrefix, tail);
-                    currentCont = Utils.readContentsAsString(currentComFile);
-                }
-                if (mergeFileSha1 != null) {
-                    String prefix = mergeFileSha1.substring(0, 2);
-                    File mergeComPrefix = new File(BLOBS, prefix);
-                    String tail = mergeFileSha1.substring(2);
-                    File mergeCommitFile = new File(mergeComPrefix, tail);
-                    mergeContents = Utils.readContentsAsString(mergeCommitFile);
-                }
-                String newContents = "<<<<<<< HEAD\n" + currentCont
-                        + "=======\n" + mergeContents + ">>>>>>>\n";
-                File workingDirFile = new File(fileName);
-                Utils.writeContents(workingDirFile, newContents);
-                File stagedFile = new File(STAGED, fileName);
-                Utils.writeContents(stagedFile, newContents);
-                inConflict = true;
-            }
-        }
-        return inConflict;
+                                   HashMap<String, String> mergeTracked) {
+        MergePlan plan = new MergePlan(splitTracked,
+                currentTracked, mergeTracked);
+        Index index = Index.read(INDEX);
+        plan.execute(index);
+        index.write(INDEX);
+        return plan.hasConflicts();
     }
 
     /** Returns true iff STR1 and STR2 are both null or
@@ -653,9 +1550,26 @@ public class Main {
      *  the most recent common ancestor of MERGEBRANCH and
      *  the current branch. */
     public static String splitPoint(String mergeBranch) {
-        File mergeBranchFile = new File(BRANCHES, mergeBranch);
-        String mergeBranchCommit = Utils.readContentsAsString(mergeBranchFile);
-        String currentBranchCommit = headSHA1();
+        return splitPoint(headSHA1(), Refs.get(mergeBranch));
+    }
+
+    /** Returns the SHA-1 code of the most recent common ancestor of
+     *  the commits CURRENTSHA1 and MERGESHA1, or null if they have
+     *  none. */
+    public static String splitPoint(String currentSha1, String mergeSha1) {
+        long start = Trace.begin();
+        try {
+            return splitPointHelper(currentSha1, mergeSha1);
+        } finally {
+            Trace.end("splitPoint", start);
+        }
+    }
+
+    /** Does the work of splitPoint for CURRENTSHA1 and MERGESHA1. */
+    private static String splitPointHelper(String currentSha1,
+                                           String mergeSha1) {
+        String mergeBranchCommit = mergeSha1;
+        String currentBranchCommit = currentSha1;
         String mergeBranchParent
                 = retrieveCommit(mergeBranchCommit).getParent();
         String currentBranchParent
@@ -684,15 +1598,20 @@ public class Main {
                 }
             }
         }
+        if (currentBranchSeen.contains(mergeBranchCommit)
+                || mergeBranchCommit.equals(currentBranchCommit)) {
+            return mergeBranchCommit;
+        } else if (mergeBranchSeen.contains(currentBranchCommit)) {
+            return currentBranchCommit;
+        }
         return null;
     }
 
     /** Returns true if and only if merging MERGEBRANCH with
      *  the current branch would result in a merge conflict. */
     public static boolean unsafeToMerge(String mergeBranch) {
-        File mergeBranchFile = new File(BRANCHES, mergeBranch);
         String splitSha1 = splitPoint(mergeBranch);
-        String mergeSha1 = Utils.readContentsAsString(mergeBranchFile);
+        String mergeSha1 = Refs.get(mergeBranch);
         HashMap<String, String> splitTracked
                 = retrieveCommit(splitSha1).getTracked();
         HashMap<String, String> mergeTracked
@@ -733,106 +1652,354 @@ public class Main {
     /** Returns the set of all files that should currently
      *  be regarded as modified but not staged. */
     public static HashSet<String> modifiedButNotStaged() {
-        HashSet<String> modifiedButNotStaged = new HashSet<>();
-
-        for (String fileName : Utils.plainFilenamesIn(new File("."))) {
-            boolean tracked
-                    = headCommit().getTracked().keySet().contains(fileName);
-
-            File file = new File(fileName);
-            String workingDirSha1 = Utils.sha1(Utils.readContents(file));
-            String commitSha1 = headCommit().getTracked().get(fileName);
-            boolean changed = !workingDirSha1.equals(commitSha1);
+        return modifiedButNotStaged(WorkingTree.scan());
+    }
 
-            File stagedFile = new File(STAGED, fileName);
-            boolean isStaged = stagedFile.exists();
+    /** Returns the set of all files that should currently be regarded
+     *  as modified but not staged, given the working directory TREE. */
+    public static HashSet<String> modifiedButNotStaged(WorkingTree tree) {
+        long start = Trace.begin();
+        HashSet<String> modifiedButNotStaged = new HashSet<>();
+        HashMap<String, String> trackedMap = headCommit().getTracked();
+        Index index = Index.read(INDEX);
+        HashSet<String> compared = new HashSet<>(trackedMap.keySet());
+        compared.addAll(index.staged());
+        tree.hash(compared);
 
-            if (tracked && changed && !isStaged) {
-                modifiedButNotStaged.add(fileName + " (modified)");
-            }
+        for (String fileName : tree.names()) {
+            boolean tracked = trackedMap.keySet().contains(fileName);
+            Index.Entry entry = index.get(fileName);
+            boolean isStaged = entry != null && !entry.isRemoval();
 
             if (isStaged) {
-                String stagedSha1 = Utils.sha1(Utils.readContents(stagedFile));
-                if (!workingDirSha1.equals(stagedSha1)) {
+                if (!tree.sha1(fileName).equals(entry.blob())) {
+                    modifiedButNotStaged.add(fileName + " (modified)");
+                }
+            } else if (tracked) {
+                if (!tree.sha1(fileName).equals(trackedMap.get(fileName))) {
                     modifiedButNotStaged.add(fileName + " (modified)");
                 }
             }
         }
+        tree.save();
 
-        for (String fileName : STAGED.list()) {
-            File file = new File(fileName);
-            if (!file.exists()) {
+        Sparse sparse = Sparse.read();
+        for (String fileName : index.staged()) {
+            if (!tree.contains(fileName) && sparse.includes(fileName)) {
                 modifiedButNotStaged.add(fileName + " (deleted)");
             }
         }
 
-        for (String fileName : headCommit().getTracked().keySet()) {
-            File file = new File(fileName);
-            File removedFile = new File(REMOVED, fileName);
-            if (!file.exists() && !removedFile.exists()) {
+        for (String fileName : trackedMap.keySet()) {
+            if (!tree.contains(fileName) && !index.isRemoved(fileName)
+                    && sparse.includes(fileName)) {
                 modifiedButNotStaged.add(fileName + " (deleted)");
             }
         }
 
+        Trace.end("modifiedButNotStaged", start);
         return modifiedButNotStaged;
     }
 
     /** Returns the set of all currently untracked files in the
      *  working directory. */
     public static HashSet<String> untrackedFiles() {
+        return untrackedFiles(WorkingTree.scan());
+    }
+
+    /** Returns the set of all currently untracked files in the working
+     *  directory TREE. */
+    public static HashSet<String> untrackedFiles(WorkingTree tree) {
+        long start = Trace.begin();
         HashSet<String> untrackedFiles = new HashSet<>();
-        for (String fileName : Utils.plainFilenamesIn(new File("."))) {
-            boolean tracked
-                    = headCommit().getTracked().keySet().contains(fileName);
-            boolean isStaged = (new File(STAGED, fileName)).exists();
-            boolean isRemoved = (new File(REMOVED, fileName)).exists();
-            if ((!tracked && !isStaged) || isRemoved) {
+        Set<String> tracked = headCommit().getTracked().keySet();
+        Index index = Index.read(INDEX);
+        for (String fileName : tree.names()) {
+            boolean isStaged = index.isStaged(fileName);
+            boolean isRemoved = index.isRemoved(fileName);
+            if ((!tracked.contains(fileName) && !isStaged) || isRemoved) {
                 untrackedFiles.add(fileName);
             }
         }
+        Trace.end("untrackedFiles", start);
         return untrackedFiles;
     }
 
-    /** Serializes the given COMMIT and sets its SHA-1 value. */
+    /** Returns the object store of this repository: its loose
+     *  objects and packs, behind a cache of recently used ones. A
+     *  thread running withObjects sees the store it was given
+     *  instead. */
+    static ObjectStore objects() {
+        ObjectStore local = _threadObjects.get();
+        return local != null ? local : sharedObjects();
+    }
+
+    /** Returns true iff this thread is running withObjects, and so
+     *  may be reading some other repository's objects. */
+    static boolean borrowedObjects() {
+        return _threadObjects.get() != null;
+    }
+
+    /** Returns the object store of the repository in the current
+     *  directory. */
+    private static synchronized ObjectStore sharedObjects() {
+        if (_objects == null) {
+            _objects = new CachingObjectStore(openObjects(COMMON),
+                    OBJECT_CACHE_BYTES);
+        }
+        return _objects;
+    }
+
+    /** Returns the object store of the repository whose .gitlet
+     *  directory is GITLETDIR, which may be another repository's, such
+     *  as a remote. */
+    static synchronized ObjectStore objects(File gitletDir) {
+        if (gitletDir.equals(COMMON)) {
+            return objects();
+        }
+        String key = gitletDir.getAbsolutePath();
+        ObjectStore store = _otherObjects.get(key);
+        if (store == null) {
+            store = openObjects(gitletDir);
+            _otherObjects.put(key, store);
+        }
+        return store;
+    }
+
+    /** Returns the objects of the .gitlet directory GITLETDIR: its loose
+     *  objects, and the packs in its packs directory, if any. */
+    static ObjectStore openObjects(File gitletDir) {
+        LooseObjectStore loose = new LooseObjectStore(gitletDir);
+        File[] packFiles = new File(gitletDir, PACKS.getName())
+            .listFiles((dir, name) -> name.endsWith(PACK_SUFFIX));
+        if (packFiles == null || packFiles.length == 0) {
+            return loose;
+        }
+        Arrays.sort(packFiles);
+        List<PackObjectStore> packs = new ArrayList<>();
+        for (File packFile : packFiles) {
+            packs.add(new PackObjectStore(packFile));
+        }
+        return new LayeredObjectStore(loose, packs);
+    }
+
+    /** Makes STORE the object store of this repository for the rest of
+     *  the run, or, if STORE is null, reopens the usual one and forgets
+     *  the stores of other repositories. */
+    static synchronized void useObjects(ObjectStore store) {
+        _objects = store;
+        if (store == null) {
+            _otherObjects.clear();
+        }
+    }
+
+    /** Returns the result of BODY, run with STORE as the object store
+     *  seen by this thread, so that object reads and writes made on its
+     *  behalf, such as those of MergePlan and Renames, go to STORE.
+     *  Since STORE may belong to another repository, objects it lacks
+     *  are not fetched from this repository's promisor, and objects it
+     *  holds are verified without this repository's record of verified
+     *  objects. */
+    static <T> T withObjects(ObjectStore store, Supplier<T> body) {
+        ObjectStore old = _threadObjects.get();
+        _threadObjects.set(store);
+        try {
+            return body.get();
+        } finally {
+            _threadObjects.set(old);
+        }
+    }
+
+    /** Serializes the given COMMIT and sets its SHA-1 value. The
+     *  stored object holds exactly the bytes that were hashed, so every
+     *  object can be checked against its name. */
     public static void writeCommit(Commit commit) {
         byte[] serialized = Utils.serialize(commit);
         String sha1 = Utils.sha1(serialized);
-        File prefixDir = new File(COMMITS, sha1.substring(0, 2));
-        if (!prefixDir.exists()) {
-            prefixDir.mkdir();
-        }
-        File commitFile = new File(prefixDir, sha1.substring(2));
         commit.setSha1(sha1);
-        Utils.writeObject(commitFile, commit);
+        objects().put(Kind.COMMIT, sha1, serialized);
+        Trace.count(Trace.Counter.OBJECTS_WRITTEN, 1);
+    }
+
+    /** Stores CONTENTS, whose SHA-1 code is SHA1, as a blob
+     *  unless it is already present. */
+    public static void writeBlob(String sha1, byte[] contents) {
+        ObjectStore store = objects();
+        if (!store.contains(Kind.BLOB, sha1)) {
+            store.put(Kind.BLOB, sha1, contents);
+            Trace.count(Trace.Counter.OBJECTS_WRITTEN, 1);
+        }
+    }
+
+    /** Returns the contents of the blob with the given SHA1,
+     *  fetching it from the promisor if it is missing. */
+    public static byte[] readBlob(String sha1) {
+        ObjectStore store = objects();
+        if (!borrowedObjects() && !store.contains(Kind.BLOB, sha1)) {
+            Promisor.fetchBlobs(Collections.singleton(sha1));
+        }
+        byte[] contents = store.get(Kind.BLOB, sha1);
+        if (contents == null) {
+            throw new IllegalArgumentException("Missing blob " + sha1);
+        }
+        Fsck.verifyOnRead(sha1, contents, false);
+        Trace.count(Trace.Counter.OBJECTS_READ, 1);
+        return contents;
+    }
+
+    /** Writes the blob with the given SHA1 to FILE, replacing FILE
+     *  rather than writing into it. Unless objects are being verified
+     *  as they are read, the blob never passes through memory: a blob
+     *  kept in a file of its own is copied by the kernel, which may share
+     *  its blocks on filesystems that can, or, in link mode, FILE is made
+     *  a read-only hard link to it, which costs no copy at all. Link
+     *  mode suits trees that are deployed rather than edited, and falls
+     *  back to copying where links cannot be made. Since the link and
+     *  the object file are one inode, making FILE read-only makes the
+     *  object file so too, and writing into FILE in place, instead of
+     *  replacing it as Gitlet does, would change the blob. Other blobs
+     *  are streamed from the object store. */
+    public static void checkoutBlob(String sha1, File file) {
+        ObjectStore store = objects();
+        if (Fsck.verifying() || !store.contains(Kind.BLOB, sha1)) {
+            writeWorkingFile(file, readBlob(sha1));
+            return;
+        }
+        try {
+            Files.deleteIfExists(file.toPath());
+            File stored = store.file(Kind.BLOB, sha1);
+            if (stored == null) {
+                try (InputStream in = store.open(Kind.BLOB, sha1)) {
+                    Files.copy(in, file.toPath());
+                }
+            } else if (!linkCheckout() || !link(stored, file)) {
+                copy(stored, file);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Trace.count(Trace.Counter.OBJECTS_READ, 1);
+    }
+
+    /** Replaces FILE in the working directory with one holding
+     *  CONTENTS. FILE is removed first, so that a file checked out as a
+     *  link never writes through to its blob. */
+    public static void writeWorkingFile(File file, byte[] contents) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.writeContents(file, contents);
+    }
+
+    /** Returns true iff files are checked out as links to their
+     *  blobs. */
+    static boolean linkCheckout() {
+        return "link".equals(System.getenv(CHECKOUT_ENV_VAR));
+    }
+
+    /** Makes FILE a read-only hard link to the object file STORED.
+     *  Returns false if the filesystem cannot link them. */
+    private static boolean link(File stored, File file) {
+        try {
+            Files.createLink(file.toPath(), stored.toPath());
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+        file.setWritable(false, false);
+        Trace.count(Trace.Counter.FILES_LINKED, 1);
+        return true;
+    }
+
+    /** Returns the number of hard links to FILE, or 1 where the
+     *  filesystem does not say. */
+    static int linkCount(File file) {
+        try {
+            return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+        } catch (IOException | UnsupportedOperationException
+                 | IllegalArgumentException excp) {
+            return 1;
+        }
     }
 
-    /** Serializes the given FILE. */
-    public static void writeBlob(File file) {
-        String sha1 = Utils.sha1(Utils.readContents(file));
-        File prefixDir = new File(BLOBS, sha1.substring(0, 2));
-        if (!prefixDir.exists()) {
-            prefixDir.mkdir();
+    /** Copies the object file STORED to the new file FILE, channel to
+     *  channel, leaving the kernel to move, or share, the bytes. */
+    private static void copy(File stored, File file) throws IOException {
+        try (FileChannel in = FileChannel.open(stored.toPath(),
+                StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; ) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
         }
-        File blobFile = new File(prefixDir, sha1.substring(2));
-        Utils.writeContents(blobFile, Utils.readContentsAsString(file));
     }
 
-    /** Returns the commit with the given SHA1. */
+    /** Returns true iff the commit with the given SHA1 exists, here
+     *  or in the promisor. */
+    public static boolean hasCommit(String sha1) {
+        return objects().contains(Kind.COMMIT, sha1)
+                || Promisor.hasCommit(sha1);
+    }
+
+    /** Returns the commit with the given SHA1, fetching it from the
+     *  promisor if it is missing. */
     public static Commit retrieveCommit(String sha1) {
         if (sha1 == null) {
             return null;
         } else {
-            File prefixDir = new File(COMMITS, sha1.substring(0, 2));
-            File serializedCommit = new File(prefixDir, sha1.substring(2));
-            return Utils.readObject(serializedCommit, Commit.class);
+            long start = Trace.begin();
+            if (!borrowedObjects()
+                && !objects().contains(Kind.COMMIT, sha1)) {
+                Promisor.fetchCommit(sha1);
+            }
+            Commit commit = retrieveLocalCommit(sha1);
+            Trace.end("retrieveCommit", start);
+            return commit;
+        }
+    }
+
+    /** Returns the commit with the given SHA1, which must be present
+     *  in this repository. */
+    public static Commit retrieveLocalCommit(String sha1) {
+        byte[] contents = objects().get(Kind.COMMIT, sha1);
+        if (contents == null) {
+            throw new IllegalArgumentException("Missing commit " + sha1);
         }
+        Fsck.verifyOnRead(sha1, contents, true);
+        Commit commit = Utils.deserialize(contents, Commit.class);
+        Trace.count(Trace.Counter.OBJECTS_READ, 1);
+        commit.setSha1(sha1);
+        return commit;
+    }
+
+    /** Returns the commit with the given SHA1 in the .gitlet
+     *  directory GITLETDIR, which may be another repository's. */
+    public static Commit readCommit(File gitletDir, String sha1) {
+        if (gitletDir.equals(COMMON)) {
+            return retrieveCommit(sha1);
+        }
+        byte[] contents = objects(gitletDir).get(Kind.COMMIT, sha1);
+        if (contents == null) {
+            throw new IllegalArgumentException("Missing commit " + sha1);
+        }
+        Commit commit = Utils.deserialize(contents, Commit.class);
+        commit.setSha1(sha1);
+        return commit;
+    }
+
+    /** Returns the file holding the object with the given SHA1 in the
+     *  object directory DIR. */
+    public static File objectFile(File dir, String sha1) {
+        return new File(new File(dir, sha1.substring(0, 2)),
+                sha1.substring(2));
     }
 
     /** Returns the SHA-1 hash code of the current commit. */
     public static String headSHA1() {
-        String branch = Utils.readContentsAsString(HEAD);
-        File branchFile = new File(BRANCHES, branch);
-        return Utils.readContentsAsString(branchFile);
+        return Refs.headSha1();
     }
 
     /** Returns the current commit. */
@@ -842,6 +2009,12 @@ public class Main {
 
     /** Prints the log of the given COMMIT. */
     public static void commitLog(Commit commit) {
+        commitLog(commit, null);
+    }
+
+    /** Prints the log of the given COMMIT, followed by CHANGES
+     *  unless it is null. */
+    public static void commitLog(Commit commit, List<String> changes) {
         if (commit != null) {
             System.out.println("===");
             System.out.println("commit " + commit.getSha1());
@@ -853,6 +2026,11 @@ public class Main {
             }
             System.out.println("Date: " + commit.getTimestamp());
             System.out.println(commit.getMessage());
+            if (changes != null) {
+                for (String change : changes) {
+                    System.out.println(change);
+                }
+            }
             System.out.println();
         }
     }
@@ -860,95 +2038,193 @@ public class Main {
     /** Prints the log of every commit in the history of
      *  the given COMMIT. */
     public static void commitHistory(Commit commit) {
-        if (commit != null) {
-            commitLog(commit);
-            Commit parent = retrieveCommit(commit.getParent());
-            commitHistory(parent);
+        commitHistory(commit, false);
+    }
+
+    /** Prints the log of every commit in the history of the given
+     *  COMMIT, listing the files each one changed if NAMESTATUS. History
+     *  ends at a shallow commit whose parents were left behind, whose
+     *  files are all listed as added, as a root commit's are. */
+    public static void commitHistory(Commit commit, boolean nameStatus) {
+        Set<String> shallow = Promisor.shallowCommits();
+        while (commit != null) {
+            boolean boundary = shallow.contains(commit.getSha1())
+                    && Promisor.isShallow(commit.getSha1());
+            Commit parent = boundary ? null
+                    : retrieveCommit(commit.getParent());
+            if (!nameStatus) {
+                commitLog(commit);
+            } else {
+                HashMap<String, String> parentTracked = parent == null
+                        ? new HashMap<String, String>() : parent.getTracked();
+                commitLog(commit, nameStatus(parentTracked,
+                        commit.getTracked(), false));
+            }
+            commit = parent;
         }
     }
 
-    /** If there is exactly one commit currently in the repo
-     *  whose SHA-1 code begins with SHA1PREFIX, returns that
-     *  SHA-1 code. Else, prints error message and returns
-     *  null. */
-    public static String sha1(String sha1Prefix) {
-        String error = "Prefix does not identify a unique commit.";
-        if (sha1Prefix.length() <= 2) {
-            boolean found = false;
-            String prefix = "";
-            for (String directory : COMMITS.list()) {
-                String dirPrefix
-                        = directory.substring(0, sha1Prefix.length());
-                if (dirPrefix.equals(sha1Prefix)) {
-                    if (found) {
-                        System.out.println(error);
-                        return null;
-                    } else {
-                        prefix = directory;
-                        found = true;
-                    }
-                }
+    /** Returns the files that differ between the trees OLDTREE and
+     *  NEWTREE, sorted. */
+    public static List<String> changedPaths(Map<String, String> oldTree,
+                                            Map<String, String> newTree) {
+        TreeSet<String> result = new TreeSet<>();
+        for (String name : newTree.keySet()) {
+            if (!newTree.get(name).equals(oldTree.get(name))) {
+                result.add(name);
             }
-            if (found) {
-                File prefixDir = new File(COMMITS, prefix);
-                if (prefixDir.list().length == 1) {
-                    return prefix + prefixDir.list()[0];
-                } else {
-                    System.out.println(error);
-                    return null;
-                }
-            } else {
-                System.out.println("No commit with that id exists.");
-                return null;
+        }
+        for (String name : oldTree.keySet()) {
+            if (!newTree.containsKey(name)) {
+                result.add(name);
             }
-        } else {
-            boolean found = false;
-            String sha1 = "";
-            String tail = sha1Prefix.substring(2);
-            for (String directory : COMMITS.list()) {
-                if (directory.equals(sha1Prefix.substring(0, 2))) {
-                    File dirFile = new File(COMMITS, directory);
-                    for (String fileName : dirFile.list()) {
-                        String rem = fileName.substring(0, tail.length());
-                        if (found) {
-                            System.out.println(error);
-                            return null;
-                        } else if (rem.equals(tail)) {
-                            sha1 = directory + fileName;
-                            found = true;
-                        }
-                    }
-                    break;
-                }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Logs, newest first, the commits on the current branch's first
+     *  parent chain that changed the file PATH. Commits in the commit
+     *  graph whose Bloom filters rule out PATH are passed over without
+     *  being read. */
+    public static void pathHistory(String path) {
+        long start = Trace.begin();
+        CommitGraph graph = CommitGraph.read(COMMON);
+        Set<String> shallow = Promisor.shallowCommits();
+        String sha1 = headSHA1();
+        Commit cached = null;
+        while (sha1 != null) {
+            int pos = graph.position(sha1);
+            if (pos >= 0 && !graph.mayHaveChanged(pos, path)) {
+                int[] parents = graph.parents(pos);
+                sha1 = parents.length == 0 ? null : graph.id(parents[0]);
+                continue;
             }
-            if (found) {
-                return sha1;
-            } else {
-                System.out.println("No commit with that id exists.");
+            Commit commit = cached != null && sha1.equals(cached.getSha1())
+                    ? cached : retrieveCommit(sha1);
+            boolean boundary = shallow.contains(sha1)
+                    && Promisor.isShallow(sha1);
+            Commit parent = boundary ? null
+                    : retrieveCommit(commit.getParent());
+            String before = parent == null ? null
+                    : parent.getTracked().get(path);
+            if (!equals(before, commit.getTracked().get(path))) {
+                commitLog(commit);
+            }
+            cached = parent;
+            sha1 = parent == null ? null : parent.getSha1();
+        }
+        Trace.end("pathHistory", start);
+    }
+
+    /** Returns the full SHA-1 code of the commit named by REV, which
+     *  is either a branch name, a full or abbreviated commit id, or a
+     *  reflog entry such as master@{2} or @{yesterday}. Prints an error
+     *  message and returns null if there is no such commit. */
+    public static String resolve(String rev) {
+        if (rev.contains("@{")) {
+            try {
+                return Reflog.resolve(rev);
+            } catch (GitletException excp) {
+                System.out.println(excp.getMessage());
                 return null;
             }
         }
+        String head = Refs.get(rev);
+        if (head != null) {
+            return head;
+        } else if (rev.length() == Utils.UID_LENGTH) {
+            if (hasCommit(rev)) {
+                return rev;
+            }
+            System.out.println("No commit with that id exists.");
+            return null;
+        } else {
+            return sha1(rev);
+        }
+    }
+
+    /** If there is exactly one commit currently in the repo
+     *  whose SHA-1 code begins with SHA1PREFIX, returns that
+     *  SHA-1 code. Else, prints error message and returns
+     *  null. */
+    public static String sha1(String sha1Prefix) {
+        List<String> matches = objects().list(Kind.COMMIT, sha1Prefix);
+        if (matches.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        } else if (matches.size() > 1) {
+            System.out.println("Prefix does not identify a unique commit.");
+            return null;
+        }
+        return matches.get(0);
     }
 
     /** File representing the .gitlet directory. */
     static final File GITLET = new File(".gitlet");
 
+    /** The .gitlet directory holding the objects and branches: GITLET
+     *  itself, or the main repository's in a linked worktree. */
+    static final File COMMON = Worktree.commonDir(GITLET);
+
+    /** Directory, within the branches, of branches from bundles. */
+    static final String BUNDLE_PREFIX = "bundle";
+
+    /** Number of digits of commit ids shown by blame. */
+    static final int BLAME_ID_LENGTH = 8;
+
+    /** Format of dates given to search. */
+    static final String DAY_FORMAT = "yyyy-MM-dd";
+
+    /** Milliseconds in a day. */
+    static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
     /** File representing the blobs directory. */
-    static final File BLOBS = new File(GITLET, "blobs");
+    static final File BLOBS = new File(COMMON, "blobs");
 
     /** File representing the commits directory. */
-    static final File COMMITS = new File(GITLET, "commits");
+    static final File COMMITS = new File(COMMON, "commits");
 
     /** File representing the branches directory. */
-    static final File BRANCHES = new File(GITLET, "branches");
+    static final File BRANCHES = new File(COMMON, "branches");
+
+    /** File representing the staging area. */
+    static final File INDEX = new File(GITLET, "index");
+
+    /** File representing the remotes directory. */
+    static final File REMOTES = new File(COMMON, "remotes");
 
-    /** File representing the staged directory. */
-    static final File STAGED = new File(GITLET, "staged");
+    /** File naming the promisor of a partial repository. */
+    static final File PROMISOR = new File(COMMON, "promisor");
 
-    /** File representing the removed directory. */
-    static final File REMOVED = new File(GITLET, "removed");
+    /** File listing the boundary commits of a shallow repository. */
+    static final File SHALLOW = new File(COMMON, "shallow");
 
     /** File representing the head pointer. */
     static final File HEAD = new File(GITLET, "head");
 
+    /** Directory of packs of objects, as written by fast-import. */
+    static final File PACKS = new File(COMMON, "packs");
+
+    /** Suffix of the names of packs in PACKS. */
+    static final String PACK_SUFFIX = ".pack";
+
+    /** Environment variable choosing the checkout mode. */
+    static final String CHECKOUT_ENV_VAR = "GITLET_CHECKOUT";
+
+    /** Bound on the memory holding recently used objects, in bytes. */
+    static final long OBJECT_CACHE_BYTES = 32L << 20;
+
+    /** The object store, or null until it is first used. */
+    private static ObjectStore _objects;
+
+    /** The object stores of other repositories, keyed by the absolute
+     *  paths of their .gitlet directories. */
+    private static final HashMap<String, ObjectStore> _otherObjects =
+        new HashMap<>();
+
+    /** The object store of the repository a thread is working on, if
+     *  it is not the one in the current directory. */
+    private static final ThreadLocal<ObjectStore> _threadObjects =
+        new ThreadLocal<>();
+
 }
@@ -0,0 +1,46 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/** An object store held entirely in memory, for tests and benchmarks
+ *  that should not touch the disk.
+ *  @author Ed Scerbo
+ */
+class MemoryObjectStore implements ObjectStore {
+
+    /** An empty store. */
+    MemoryObjectStore() {
+        for (Kind kind : Kind.values()) {
+            _objects.put(kind, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    @Override
+    public boolean contains(Kind kind, String sha1) {
+        return _objects.get(kind).containsKey(sha1);
+    }
+
+    @Override
+    public byte[] get(Kind kind, String sha1) {
+        return _objects.get(kind).get(sha1);
+    }
+
+    @Override
+    public void put(Kind kind, String sha1, byte[] contents) {
+        _objects.get(kind).putIfAbsent(sha1, contents);
+    }
+
+    @Override
+    public List<String> list(Kind kind, String prefix) {
+        return new ArrayList<>(_objects.get(kind)
+                .subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+    }
+
+    /** The objects of each kind, keyed by id. */
+    private final EnumMap<Kind, ConcurrentSkipListMap<String, byte[]>>
+        _objects = new EnumMap<>(Kind.class);
+
+}
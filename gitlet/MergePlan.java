@@ -0,0 +1,341 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A three-way merge plan. Every file name in the union of the split
+ *  point, current and merge trees is classified up front, purely from
+ *  the three tracked maps, and the resulting blob I/O is then carried
+ *  out on a pool of worker threads. The staging area is updated in
+ *  memory and written by the caller once the plan has run.
+ *
+ *  Files renamed on one side and modified on the other are followed
+ *  to their new names, so the modification lands on the renamed file
+ *  instead of showing up as a modify/delete conflict.
+ *  @author Ed Scerbo
+ */
+class MergePlan {
+
+    /** What a merge does with a single file. */
+    enum Action {
+        /** Leave the current version alone. */
+        KEEP,
+        /** Check out and stage a new version of the file. */
+        UPDATE,
+        /** Remove the file and mark it for removal. */
+        REMOVE,
+        /** Write and stage a conflict file. */
+        CONFLICT
+    }
+
+    /** The planned change to a single file. */
+    static class Step {
+        /** A step performing ACTION with the current branch's version
+         *  OURS and the other version THEIRS, either of which may be
+         *  null. UPDATE checks out THEIRS. */
+        Step(Action action, String ours, String theirs) {
+            _action = action;
+            _ours = ours;
+            _theirs = theirs;
+        }
+
+        /** Returns the action taken. */
+        Action action() {
+            return _action;
+        }
+
+        /** Returns the SHA-1 of the current branch's version, or null. */
+        String ours() {
+            return _ours;
+        }
+
+        /** Returns the SHA-1 of the incoming version, or null. */
+        String theirs() {
+            return _theirs;
+        }
+
+        /** The action taken. */
+        private final Action _action;
+        /** The current branch's version. */
+        private final String _ours;
+        /** The incoming version. */
+        private final String _theirs;
+    }
+
+    /** A plan for merging MERGETRACKED into CURRENTTRACKED, whose
+     *  common ancestor tracks SPLITTRACKED. */
+    MergePlan(HashMap<String, String> splitTracked,
+              HashMap<String, String> currentTracked,
+              HashMap<String, String> mergeTracked) {
+        TreeSet<String> fileNames = new TreeSet<>();
+        fileNames.addAll(splitTracked.keySet());
+        fileNames.addAll(currentTracked.keySet());
+        fileNames.addAll(mergeTracked.keySet());
+        for (String fileName : fileNames) {
+            String current = currentTracked.get(fileName);
+            String merge = mergeTracked.get(fileName);
+            Action action = classify(splitTracked.get(fileName),
+                    current, merge);
+            if (action != Action.KEEP) {
+                _steps.put(fileName, new Step(action, current, merge));
+            }
+        }
+        followRenames(splitTracked, currentTracked, mergeTracked);
+    }
+
+    /** Returns the action for the file whose SHA-1 codes in the split
+     *  point, current and merge commits are SPLIT, CURRENT and MERGE,
+     *  any of which may be null if the file is untracked there. */
+    static Action classify(String split, String current, String merge) {
+        if (Main.equals(split, current) && !Main.equals(split, merge)
+                && merge != null) {
+            return Action.UPDATE;
+        } else if (Main.equals(split, current) && merge == null) {
+            return current == null ? Action.KEEP : Action.REMOVE;
+        } else if (!Main.equals(split, merge)
+                && !Main.equals(current, merge)) {
+            return Action.CONFLICT;
+        } else {
+            return Action.KEEP;
+        }
+    }
+
+    /** Replans files renamed between SPLIT and one of CURRENT and MERGE
+     *  and modified in the other. */
+    private void followRenames(HashMap<String, String> split,
+                               HashMap<String, String> current,
+                               HashMap<String, String> merge) {
+        if (deletesFrom(split, merge)) {
+            followTheirRenames(split, current, merge);
+        }
+        if (deletesFrom(split, current)) {
+            followOurRenames(split, current, merge);
+        }
+    }
+
+    /** Returns true iff some file tracked in SPLIT is not tracked in
+     *  SIDE, so that SIDE may have renamed it. */
+    private static boolean deletesFrom(HashMap<String, String> split,
+                                       HashMap<String, String> side) {
+        for (String fileName : split.keySet()) {
+            if (!side.containsKey(fileName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Replans files renamed between SPLIT and MERGE and modified
+     *  between SPLIT and CURRENT. */
+    private void followTheirRenames(HashMap<String, String> split,
+                                    HashMap<String, String> current,
+                                    HashMap<String, String> merge) {
+        for (Renames.Pair pair : Renames.detect(split, merge, false)) {
+            String from = pair.from();
+            String to = pair.to();
+            String ours = current.get(from);
+            if (ours == null || current.containsKey(to)
+                    || ours.equals(split.get(from))) {
+                continue;
+            }
+            _steps.put(from, new Step(Action.REMOVE, ours, null));
+            String theirs = merge.get(to);
+            if (theirs.equals(split.get(from)) || theirs.equals(ours)) {
+                _steps.put(to, new Step(Action.UPDATE, null, ours));
+            } else {
+                _steps.put(to, new Step(Action.CONFLICT, ours, theirs));
+            }
+        }
+    }
+
+    /** Replans files renamed between SPLIT and CURRENT and modified
+     *  between SPLIT and MERGE. */
+    private void followOurRenames(HashMap<String, String> split,
+                                  HashMap<String, String> current,
+                                  HashMap<String, String> merge) {
+        for (Renames.Pair pair : Renames.detect(split, current, false)) {
+            String from = pair.from();
+            String to = pair.to();
+            String theirs = merge.get(from);
+            if (theirs == null || merge.containsKey(to)
+                    || theirs.equals(split.get(from))) {
+                continue;
+            }
+            _steps.remove(from);
+            String ours = current.get(to);
+            if (ours.equals(split.get(from))) {
+                _steps.put(to, new Step(Action.UPDATE, ours, theirs));
+            } else if (!ours.equals(theirs)) {
+                _steps.put(to, new Step(Action.CONFLICT, ours, theirs));
+            }
+        }
+    }
+
+    /** Returns the files the merge changes, paired with their planned
+     *  steps, in file name order. */
+    TreeMap<String, Step> steps() {
+        return _steps;
+    }
+
+    /** Returns true iff carrying out this plan causes a conflict. */
+    boolean hasConflicts() {
+        for (Step step : _steps.values()) {
+            if (step.action() == Action.CONFLICT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the contents of the conflict file for STEP. */
+    static byte[] conflictContents(Step step) {
+        byte[] current = step.ours() == null
+                ? new byte[0] : Main.readBlob(step.ours());
+        byte[] merge = step.theirs() == null
+                ? new byte[0] : Main.readBlob(step.theirs());
+        byte[] head = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+        byte[] middle = "=======\n".getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[head.length + current.length
+                + middle.length + merge.length + tail.length];
+        int pos = 0;
+        for (byte[] part : new byte[][] {head, current, middle, merge, tail}) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+
+    /** Returns the files tracked by the merge result, given that the
+     *  current branch tracks CURRENTTRACKED. Works only on the tracked
+     *  maps and the object store: conflict files are stored as blobs,
+     *  and nothing in the working directory is touched. */
+    HashMap<String, String> result(HashMap<String, String> currentTracked) {
+        HashMap<String, String> result = new HashMap<>(currentTracked);
+        for (String fileName : _steps.keySet()) {
+            Step step = _steps.get(fileName);
+            switch (step.action()) {
+            case UPDATE:
+                result.put(fileName, step.theirs());
+                break;
+            case REMOVE:
+                result.remove(fileName);
+                break;
+            case CONFLICT:
+                byte[] conflict = conflictContents(step);
+                String conflictSha1 = Utils.sha1(conflict);
+                Main.writeBlob(conflictSha1, conflict);
+                result.put(fileName, conflictSha1);
+                break;
+            default:
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Carries out the plan in the working directory, recording the
+     *  results in INDEX. Files are handed out to the workers in batches
+     *  of BATCH_SIZE. */
+    void execute(final Index index) {
+        long start = Trace.begin();
+        try {
+            executeHelper(index);
+        } finally {
+            Trace.end("MergePlan.execute", start);
+        }
+    }
+
+    /** Does the work of execute for INDEX. */
+    private void executeHelper(final Index index) {
+        List<String> fileNames = new ArrayList<>(_steps.keySet());
+        List<String> blobs = new ArrayList<>();
+        for (Step step : _steps.values()) {
+            if (step.ours() != null) {
+                blobs.add(step.ours());
+            }
+            if (step.theirs() != null) {
+                blobs.add(step.theirs());
+            }
+        }
+        Promisor.fetchBlobs(blobs);
+        if (fileNames.size() <= BATCH_SIZE) {
+            apply(fileNames, index);
+            return;
+        }
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(),
+                (fileNames.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < fileNames.size(); i += BATCH_SIZE) {
+                final List<String> batch = fileNames.subList(i,
+                        Math.min(i + BATCH_SIZE, fileNames.size()));
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        apply(batch, index);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw Utils.error("Merge failed: %s", excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Applies the planned steps for each of FILENAMES, recording
+     *  the results in INDEX. */
+    private void apply(List<String> fileNames, Index index) {
+        Sparse sparse = Sparse.read();
+        for (String fileName : fileNames) {
+            File workingDirFile = new File(fileName);
+            Step step = _steps.get(fileName);
+            switch (step.action()) {
+            case UPDATE:
+                if (!sparse.includes(fileName)) {
+                    index.stage(fileName, step.theirs());
+                    break;
+                }
+                Main.checkoutBlob(step.theirs(), workingDirFile);
+                index.stage(fileName, step.theirs(), workingDirFile);
+                break;
+            case REMOVE:
+                index.remove(fileName);
+                Utils.restrictedDelete(workingDirFile);
+                break;
+            case CONFLICT:
+                byte[] conflict = conflictContents(step);
+                String conflictSha1 = Utils.sha1(conflict);
+                Main.writeBlob(conflictSha1, conflict);
+                Main.writeWorkingFile(workingDirFile, conflict);
+                index.stage(fileName, conflictSha1, workingDirFile);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /** Number of files handed to a worker at a time. */
+    static final int BATCH_SIZE = 64;
+
+    /** The files changed by the merge, paired with their steps. */
+    private final TreeMap<String, Step> _steps = new TreeMap<>();
+
+}
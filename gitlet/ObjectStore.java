@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Storage for blobs and commits, each named by the SHA-1 of its
+ *  contents. Main reaches every object of this repository through one
+ *  of these; see Main.objects.
+ *
+ *  Implementations are LooseObjectStore, the usual one file per object
+ *  under .gitlet, PackObjectStore, all objects appended to a single
+ *  file, MemoryObjectStore, for tests and benchmarks, and
+ *  CachingObjectStore, which keeps recently used objects of another
+ *  store in memory. All of them may be used from several threads.
+ *  @author Ed Scerbo
+ */
+interface ObjectStore {
+
+    /** The kinds of object. */
+    enum Kind {
+        /** The contents of a file. */
+        BLOB("blobs", Pack.BLOB),
+        /** A serialized commit. */
+        COMMIT("commits", Pack.COMMIT);
+
+        /** A kind stored in the subdirectory DIRECTORY of .gitlet, and
+         *  marked CODE in packs. */
+        Kind(String directory, byte code) {
+            _directory = directory;
+            _code = code;
+        }
+
+        /** Returns the subdirectory of .gitlet holding loose objects of
+         *  this kind. */
+        String directory() {
+            return _directory;
+        }
+
+        /** Returns the type code of this kind in packs. */
+        byte code() {
+            return _code;
+        }
+
+        /** Returns the kind whose type code is CODE, or null if there is
+         *  none. */
+        static Kind of(int code) {
+            for (Kind kind : values()) {
+                if (kind._code == code) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+
+        /** The loose-object directory. */
+        private final String _directory;
+        /** The type code. */
+        private final byte _code;
+    }
+
+    /** Returns true iff the object of the given KIND and SHA1 is
+     *  stored. */
+    boolean contains(Kind kind, String sha1);
+
+    /** Returns the contents of the object of the given KIND and SHA1, or
+     *  null if it is not stored. */
+    byte[] get(Kind kind, String sha1);
+
+    /** Stores CONTENTS as the object of the given KIND and SHA1, unless
+     *  it is already stored. */
+    void put(Kind kind, String sha1, byte[] contents);
+
+    /** Returns the ids of the stored objects of the given KIND that
+     *  start with PREFIX, in order. */
+    List<String> list(Kind kind, String prefix);
+
+    /** Returns the file holding exactly the contents of the object of
+     *  the given KIND and SHA1, or null if it is not stored or this
+     *  store does not keep objects in files of their own. The file must
+     *  not be written to. */
+    default File file(Kind kind, String sha1) {
+        return null;
+    }
+
+    /** Returns a stream of the contents of the object of the given KIND
+     *  and SHA1, or null if it is not stored. The caller closes it. */
+    default InputStream open(Kind kind, String sha1) {
+        byte[] contents = get(kind, sha1);
+        return contents == null ? null : new ByteArrayInputStream(contents);
+    }
+
+    /** Returns those of the objects of the given KIND and ids SHA1S that
+     *  are not stored. */
+    default List<String> missing(Kind kind, Collection<String> sha1s) {
+        List<String> result = new ArrayList<>();
+        for (String sha1 : sha1s) {
+            if (!contains(kind, sha1)) {
+                result.add(sha1);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of those of the objects of the given KIND and
+     *  ids SHA1S that are stored, keyed by id, in the order of SHA1S.
+     *  By default each object is read on its own; PackObjectStore reads
+     *  them in file order, adjacent ones together. */
+    default Map<String, byte[]> getAll(Kind kind, Collection<String> sha1s) {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (String sha1 : sha1s) {
+            byte[] contents = get(kind, sha1);
+            if (contents != null) {
+                result.put(sha1, contents);
+            }
+        }
+        return result;
+    }
+
+    /** Stores each of OBJECTS, contents keyed by id, as an object of the
+     *  given KIND. By default each object is stored on its own;
+     *  PackObjectStore appends them all in one write. */
+    default void putAll(Kind kind, Map<String, byte[]> objects) {
+        for (Map.Entry<String, byte[]> object : objects.entrySet()) {
+            put(kind, object.getKey(), object.getValue());
+        }
+    }
+
+}
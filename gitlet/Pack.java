@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** A pack: many objects streamed one after another through a single
+ *  compressed file, used to move objects between repositories without
+ *  copying each loose file separately.
+ *
+ *  After decompression a pack consists of the magic number "GLPK", a
+ *  version number and an object count, then for each object its type,
+ *  its 20-byte SHA-1, its length and its contents, and finally the
+ *  SHA-1 of everything before it.
+ *  @author Ed Scerbo
+ */
+class Pack {
+
+    /** Writes a pack to FILE holding the blobs BLOBS followed by the
+     *  commits COMMITS, all read from the .gitlet directory SOURCE.
+     *  Blobs come first so that a commit is never stored before the
+     *  blobs it tracks. */
+    static void write(File file, File source, List<String> commits,
+                      List<String> blobs) {
+        ObjectStore objects = Main.objects(source);
+        MessageDigest md = sha1Digest();
+        try (DigestOutputStream digest = new DigestOutputStream(
+                new DeflaterOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file))), md);
+             DataOutputStream out = new DataOutputStream(digest)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(commits.size() + blobs.size());
+            for (String sha1 : blobs) {
+                writeObject(out, BLOB, sha1,
+                        objects.get(ObjectStore.Kind.BLOB, sha1));
+            }
+            for (String sha1 : commits) {
+                writeObject(out, COMMIT, sha1,
+                        objects.get(ObjectStore.Kind.COMMIT, sha1));
+            }
+            byte[] trailer = md.digest();
+            digest.on(false);
+            out.write(trailer);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the object of the given TYPE, SHA1 and CONTENTS to OUT. */
+    private static void writeObject(DataOutputStream out, byte type,
+                                    String sha1, byte[] contents)
+        throws IOException {
+        out.writeByte(type);
+        out.write(Index.toBytes(sha1));
+        out.writeInt(contents.length);
+        out.write(contents);
+    }
+
+    /** Reads the pack in FILE, checking each object against its SHA-1,
+     *  accepting commits in the older form that embeds their own id as
+     *  Fsck.matches does, and the pack against its trailer, and stores
+     *  every object it holds that is missing from the .gitlet directory
+     *  TARGET. Returns the number of objects stored. */
+    static int unpack(File file, File target) {
+        MessageDigest md = sha1Digest();
+        try (DigestInputStream digest = new DigestInputStream(
+                new InflaterInputStream(new BufferedInputStream(
+                        new FileInputStream(file))), md);
+             DataInputStream in = new DataInputStream(digest)) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                throw Utils.error("Corrupt pack.");
+            }
+            int count = in.readInt();
+            int stored = 0;
+            for (int i = 0; i < count; i += 1) {
+                byte type = in.readByte();
+                byte[] id = new byte[Utils.UID_LENGTH / 2];
+                in.readFully(id);
+                byte[] contents = new byte[in.readInt()];
+                in.readFully(contents);
+                String sha1 = Index.toHex(id);
+                ObjectStore.Kind kind = ObjectStore.Kind.of(type);
+                if (kind == null || !Fsck.matches(contents, sha1,
+                        kind == ObjectStore.Kind.COMMIT)) {
+                    throw Utils.error("Corrupt object %s in pack.", sha1);
+                }
+                ObjectStore store = Main.objects(target);
+                if (!store.contains(kind, sha1)) {
+                    store.put(kind, sha1, contents);
+                    Trace.count(Trace.Counter.OBJECTS_WRITTEN, 1);
+                    stored += 1;
+                }
+            }
+            byte[] expected = md.digest();
+            digest.on(false);
+            byte[] trailer = new byte[expected.length];
+            in.readFully(trailer);
+            if (!Arrays.equals(trailer, expected)) {
+                throw Utils.error("Corrupt pack.");
+            }
+            return stored;
+        } catch (EOFException excp) {
+            throw Utils.error("Truncated pack.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a fresh SHA-1 message digest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Type of a commit object. */
+    static final byte COMMIT = 1;
+
+    /** Type of a blob object. */
+    static final byte BLOB = 2;
+
+    /** Magic number at the start of a pack. */
+    private static final byte[] MAGIC =
+        "GLPK".getBytes(StandardCharsets.UTF_8);
+
+    /** Version of the pack format. */
+    private static final int VERSION = 1;
+
+}
@@ -0,0 +1,552 @@
+package gitlet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** An object store keeping every object in one uncompressed file,
+ *  appended to as objects are added and read in place.
+ *
+ *  The file holds the magic number "GLPS" and a version number, then for
+ *  each object its type, its 20-byte SHA-1, its length and its contents,
+ *  the same records as a Pack without the compression. Reads are
+ *  positional, so any number of threads may read at once.
+ *
+ *  A store is opened either for writing, by the one command creating
+ *  the file, or for reading only. A writer keeps the index of its
+ *  objects in memory and, when closed, writes it sorted to an index
+ *  file: the magic number "GLPI", a version number, the length of the
+ *  pack it covers and the number of objects of each kind, then for each
+ *  kind in turn each object's 20-byte SHA-1, offset and length, in
+ *  order of id. A reader maps that file and searches it in place, so
+ *  opening a pack of any size costs a few system calls. A reader of a
+ *  pack with no index, or one not matching its length, reads the record
+ *  headers instead, and ignores, but never truncates, a torn record at
+ *  the end.
+ *  @author Ed Scerbo
+ */
+class PackObjectStore implements ObjectStore, Closeable {
+
+    /** The store held in FILE, opened for reading only. Its index is
+     *  read from indexFile(FILE) if that matches it. */
+    PackObjectStore(File file) {
+        _indexFile = null;
+        try {
+            _channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ);
+            checkHeader();
+            _end = _channel.size();
+            if (!mapIndex(indexFile(file))) {
+                _index = new EnumMap<>(Kind.class);
+                for (Kind kind : Kind.values()) {
+                    _index.put(kind, new TreeMap<>());
+                }
+                _end = readIndex();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The store held in FILE, which is created if it does not exist,
+     *  opened for writing. A torn record at its end is cut off. Closing
+     *  the store writes its index to INDEX. */
+    PackObjectStore(File file, File index) {
+        _indexFile = index;
+        _index = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            _index.put(kind, new TreeMap<>());
+        }
+        try {
+            _channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            if (_channel.size() < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.put(MAGIC).putInt(VERSION).flip();
+                _channel.truncate(0);
+                _channel.write(header, 0);
+                _end = HEADER_SIZE;
+            } else {
+                checkHeader();
+                _end = readIndex();
+                if (_end < _channel.size()) {
+                    _channel.truncate(_end);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the index file of the pack FILE. */
+    static File indexFile(File file) {
+        String name = file.getName();
+        if (name.endsWith(Main.PACK_SUFFIX)) {
+            name = name.substring(0, name.length()
+                    - Main.PACK_SUFFIX.length());
+        }
+        return new File(file.getParentFile(), name + INDEX_SUFFIX);
+    }
+
+    @Override
+    public boolean contains(Kind kind, String sha1) {
+        return locate(kind, sha1) != null;
+    }
+
+    @Override
+    public byte[] get(Kind kind, String sha1) {
+        long[] where = locate(kind, sha1);
+        if (where == null) {
+            return null;
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) where[1]);
+        try {
+            readFully(contents, where[0]);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return contents.array();
+    }
+
+    @Override
+    public InputStream open(Kind kind, String sha1) {
+        long[] where = locate(kind, sha1);
+        if (where == null) {
+            return null;
+        }
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len)
+                throws IOException {
+                if (_left == 0) {
+                    return -1;
+                }
+                ByteBuffer dest = ByteBuffer.wrap(buf, off,
+                        (int) Math.min(len, _left));
+                int n = _channel.read(dest, _pos);
+                if (n > 0) {
+                    _pos += n;
+                    _left -= n;
+                }
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(_left, Integer.MAX_VALUE);
+            }
+
+            /** Position of the next byte in the file. */
+            private long _pos = where[0];
+            /** Bytes left to read. */
+            private long _left = where[1];
+        };
+    }
+
+    /** Returns the contents of those of the objects of the given KIND and
+     *  ids SHA1S that are stored, keyed by id. The objects are read in
+     *  the order they lie in the file, each run of adjacent ones with a
+     *  single read of at most MAX_RUN bytes. */
+    @Override
+    public Map<String, byte[]> getAll(Kind kind, Collection<String> sha1s) {
+        TreeMap<Long, String> byOffset = new TreeMap<>();
+        HashMap<String, long[]> where = new HashMap<>();
+        for (String sha1 : sha1s) {
+            long[] location = locate(kind, sha1);
+            if (location != null) {
+                byOffset.put(location[0], sha1);
+                where.put(sha1, location);
+            }
+        }
+        HashMap<String, byte[]> found = new HashMap<>();
+        List<String> run = new ArrayList<>();
+        long runStart = 0, runEnd = 0;
+        try {
+            for (String sha1 : byOffset.values()) {
+                long[] location = where.get(sha1);
+                long end = location[0] + location[1];
+                if (!run.isEmpty()
+                    && (location[0] != runEnd + RECORD_HEADER_SIZE
+                        || end - runStart > MAX_RUN)) {
+                    readRun(run, runStart, runEnd, where, found);
+                    run.clear();
+                }
+                if (run.isEmpty()) {
+                    runStart = location[0];
+                }
+                run.add(sha1);
+                runEnd = end;
+            }
+            if (!run.isEmpty()) {
+                readRun(run, runStart, runEnd, where, found);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (String sha1 : sha1s) {
+            if (found.containsKey(sha1)) {
+                result.put(sha1, found.get(sha1));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void put(Kind kind, String sha1, byte[] contents) {
+        putAll(kind, Map.of(sha1, contents));
+    }
+
+    /** Stores each of OBJECTS, contents keyed by id, as an object of the
+     *  given KIND, appending them all to the file in one write. */
+    @Override
+    public synchronized void putAll(Kind kind, Map<String, byte[]> objects) {
+        checkWritable();
+        int size = 0;
+        for (Map.Entry<String, byte[]> object : objects.entrySet()) {
+            if (!contains(kind, object.getKey())) {
+                size += RECORD_HEADER_SIZE + object.getValue().length;
+            }
+        }
+        ByteBuffer batch = ByteBuffer.allocate(size);
+        long pos = _end;
+        for (Map.Entry<String, byte[]> object : objects.entrySet()) {
+            byte[] contents = object.getValue();
+            if (contains(kind, object.getKey())) {
+                continue;
+            }
+            batch.put(kind.code()).put(Index.toBytes(object.getKey()))
+                .putInt(contents.length).put(contents);
+            _index.get(kind).put(object.getKey(), new long[] {
+                pos + RECORD_HEADER_SIZE, contents.length });
+            pos += RECORD_HEADER_SIZE + contents.length;
+        }
+        batch.flip();
+        try {
+            for (long at = _end; batch.hasRemaining(); ) {
+                at += _channel.write(batch, at);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _end = pos;
+    }
+
+    @Override
+    public synchronized List<String> list(Kind kind, String prefix) {
+        if (_mapped == null) {
+            return new ArrayList<>(_index.get(kind)
+                    .subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = lowerBound(kind, prefix); i < _counts.get(kind);
+             i += 1) {
+            String sha1 = idAt(kind, i);
+            if (!sha1.startsWith(prefix)) {
+                break;
+            }
+            result.add(sha1);
+        }
+        return result;
+    }
+
+    /** Forces every object added so far to disk. */
+    void sync() {
+        try {
+            _channel.force(false);
+            Trace.count(Trace.Counter.FSYNCS, 1);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Closes the file. A store opened for writing first syncs it and
+     *  writes its index. */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (_indexFile != null && _channel.isOpen()) {
+                sync();
+                writeIndex();
+            }
+        } finally {
+            _channel.close();
+        }
+    }
+
+    /** Returns the offset and length of the object of the given KIND and
+     *  SHA1, or null if it is not stored. */
+    private synchronized long[] locate(Kind kind, String sha1) {
+        if (_mapped == null) {
+            return _index.get(kind).get(sha1);
+        }
+        int i = lowerBound(kind, sha1);
+        if (i == _counts.get(kind) || !idAt(kind, i).equals(sha1)) {
+            return null;
+        }
+        int at = entry(kind, i) + Utils.UID_LENGTH / 2;
+        return new long[] { _mapped.getLong(at), _mapped.getInt(at + 8) };
+    }
+
+    /** Returns the position in the mapped index of the first object of
+     *  the given KIND whose id is not less than SHA1. */
+    private int lowerBound(Kind kind, String sha1) {
+        int lo = 0, hi = _counts.get(kind);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idAt(kind, mid).compareTo(sha1) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the id of the Ith object of the given KIND in the mapped
+     *  index. */
+    private String idAt(Kind kind, int i) {
+        byte[] id = new byte[Utils.UID_LENGTH / 2];
+        _mapped.get(entry(kind, i), id);
+        return Index.toHex(id);
+    }
+
+    /** Returns the offset in the mapped index of the Ith entry of the
+     *  given KIND. */
+    private int entry(Kind kind, int i) {
+        return _starts.get(kind) + i * INDEX_ENTRY_SIZE;
+    }
+
+    /** Maps the index file INDEX, if it exists and covers this pack.
+     *  Returns true iff it does. */
+    private boolean mapIndex(File index) throws IOException {
+        if (!index.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(index.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            int header = INDEX_MAGIC.length + Integer.BYTES + Long.BYTES
+                + Kind.values().length * Integer.BYTES;
+            if (size < header || size > Integer.MAX_VALUE) {
+                return false;
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, size);
+            byte[] magic = new byte[INDEX_MAGIC.length];
+            mapped.get(magic);
+            if (!Arrays.equals(magic, INDEX_MAGIC)
+                || mapped.getInt() != VERSION
+                || mapped.getLong() != _channel.size()) {
+                return false;
+            }
+            EnumMap<Kind, Integer> counts = new EnumMap<>(Kind.class);
+            EnumMap<Kind, Integer> starts = new EnumMap<>(Kind.class);
+            long at = header;
+            for (Kind kind : Kind.values()) {
+                int count = mapped.getInt();
+                counts.put(kind, count);
+                starts.put(kind, (int) at);
+                at += (long) count * INDEX_ENTRY_SIZE;
+            }
+            if (at != size) {
+                return false;
+            }
+            _mapped = mapped;
+            _counts = counts;
+            _starts = starts;
+            return true;
+        }
+    }
+
+    /** Writes the index of this store, sorted, to its index file, by
+     *  an atomic rename once it is synced. */
+    private void writeIndex() throws IOException {
+        int count = 0;
+        for (TreeMap<String, long[]> objects : _index.values()) {
+            count += objects.size();
+        }
+        ByteBuffer index = ByteBuffer.allocate(INDEX_MAGIC.length
+                + Integer.BYTES + Long.BYTES
+                + Kind.values().length * Integer.BYTES
+                + count * INDEX_ENTRY_SIZE);
+        index.put(INDEX_MAGIC).putInt(VERSION).putLong(_end);
+        for (Kind kind : Kind.values()) {
+            index.putInt(_index.get(kind).size());
+        }
+        for (Kind kind : Kind.values()) {
+            for (Map.Entry<String, long[]> object
+                     : _index.get(kind).entrySet()) {
+                index.put(Index.toBytes(object.getKey()))
+                    .putLong(object.getValue()[0])
+                    .putInt((int) object.getValue()[1]);
+            }
+        }
+        index.flip();
+        File temp = new File(_indexFile.getPath() + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (index.hasRemaining()) {
+                channel.write(index);
+            }
+            channel.force(false);
+            Trace.count(Trace.Counter.FSYNCS, 1);
+        }
+        Files.move(temp.toPath(), _indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Checks the magic number and version at the start of the file. */
+    private void checkHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (_channel.size() < HEADER_SIZE) {
+            throw Utils.error("Not an object pack.");
+        }
+        readFully(header, 0);
+        if (!Arrays.equals(Arrays.copyOf(header.array(), MAGIC.length),
+                           MAGIC)
+            || header.getInt(MAGIC.length) != VERSION) {
+            throw Utils.error("Not an object pack.");
+        }
+    }
+
+    /** Fills the in-memory index from the record headers in the file.
+     *  Returns the offset of the end of the last complete record. */
+    private long readIndex() throws IOException {
+        long size = _channel.size();
+        long pos = HEADER_SIZE;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        byte[] id = new byte[Utils.UID_LENGTH / 2];
+        while (pos + RECORD_HEADER_SIZE <= size) {
+            record.clear();
+            readFully(record, pos);
+            record.flip();
+            Kind kind = Kind.of(record.get());
+            record.get(id);
+            int length = record.getInt();
+            if (kind == null || length < 0
+                || pos + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            _index.get(kind).put(Index.toHex(id), new long[] {
+                pos + RECORD_HEADER_SIZE, length });
+            pos += RECORD_HEADER_SIZE + length;
+        }
+        return pos;
+    }
+
+    /** Reads the bytes from START to END of the file in one go, and
+     *  puts into FOUND the contents of each of the objects RUN lying
+     *  there, whose offsets and lengths are in WHERE. */
+    private void readRun(List<String> run, long start, long end,
+                         Map<String, long[]> where, Map<String, byte[]> found)
+        throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+        readFully(buf, start);
+        for (String sha1 : run) {
+            long[] location = where.get(sha1);
+            int from = (int) (location[0] - start);
+            found.put(sha1, Arrays.copyOfRange(buf.array(), from,
+                    from + (int) location[1]));
+        }
+    }
+
+    /** Fills BUF from the file, starting at POS. */
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = _channel.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("Object pack truncated.");
+            }
+            pos += n;
+        }
+    }
+
+    /** Throws if this store was opened for reading only. */
+    private void checkWritable() {
+        if (_indexFile == null) {
+            throw new IllegalStateException("object pack is read-only");
+        }
+    }
+
+    /** Magic number at the start of the file. */
+    private static final byte[] MAGIC =
+        "GLPS".getBytes(StandardCharsets.UTF_8);
+
+    /** Magic number at the start of an index file. */
+    private static final byte[] INDEX_MAGIC =
+        "GLPI".getBytes(StandardCharsets.UTF_8);
+
+    /** Version of the file formats. */
+    private static final int VERSION = 1;
+
+    /** Size of the file header. */
+    private static final int HEADER_SIZE = MAGIC.length + Integer.BYTES;
+
+    /** Size of a record header: type, id and length. */
+    private static final int RECORD_HEADER_SIZE =
+        1 + Utils.UID_LENGTH / 2 + Integer.BYTES;
+
+    /** Size of an index entry: id, offset and length. */
+    private static final int INDEX_ENTRY_SIZE =
+        Utils.UID_LENGTH / 2 + Long.BYTES + Integer.BYTES;
+
+    /** Most bytes getAll reads at once. */
+    private static final int MAX_RUN = 1 << 20;
+
+    /** Suffix of index file names. */
+    static final String INDEX_SUFFIX = ".idx";
+
+    /** Suffix of the temporary file an index is written to. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** The file. */
+    private final FileChannel _channel;
+
+    /** The file the index is written to on closing, or null if this
+     *  store is read-only. */
+    private final File _indexFile;
+
+    /** Offset of the end of the last complete record. */
+    private long _end;
+
+    /** The offset and length of the contents of each object of each
+     *  kind, keyed by id, or null if the index file is mapped. */
+    private EnumMap<Kind, TreeMap<String, long[]>> _index;
+
+    /** The mapped index file, or null. */
+    private ByteBuffer _mapped;
+
+    /** The number of objects of each kind in the mapped index. */
+    private EnumMap<Kind, Integer> _counts;
+
+    /** The offset of the first entry of each kind in the mapped
+     *  index. */
+    private EnumMap<Kind, Integer> _starts;
+
+}
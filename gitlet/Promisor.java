@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/** Support for shallow, partial repositories. Such a repository names
+ *  a promisor: another .gitlet directory that holds the commits and
+ *  blobs it chose not to copy. Objects missing locally are fetched
+ *  from the promisor on demand, in batches. The commits whose parents
+ *  were left behind are listed in the shallow file, and history walks
+ *  such as log stop there rather than fetching more.
+ *  @author Ed Scerbo
+ */
+class Promisor {
+
+    /** Returns the promisor's .gitlet directory, or null if this
+     *  repository has none. */
+    static File source() {
+        if (!Main.PROMISOR.isFile()) {
+            return null;
+        }
+        return new File(Utils.readContentsAsString(Main.PROMISOR).trim());
+    }
+
+    /** Records the .gitlet directory SOURCE as the promisor. */
+    static void setSource(File source) {
+        Utils.writeContents(Main.PROMISOR, source.getAbsolutePath());
+    }
+
+    /** Returns true iff the promisor has the commit with the given
+     *  SHA1. */
+    static boolean hasCommit(String sha1) {
+        File source = source();
+        return source != null
+                && Main.objects(source).contains(ObjectStore.Kind.COMMIT,
+                                                 sha1);
+    }
+
+    /** Fetches the commit with the given SHA1 from the promisor, along
+     *  with as many of its missing ancestors as fit in one batch of
+     *  BATCH_SIZE commits. Returns false if the promisor does not have
+     *  it. */
+    static boolean fetchCommit(String sha1) {
+        if (!hasCommit(sha1)) {
+            return false;
+        }
+        copyHistory(source(), Collections.singleton(sha1),
+                BATCH_SIZE, false);
+        return true;
+    }
+
+    /** Copies commits reachable from TIPS in the .gitlet directory
+     *  SOURCE, stopping after LIMIT commits (no limit if LIMIT is 0),
+     *  or, if BYDEPTH, after LIMIT generations. Commits already present
+     *  are not copied, and neither are their ancestors. Commits whose
+     *  parents were left behind are added to the shallow list. */
+    static void copyHistory(File source, Collection<String> tips,
+                            int limit, boolean byDepth) {
+        ObjectStore local = Main.objects();
+        TreeSet<String> shallow = shallowCommits();
+        HashMap<String, Integer> depth = new HashMap<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        for (String tip : tips) {
+            depth.put(tip, 1);
+            queue.add(tip);
+        }
+        int copied = 0;
+        while (!queue.isEmpty()) {
+            String sha1 = queue.poll();
+            if (local.contains(ObjectStore.Kind.COMMIT, sha1)
+                && !shallow.contains(sha1)) {
+                continue;
+            }
+            Commit commit = Main.readCommit(source, sha1);
+            copyObject(source, ObjectStore.Kind.COMMIT, sha1);
+            copied += 1;
+            shallow.remove(sha1);
+            boolean full = limit > 0 && (byDepth
+                    ? depth.get(sha1) >= limit : copied >= limit);
+            for (String parent : parents(commit)) {
+                if (local.contains(ObjectStore.Kind.COMMIT, parent)
+                        || depth.containsKey(parent)) {
+                    continue;
+                } else if (full) {
+                    shallow.add(sha1);
+                } else {
+                    depth.put(parent, depth.get(sha1) + 1);
+                    queue.add(parent);
+                }
+            }
+        }
+        writeShallow(shallow);
+    }
+
+    /** Fetches every blob among SHA1S that is missing locally from the
+     *  promisor in a single pass. */
+    static void fetchBlobs(Collection<String> sha1s) {
+        File source = source();
+        if (source == null) {
+            return;
+        }
+        ObjectStore remote = Main.objects(source);
+        for (String sha1 : sha1s) {
+            if (!Main.objects().contains(ObjectStore.Kind.BLOB, sha1)
+                && remote.contains(ObjectStore.Kind.BLOB, sha1)) {
+                copyObject(source, ObjectStore.Kind.BLOB, sha1);
+            }
+        }
+    }
+
+    /** Returns true iff history walks should stop at the commit with
+     *  the given SHA1 because its parents were left behind. */
+    static boolean isShallow(String sha1) {
+        if (!shallowCommits().contains(sha1)) {
+            return false;
+        }
+        Commit commit = Main.retrieveLocalCommit(sha1);
+        for (String parent : parents(commit)) {
+            if (!Main.objects().contains(ObjectStore.Kind.COMMIT, parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the commits listed in the shallow file. */
+    static TreeSet<String> shallowCommits() {
+        TreeSet<String> result = new TreeSet<>();
+        if (Main.SHALLOW.isFile()) {
+            for (String line
+                     : Utils.readContentsAsString(Main.SHALLOW).split("\n")) {
+                if (!line.isEmpty()) {
+                    result.add(line);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Replaces the shallow file's contents with SHALLOW. */
+    private static void writeShallow(TreeSet<String> shallow) {
+        if (shallow.isEmpty()) {
+            Main.SHALLOW.delete();
+            return;
+        }
+        StringBuilder contents = new StringBuilder();
+        for (String sha1 : shallow) {
+            contents.append(sha1).append("\n");
+        }
+        Utils.writeContents(Main.SHALLOW, contents.toString());
+    }
+
+    /** Returns the parents of COMMIT. */
+    static List<String> parents(Commit commit) {
+        List<String> result = new ArrayList<>();
+        if (commit.getParent() != null) {
+            result.add(commit.getParent());
+        }
+        if (commit.getMergeParent() != null) {
+            result.add(commit.getMergeParent());
+        }
+        return result;
+    }
+
+    /** Copies the object of the given KIND and SHA1 from the .gitlet
+     *  directory SOURCE into this repository. */
+    static void copyObject(File source, ObjectStore.Kind kind,
+                           String sha1) {
+        Main.objects().put(kind, sha1,
+                Main.objects(source).get(kind, sha1));
+    }
+
+    /** Number of commits fetched at once on a miss. */
+    static final int BATCH_SIZE = 32;
+
+}
@@ -0,0 +1,374 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Reference logs: for each branch, and for HEAD, an append-only record
+ *  of every value it has held. Each log is a file of fixed-size binary
+ *  records, oldest first, under .gitlet/logs: the old and new commit
+ *  ids (the old one all zeros if the reference was created), the time
+ *  in milliseconds and the kind of update. Fixed-size records let
+ *  REF@{N} seek straight to its entry and REF@{TIME} binary search by
+ *  time, without reading the rest of the log.
+ *  @author Ed Scerbo
+ */
+class Reflog {
+
+    /** The kinds of reference update. */
+    enum Action {
+        /** The repository was created. */
+        INIT,
+        /** A commit was made. */
+        COMMIT,
+        /** A merge commit was made. */
+        MERGE,
+        /** A branch was fast-forwarded by a merge. */
+        FAST_FORWARD,
+        /** A branch was created. */
+        BRANCH,
+        /** HEAD moved to another branch. */
+        CHECKOUT,
+        /** A branch was reset. */
+        RESET,
+        /** Commits were replayed by rebase. */
+        REBASE,
+        /** A commit was replayed by cherry-pick. */
+        CHERRY_PICK,
+        /** A repository was cloned. */
+        CLONE,
+        /** A remote branch was fetched. */
+        FETCH,
+        /** A branch was imported from a bundle. */
+        UNBUNDLE,
+        /** A branch was written by fast-import. */
+        IMPORT,
+        /** A branch was updated by a push from another repository. */
+        PUSH;
+
+        /** Returns the name of this action as printed by reflog. */
+        String label() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    /** One entry of a log. */
+    static class Entry {
+        /** An entry recording that a reference moved from OLD to NOW at
+         *  TIME, by ACTION. */
+        Entry(String old, String now, long time, Action action) {
+            _old = old;
+            _now = now;
+            _time = time;
+            _action = action;
+        }
+
+        /** Returns the previous value, or null if there was none. */
+        String old() {
+            return _old;
+        }
+
+        /** Returns the new value. */
+        String now() {
+            return _now;
+        }
+
+        /** Returns the time of the update, in milliseconds. */
+        long time() {
+            return _time;
+        }
+
+        /** Returns the kind of update. */
+        Action action() {
+            return _action;
+        }
+
+        /** The previous value. */
+        private final String _old;
+        /** The new value. */
+        private final String _now;
+        /** The time of the update. */
+        private final long _time;
+        /** The kind of update. */
+        private final Action _action;
+    }
+
+    /** Records that the reference REF, a branch name or HEAD, moved from
+     *  OLD, which is null if REF is new, to NOW by ACTION. */
+    static void append(String ref, String old, String now, Action action) {
+        File file = logFile(ref);
+        write(file, old, now, action);
+        if (file.length() > (long) MAX_ENTRIES * RECORD_SIZE) {
+            expire(ref, System.currentTimeMillis() - EXPIRE_MILLIS,
+                    MAX_ENTRIES / 2);
+        }
+    }
+
+    /** Records that the branch BRANCH of the repository whose .gitlet
+     *  directory is GITLET, which may be another repository's, moved
+     *  from OLD to NOW by ACTION. */
+    static void append(File gitlet, String branch, String old, String now,
+                       Action action) {
+        if (gitlet.equals(Main.COMMON)) {
+            append(branch, old, now, action);
+        } else {
+            File file = new File(new File(new File(gitlet,
+                    BRANCH_LOGS.getName()), "branches"), branch);
+            file.getParentFile().mkdirs();
+            Utils.appendRecords(file, record(old, now, action), RECORD_SIZE);
+        }
+    }
+
+    /** Appends to the log FILE the entry recording a move from OLD to
+     *  NOW by ACTION, after cutting off any torn entry at its end. The
+     *  append is held back until the open transaction, if any,
+     *  commits, so an aborted command logs nothing. */
+    private static void write(File file, String old, String now,
+                              Action action) {
+        byte[] record = record(old, now, action);
+        if (!Journal.deferAppend(file, record, RECORD_SIZE)) {
+            file.getParentFile().mkdirs();
+            Utils.appendRecords(file, record, RECORD_SIZE);
+        }
+    }
+
+    /** Returns the entry recording a move from OLD to NOW by ACTION,
+     *  made now. */
+    private static byte[] record(String old, String now, Action action) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(old == null ? NO_ID : Index.toBytes(old))
+            .put(Index.toBytes(now)).putLong(System.currentTimeMillis())
+            .put((byte) action.ordinal());
+        return record.array();
+    }
+
+    /** Returns the entries of the log of REF, oldest first. */
+    static List<Entry> read(String ref) {
+        List<Entry> result = new ArrayList<>();
+        File file = logFile(ref);
+        if (!file.isFile()) {
+            return result;
+        }
+        byte[] bytes = Utils.readContents(file);
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            for (int n = bytes.length / RECORD_SIZE; n > 0; n -= 1) {
+                result.add(readEntry(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Removes the log of REF. */
+    static void delete(String ref) {
+        logFile(ref).delete();
+    }
+
+    /** Drops from the log of REF every entry older than CUTOFF, in
+     *  milliseconds, and all but the newest KEEP entries. Returns the
+     *  number of entries dropped. */
+    static int expire(String ref, long cutoff, int keep) {
+        List<Entry> entries = read(ref);
+        int first = Math.max(0, entries.size() - keep);
+        while (first < entries.size() && entries.get(first).time() < cutoff) {
+            first += 1;
+        }
+        if (first == 0) {
+            return 0;
+        }
+        File file = logFile(ref);
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            for (Entry entry : entries.subList(first, entries.size())) {
+                out.write(entry.old() == null
+                        ? NO_ID : Index.toBytes(entry.old()));
+                out.write(Index.toBytes(entry.now()));
+                out.writeLong(entry.time());
+                out.writeByte(entry.action().ordinal());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!temp.renameTo(file)) {
+            throw new IllegalArgumentException("cannot write " + file);
+        }
+        return first;
+    }
+
+    /** Returns the commit named by REV, of the form REF@{N}, meaning the
+     *  value REF held N updates ago, or REF@{DATE}, meaning the value it
+     *  held at DATE. REF is a branch or HEAD, and if it is empty the
+     *  current branch. DATE is yesterday, N.UNIT.ago with UNIT one of
+     *  minutes, hours, days or weeks, or yyyy-MM-dd [HH:mm:ss]. Throws a
+     *  GitletException if REV names nothing. */
+    static String resolve(String rev) {
+        Matcher matcher = REV.matcher(rev);
+        if (!matcher.matches()) {
+            throw Utils.error("Bad revision: %s", rev);
+        }
+        String ref = matcher.group(1).isEmpty()
+                ? Refs.head() : matcher.group(1);
+        String selector = matcher.group(2);
+        File file = logFile(ref);
+        long count = file.length() / RECORD_SIZE;
+        if (count == 0) {
+            throw Utils.error("No log for %s.", ref);
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (selector.matches("[0-9]+")) {
+                long n = Long.parseLong(selector);
+                if (n >= count) {
+                    throw Utils.error("Log for %s has only %d entries.",
+                            ref, count);
+                }
+                return entryAt(in, count - 1 - n).now();
+            }
+            long time = parseTime(selector);
+            long lo = 0, hi = count;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (entryAt(in, mid).time() <= time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo > 0) {
+                return entryAt(in, lo - 1).now();
+            }
+            Entry first = entryAt(in, 0);
+            if (first.old() == null) {
+                throw Utils.error("Log for %s does not go back that far.",
+                        ref);
+            }
+            return first.old();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the time in milliseconds described by SELECTOR. Throws a
+     *  GitletException if it is not understood. */
+    private static long parseTime(String selector) {
+        long now = System.currentTimeMillis();
+        if (selector.equals("yesterday")) {
+            return now - Main.MILLIS_PER_DAY;
+        }
+        Matcher ago = AGO.matcher(selector);
+        if (ago.matches()) {
+            long n = Long.parseLong(ago.group(1));
+            switch (ago.group(2)) {
+            case "minute":
+                return now - n * MILLIS_PER_MINUTE;
+            case "hour":
+                return now - n * MILLIS_PER_MINUTE * MINUTES_PER_HOUR;
+            case "day":
+                return now - n * Main.MILLIS_PER_DAY;
+            default:
+                return now - n * Main.MILLIS_PER_DAY * DAYS_PER_WEEK;
+            }
+        }
+        try {
+            return Main.parseDate(selector, true);
+        } catch (ParseException excp) {
+            throw Utils.error("Bad date: %s", selector);
+        }
+    }
+
+    /** Returns entry number INDEX of the log open as IN. */
+    private static Entry entryAt(RandomAccessFile in, long index)
+        throws IOException {
+        byte[] record = new byte[RECORD_SIZE];
+        in.seek(index * RECORD_SIZE);
+        in.readFully(record);
+        return readEntry(new DataInputStream(
+                new ByteArrayInputStream(record)));
+    }
+
+    /** Returns the next entry read from IN. */
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        byte[] old = new byte[ID_LENGTH];
+        byte[] now = new byte[ID_LENGTH];
+        in.readFully(old);
+        in.readFully(now);
+        long time = in.readLong();
+        int action = in.readUnsignedByte();
+        Action[] actions = Action.values();
+        return new Entry(isZero(old) ? null : Index.toHex(old),
+                Index.toHex(now), time,
+                actions[Math.min(action, actions.length - 1)]);
+    }
+
+    /** Returns true iff ID is all zeros. */
+    private static boolean isZero(byte[] id) {
+        for (byte b : id) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the log file of REF. */
+    private static File logFile(String ref) {
+        if (ref.equals(HEAD)) {
+            return new File(LOGS, HEAD);
+        }
+        return new File(new File(BRANCH_LOGS, "branches"), ref);
+    }
+
+    /** Name under which HEAD's movements are logged. */
+    static final String HEAD = "HEAD";
+
+    /** Directory of HEAD's log, which belongs to one worktree. */
+    static final File LOGS = new File(Main.GITLET, "logs");
+
+    /** Directory of the branches' logs, shared by all worktrees. */
+    static final File BRANCH_LOGS = new File(Main.COMMON, "logs");
+
+    /** Age, in milliseconds, past which entries may be dropped. */
+    static final long EXPIRE_MILLIS = 90 * Main.MILLIS_PER_DAY;
+
+    /** Entries a log may hold before old ones are dropped. */
+    static final int MAX_ENTRIES = 4096;
+
+    /** Bytes in an object id. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** Bytes in one entry. */
+    private static final int RECORD_SIZE = 2 * ID_LENGTH + Long.BYTES + 1;
+
+    /** The old id of an entry that created its reference. */
+    private static final byte[] NO_ID = new byte[ID_LENGTH];
+
+    /** Milliseconds in a minute. */
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+    /** Minutes in an hour. */
+    private static final long MINUTES_PER_HOUR = 60;
+
+    /** Days in a week. */
+    private static final long DAYS_PER_WEEK = 7;
+
+    /** Form of a reflog revision. */
+    private static final Pattern REV = Pattern.compile("(.*)@\\{(.+)\\}");
+
+    /** Form of a relative time. */
+    private static final Pattern AGO =
+        Pattern.compile("([0-9]+)\\.(minute|hour|day|week)s?\\.ago");
+
+}
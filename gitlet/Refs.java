@@ -0,0 +1,308 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Branch references. A branch is either a loose file under
+ *  .gitlet/branches, named by the branch and holding the id of its
+ *  head, or a line "SHA1 NAME" in .gitlet/packed-refs, which is kept
+ *  sorted by name. A loose file overrides a packed line of the same
+ *  name, so updating a branch only ever writes its own small file, and
+ *  pack-refs folds the loose files back into packed-refs.
+ *
+ *  Within one command this repository's references are cached: the
+ *  current branch and its head are read once, packed-refs is parsed at
+ *  most once, and each loose file is looked at at most once. Other
+ *  repositories, such as remotes, are read without the cache.
+ *  @author Ed Scerbo
+ */
+class Refs {
+
+    /** Returns the name of the current branch. */
+    static String head() {
+        if (_head == null) {
+            _head = Utils.readContentsAsString(Main.HEAD);
+        }
+        return _head;
+    }
+
+    /** Makes BRANCH the current branch, logging the move of HEAD. */
+    static void setHead(String branch) {
+        String old = Main.HEAD.isFile() ? headSha1() : null;
+        byte[] contents = branch.getBytes(StandardCharsets.UTF_8);
+        if (!Journal.defer(Main.HEAD, contents)) {
+            Utils.writeContents(Main.HEAD, contents);
+        }
+        _head = branch;
+        Reflog.append(Reflog.HEAD, old, get(branch), Reflog.Action.CHECKOUT);
+    }
+
+    /** Returns the id of the head of the current branch. */
+    static String headSha1() {
+        return get(head());
+    }
+
+    /** Returns the id of the head of the branch NAME, or null if there
+     *  is no such branch. */
+    static String get(String name) {
+        if (!_loose.containsKey(name)) {
+            File file = new File(Main.BRANCHES, name);
+            _loose.put(name, file.isFile()
+                    ? Utils.readContentsAsString(file) : null);
+        }
+        String sha1 = _loose.get(name);
+        return sha1 != null ? sha1 : packed().get(name);
+    }
+
+    /** Returns true iff the branch NAME exists. */
+    static boolean exists(String name) {
+        return get(name) != null;
+    }
+
+    /** Points the branch NAME at the commit SHA1, creating it if need
+     *  be, and logs the update as ACTION in its reflog, and in HEAD's
+     *  if NAME is the current branch. */
+    static void set(String name, String sha1, Reflog.Action action) {
+        String old = get(name);
+        write(Main.COMMON, name, sha1);
+        _loose.put(name, sha1);
+        _all = null;
+        if (!sha1.equals(old)) {
+            Reflog.append(name, old, sha1, action);
+            if (Main.HEAD.isFile() && name.equals(head())) {
+                Reflog.append(Reflog.HEAD, old, sha1, action);
+            }
+        }
+    }
+
+    /** Deletes the branch NAME, both its loose file and any packed
+     *  line, and its reflog. */
+    static void delete(String name) {
+        remove(new File(Main.BRANCHES, name));
+        Reflog.delete(name);
+        _loose.put(name, null);
+        if (packed().remove(name) != null) {
+            writePacked(Main.COMMON, packed());
+        }
+        _all = null;
+    }
+
+    /** Returns every branch of this repository, including remote
+     *  tracking branches, mapped to its head and sorted by name. */
+    static TreeMap<String, String> all() {
+        if (_all == null) {
+            _all = new TreeMap<>(packed());
+            _all.putAll(loose(Main.COMMON));
+            for (Map.Entry<String, String> entry : _loose.entrySet()) {
+                if (entry.getValue() != null) {
+                    _all.put(entry.getKey(), entry.getValue());
+                } else if (!packed().containsKey(entry.getKey())) {
+                    _all.remove(entry.getKey());
+                }
+            }
+        }
+        return _all;
+    }
+
+    /** Returns every branch of the repository whose .gitlet directory
+     *  is GITLET, mapped to its head and sorted by name. */
+    static TreeMap<String, String> all(File gitlet) {
+        if (gitlet.equals(Main.COMMON)) {
+            return all();
+        }
+        return read(gitlet);
+    }
+
+    /** Returns every branch of the repository whose .gitlet directory
+     *  is GITLET, mapped to its head and sorted by name, read afresh
+     *  even if GITLET is this repository's. */
+    static TreeMap<String, String> read(File gitlet) {
+        TreeMap<String, String> result = readPacked(gitlet);
+        result.putAll(loose(gitlet));
+        return result;
+    }
+
+    /** Returns the id of the head of the branch NAME in the repository
+     *  whose .gitlet directory is GITLET, or null if there is no such
+     *  branch. */
+    static String get(File gitlet, String name) {
+        if (gitlet.equals(Main.COMMON)) {
+            return get(name);
+        }
+        return read(gitlet, name);
+    }
+
+    /** Returns the id of the head of the branch NAME in the repository
+     *  whose .gitlet directory is GITLET, or null if there is no such
+     *  branch, read afresh even if GITLET is this repository's. */
+    static String read(File gitlet, String name) {
+        File file = new File(new File(gitlet, "branches"), name);
+        if (file.isFile()) {
+            return Utils.readContentsAsString(file);
+        }
+        return readPacked(gitlet).get(name);
+    }
+
+    /** Points the branch NAME in the repository whose .gitlet directory
+     *  is GITLET at the commit SHA1, logging the update as ACTION in
+     *  that repository's reflog. */
+    static void set(File gitlet, String name, String sha1,
+                    Reflog.Action action) {
+        if (gitlet.equals(Main.COMMON)) {
+            set(name, sha1, action);
+        } else {
+            String old = get(gitlet, name);
+            write(gitlet, name, sha1);
+            if (!sha1.equals(old)) {
+                Reflog.append(gitlet, name, old, sha1, action);
+            }
+        }
+    }
+
+    /** Moves every loose branch into packed-refs. Returns the number of
+     *  branches packed. */
+    static int pack() {
+        TreeMap<String, String> loose = loose(Main.COMMON);
+        TreeMap<String, String> packed = packed();
+        packed.putAll(loose);
+        writePacked(Main.COMMON, packed);
+        for (String name : loose.keySet()) {
+            remove(new File(Main.BRANCHES, name));
+        }
+        File[] dirs = Main.BRANCHES.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File dir : dirs) {
+                dir.delete();
+            }
+        }
+        for (String name : loose.keySet()) {
+            _loose.put(name, null);
+        }
+        _all = null;
+        return loose.size();
+    }
+
+    /** Forgets everything cached, as when the repository is created
+     *  anew. */
+    static void clear() {
+        _head = null;
+        _packed = null;
+        _all = null;
+        _loose.clear();
+    }
+
+    /** Returns this repository's packed branches, reading them on first
+     *  use. */
+    private static TreeMap<String, String> packed() {
+        if (_packed == null) {
+            _packed = readPacked(Main.COMMON);
+        }
+        return _packed;
+    }
+
+    /** Returns the packed branches of the repository whose .gitlet
+     *  directory is GITLET. */
+    private static TreeMap<String, String> readPacked(File gitlet) {
+        TreeMap<String, String> result = new TreeMap<>();
+        File file = new File(gitlet, PACKED_NAME);
+        if (!file.isFile()) {
+            return result;
+        }
+        for (String line : Utils.readContentsAsString(file).split("\n")) {
+            if (line.length() > Utils.UID_LENGTH) {
+                result.put(line.substring(Utils.UID_LENGTH + 1),
+                        line.substring(0, Utils.UID_LENGTH));
+            }
+        }
+        return result;
+    }
+
+    /** Replaces the packed branches of the repository whose .gitlet
+     *  directory is GITLET with BRANCHES. */
+    private static void writePacked(File gitlet,
+                                    TreeMap<String, String> branches) {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> entry : branches.entrySet()) {
+            contents.append(entry.getValue()).append(' ')
+                .append(entry.getKey()).append('\n');
+        }
+        File file = new File(gitlet, PACKED_NAME);
+        if (gitlet.equals(Main.COMMON) && Journal.defer(file,
+                contents.toString().getBytes(StandardCharsets.UTF_8))) {
+            return;
+        }
+        File temp = new File(gitlet, PACKED_NAME + ".tmp");
+        Utils.writeContents(temp, contents.toString());
+        if (!temp.renameTo(file)) {
+            throw new IllegalArgumentException("cannot write " + file);
+        }
+    }
+
+    /** Returns the loose branches of the repository whose .gitlet
+     *  directory is GITLET, including those in subdirectories. */
+    private static TreeMap<String, String> loose(File gitlet) {
+        TreeMap<String, String> result = new TreeMap<>();
+        File root = new File(gitlet, "branches");
+        ArrayDeque<File> dirs = new ArrayDeque<>();
+        dirs.add(root);
+        int prefix = root.getPath().length() + 1;
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.poll().listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    dirs.add(file);
+                } else {
+                    result.put(file.getPath().substring(prefix)
+                            .replace(File.separatorChar, '/'),
+                            Utils.readContentsAsString(file));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Writes the loose branch NAME of the repository whose .gitlet
+     *  directory is GITLET, pointing at SHA1. */
+    private static void write(File gitlet, String name, String sha1) {
+        File file = new File(new File(gitlet, "branches"), name);
+        if (gitlet.equals(Main.COMMON) && Journal.defer(file,
+                sha1.getBytes(StandardCharsets.UTF_8))) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, sha1);
+    }
+
+    /** Deletes FILE, a loose branch of this repository, when the open
+     *  transaction commits, or now if there is none. */
+    private static void remove(File file) {
+        if (!Journal.defer(file, Journal.DELETED)) {
+            file.delete();
+        }
+    }
+
+    /** Name of the packed-refs file. */
+    static final String PACKED_NAME = "packed-refs";
+
+    /** The current branch, or null if not yet read. */
+    private static String _head;
+
+    /** This repository's packed branches, or null if not yet read. */
+    private static TreeMap<String, String> _packed;
+
+    /** All of this repository's branches, or null if not yet
+     *  gathered. */
+    private static TreeMap<String, String> _all;
+
+    /** Loose branches looked up so far, mapped to their heads, or to
+     *  null if they have no loose file. */
+    private static HashMap<String, String> _loose = new HashMap<>();
+
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/** Moving history between two repositories on the local file system.
+ *  The sending side walks back from the commit the receiver wants and
+ *  stops wherever it reaches a commit the receiver already has, so only
+ *  missing commits, and only the blobs they introduce that the receiver
+ *  lacks, are sent. They travel as a single pack.
+ *  @author Ed Scerbo
+ */
+class Remote {
+
+    /** Returns the .gitlet directory of the remote named NAME, or null
+     *  if there is no such remote. */
+    static File directory(String name) {
+        File remoteFile = new File(Main.REMOTES, name);
+        if (!remoteFile.isFile()) {
+            return null;
+        }
+        return new File(Utils.readContentsAsString(remoteFile).trim());
+    }
+
+    /** Returns the commit id of branch BRANCH in the .gitlet directory
+     *  GITLET, or null if it has no such branch. */
+    static String branchHead(File gitlet, String branch) {
+        return Refs.get(gitlet, branch);
+    }
+
+    /** Returns the heads of all branches in the .gitlet directory
+     *  GITLET, including remote tracking branches. */
+    static List<String> branchHeads(File gitlet) {
+        return new ArrayList<>(Refs.all(gitlet).values());
+    }
+
+    /** Returns the commits reachable from WANT in the .gitlet directory
+     *  SOURCE that are missing from the .gitlet directory TARGET. If
+     *  SOURCE has a commit graph, this is the difference between the
+     *  reachability bitmaps of WANT and of TARGET's branch heads.
+     *  Otherwise the walk back from WANT stops at any commit TARGET
+     *  has. */
+    static List<String> missingCommits(File source, File target,
+                                       String want) {
+        CommitGraph graph = CommitGraph.read(source);
+        ObjectStore targetObjects = Main.objects(target);
+        if (graph.size() > 0) {
+            List<String> missing = new ArrayList<>();
+            for (String sha1 : graph.missing(Arrays.asList(want),
+                    branchHeads(target))) {
+                if (!targetObjects.contains(ObjectStore.Kind.COMMIT, sha1)) {
+                    missing.add(sha1);
+                }
+            }
+            return missing;
+        }
+        LinkedHashSet<String> missing = new LinkedHashSet<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        queue.add(want);
+        while (!queue.isEmpty()) {
+            String sha1 = queue.poll();
+            if (missing.contains(sha1)
+                    || targetObjects.contains(ObjectStore.Kind.COMMIT, sha1)) {
+                continue;
+            }
+            missing.add(sha1);
+            queue.addAll(Promisor.parents(Main.readCommit(source, sha1)));
+        }
+        return new ArrayList<>(missing);
+    }
+
+    /** Returns the blobs tracked by COMMITS in the .gitlet directory
+     *  SOURCE that are missing from the .gitlet directory TARGET. */
+    static List<String> missingBlobs(File source, File target,
+                                     List<String> commits) {
+        ObjectStore targetObjects = Main.objects(target);
+        HashSet<String> seen = new HashSet<>();
+        List<String> missing = new ArrayList<>();
+        for (String sha1 : commits) {
+            Commit commit = Main.readCommit(source, sha1);
+            for (String blob : commit.getTracked().values()) {
+                if (seen.add(blob)
+                        && !targetObjects.contains(ObjectStore.Kind.BLOB,
+                                                   blob)) {
+                    missing.add(blob);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /** Sends everything reachable from WANT that the .gitlet directory
+     *  TARGET is missing from the .gitlet directory SOURCE, as one
+     *  pack. Returns the number of objects transferred. */
+    static int transfer(File source, File target, String want) {
+        long start = Trace.begin();
+        List<String> commits = missingCommits(source, target, want);
+        Trace.end("negotiate", start);
+        if (commits.isEmpty()) {
+            return 0;
+        }
+        List<String> blobs = missingBlobs(source, target, commits);
+        File pack;
+        try {
+            pack = File.createTempFile("incoming", ".pack", target);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Pack.write(pack, source, commits, blobs);
+            return Pack.unpack(pack, target);
+        } finally {
+            pack.delete();
+        }
+    }
+
+}
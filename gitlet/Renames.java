@@ -0,0 +1,281 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Rename and copy detection between two trees. Exact renames are
+ *  paired up by blob SHA-1. The remaining files are compared through
+ *  MinHash signatures of their lines, bucketed by locality-sensitive
+ *  hashing so that only files sharing a band are ever scored against
+ *  one another, rather than every added file against every deleted one.
+ *  @author Ed Scerbo
+ */
+class Renames {
+
+    /** A file found at a new name in the later tree. */
+    static class Pair {
+        /** A pair recording that TO came from FROM with similarity SCORE
+         *  percent, as a copy if COPY and as a rename otherwise. */
+        Pair(String from, String to, int score, boolean copy) {
+            _from = from;
+            _to = to;
+            _score = score;
+            _copy = copy;
+        }
+
+        /** Returns the name in the earlier tree. */
+        String from() {
+            return _from;
+        }
+
+        /** Returns the name in the later tree. */
+        String to() {
+            return _to;
+        }
+
+        /** Returns the similarity of the two versions, in percent. */
+        int score() {
+            return _score;
+        }
+
+        /** Returns true iff the original is still present, making this
+         *  a copy rather than a rename. */
+        boolean isCopy() {
+            return _copy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%03d %s -> %s", _copy ? "C" : "R",
+                    _score, _from, _to);
+        }
+
+        /** The name in the earlier tree. */
+        private final String _from;
+        /** The name in the later tree. */
+        private final String _to;
+        /** Similarity in percent. */
+        private final int _score;
+        /** True iff this is a copy. */
+        private final boolean _copy;
+    }
+
+    /** Returns the renames, and copies as well if COPIES, from the tree
+     *  OLDTREE to the tree NEWTREE, both of which pair file names with
+     *  blob SHA-1 codes. Pairs are ordered by their new names. */
+    static List<Pair> detect(Map<String, String> oldTree,
+                             Map<String, String> newTree, boolean copies) {
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        for (String name : oldTree.keySet()) {
+            if (!newTree.containsKey(name)) {
+                deleted.put(name, oldTree.get(name));
+            }
+        }
+        for (String name : newTree.keySet()) {
+            if (!oldTree.containsKey(name)) {
+                added.put(name, newTree.get(name));
+            }
+        }
+        List<Pair> result = new ArrayList<>();
+        if (added.isEmpty()) {
+            return result;
+        }
+        matchExact(deleted, added, false, result);
+        matchSimilar(deleted, added, false, result);
+        if (copies) {
+            TreeMap<String, String> sources = new TreeMap<>(oldTree);
+            for (Pair pair : result) {
+                sources.remove(pair.from());
+            }
+            matchExact(sources, added, true, result);
+            matchSimilar(sources, added, true, result);
+        }
+        Collections.sort(result, new Comparator<Pair>() {
+            @Override
+            public int compare(Pair p1, Pair p2) {
+                return p1.to().compareTo(p2.to());
+            }
+        });
+        return result;
+    }
+
+    /** Pairs up files in ADDED with files in SOURCES having the same
+     *  blob, appending them to RESULT as copies if COPY. Matched files
+     *  are removed from ADDED, and from SOURCES unless COPY. */
+    private static void matchExact(TreeMap<String, String> sources,
+                                   TreeMap<String, String> added,
+                                   boolean copy, List<Pair> result) {
+        HashMap<String, List<String>> byBlob = new HashMap<>();
+        for (String name : sources.keySet()) {
+            String blob = sources.get(name);
+            if (!byBlob.containsKey(blob)) {
+                byBlob.put(blob, new ArrayList<String>());
+            }
+            byBlob.get(blob).add(name);
+        }
+        for (String name : new ArrayList<>(added.keySet())) {
+            List<String> candidates = byBlob.get(added.get(name));
+            if (candidates != null && !candidates.isEmpty()) {
+                String from = copy ? candidates.get(0) : candidates.remove(0);
+                result.add(new Pair(from, name, MAX_SCORE, copy));
+                added.remove(name);
+                if (!copy) {
+                    sources.remove(from);
+                }
+            }
+        }
+    }
+
+    /** Pairs up files in ADDED with files in SOURCES whose contents are
+     *  at least MIN_SCORE percent similar, best matches first, appending
+     *  them to RESULT as copies if COPY. Matched files are removed from
+     *  ADDED, and from SOURCES unless COPY. */
+    private static void matchSimilar(TreeMap<String, String> sources,
+                                     TreeMap<String, String> added,
+                                     boolean copy, List<Pair> result) {
+        if (sources.isEmpty() || added.isEmpty()) {
+            return;
+        }
+        HashMap<String, int[]> signatures = new HashMap<>();
+        HashMap<Long, List<String>> buckets = new HashMap<>();
+        for (String name : sources.keySet()) {
+            int[] sig = signature(Main.readBlob(sources.get(name)));
+            if (sig != null) {
+                signatures.put(name, sig);
+                for (int band = 0; band < BANDS; band += 1) {
+                    Long key = bandKey(sig, band);
+                    if (!buckets.containsKey(key)) {
+                        buckets.put(key, new ArrayList<String>());
+                    }
+                    buckets.get(key).add(name);
+                }
+            }
+        }
+        List<Pair> candidates = new ArrayList<>();
+        for (String name : added.keySet()) {
+            int[] sig = signature(Main.readBlob(added.get(name)));
+            if (sig == null) {
+                continue;
+            }
+            HashSet<String> seen = new HashSet<>();
+            for (int band = 0; band < BANDS; band += 1) {
+                List<String> bucket = buckets.get(bandKey(sig, band));
+                if (bucket == null) {
+                    continue;
+                }
+                for (String from : bucket) {
+                    if (seen.add(from)) {
+                        int score = Math.min(MAX_SCORE - 1,
+                                similarity(signatures.get(from), sig));
+                        if (score >= MIN_SCORE) {
+                            candidates.add(new Pair(from, name, score, copy));
+                        }
+                    }
+                }
+            }
+        }
+        Collections.sort(candidates, new Comparator<Pair>() {
+            @Override
+            public int compare(Pair p1, Pair p2) {
+                return p2.score() - p1.score();
+            }
+        });
+        for (Pair pair : candidates) {
+            if (added.containsKey(pair.to())
+                    && sources.containsKey(pair.from())) {
+                result.add(pair);
+                added.remove(pair.to());
+                if (!copy) {
+                    sources.remove(pair.from());
+                }
+            }
+        }
+    }
+
+    /** Returns the MinHash signature of the set of lines in CONTENTS,
+     *  or null if CONTENTS is empty. */
+    static int[] signature(byte[] contents) {
+        if (contents.length == 0) {
+            return null;
+        }
+        int[] sig = new int[HASHES];
+        Arrays.fill(sig, Integer.MAX_VALUE);
+        String text = new String(contents, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            int feature = line.hashCode();
+            for (int i = 0; i < HASHES; i += 1) {
+                int h = mix(feature ^ SEEDS[i]);
+                if (h < sig[i]) {
+                    sig[i] = h;
+                }
+            }
+        }
+        return sig;
+    }
+
+    /** Returns the estimated similarity, in percent, of the files with
+     *  signatures SIG1 and SIG2. Only identical blobs score MAX_SCORE,
+     *  so callers cap estimates for distinct blobs below it. */
+    static int similarity(int[] sig1, int[] sig2) {
+        int same = 0;
+        for (int i = 0; i < HASHES; i += 1) {
+            if (sig1[i] == sig2[i]) {
+                same += 1;
+            }
+        }
+        return same * MAX_SCORE / HASHES;
+    }
+
+    /** Returns the bucket key of band BAND of signature SIG. */
+    private static Long bandKey(int[] sig, int band) {
+        long key = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i += 1) {
+            key = key * 1000003L + sig[i];
+        }
+        return key;
+    }
+
+    /** Returns a well-mixed hash of X. */
+    private static int mix(int x) {
+        x ^= x >>> 16;
+        x *= 0x85ebca6b;
+        x ^= x >>> 13;
+        x *= 0xc2b2ae35;
+        x ^= x >>> 16;
+        return x & Integer.MAX_VALUE;
+    }
+
+    /** Number of hash functions in a signature. */
+    static final int HASHES = 32;
+
+    /** Number of signature entries in each LSH band. */
+    static final int ROWS = 2;
+
+    /** Number of LSH bands. */
+    static final int BANDS = HASHES / ROWS;
+
+    /** Score of identical files. */
+    static final int MAX_SCORE = 100;
+
+    /** Minimum similarity, in percent, for files to be paired. */
+    static final int MIN_SCORE = 50;
+
+    /** Seeds distinguishing the hash functions. */
+    private static final int[] SEEDS = new int[HASHES];
+
+    static {
+        for (int i = 0; i < HASHES; i += 1) {
+            SEEDS[i] = mix(0x9e3779b9 * (i + 1));
+        }
+    }
+
+}
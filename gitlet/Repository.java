@@ -0,0 +1,402 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import gitlet.ObjectStore.Kind;
+
+/** A Gitlet repository opened as a library rather than run as a
+ *  command. A Repository may be opened on any directory, whatever the
+ *  current one is, and answers with values instead of printing: status
+ *  entries, commit histories and merge outcomes. Failures are thrown as
+ *  GitletExceptions carrying the message the command would print.
+ *
+ *  A Repository may also be opened on a linked worktree; see Worktree.
+ *
+ *  Any number of repositories may be open in one JVM, and each may be
+ *  read from any number of threads at once. A Repository keeps only its
+ *  own cache of objects, which never go stale since objects never
+ *  change; branches, HEAD and the staging area are read afresh on every
+ *  call, and see each command's updates whole, since commands replace
+ *  those files by atomic renames; the branch cache that Gitlet commands
+ *  keep for the repository in the current directory is never used.
+ *  Nothing here writes to the repository: merges are worked out in
+ *  memory, objects missing from a partial clone are not fetched from
+ *  its promisor, and verify-on-read checks objects without recording
+ *  them in the current repository's list of verified objects.
+ *  @author Ed Scerbo
+ */
+public class Repository {
+
+    /** One line of the status of a repository. */
+    public static final class StatusEntry {
+        /** The states a file can be in. */
+        public enum State {
+            /** Staged for addition. */
+            STAGED,
+            /** Staged for removal. */
+            REMOVED,
+            /** Changed in the working directory but not staged. */
+            MODIFIED,
+            /** Deleted from the working directory but not staged. */
+            DELETED,
+            /** Present but neither tracked nor staged. */
+            UNTRACKED
+        }
+
+        /** The file NAME, in STATE. */
+        StatusEntry(String name, State state) {
+            _name = name;
+            _state = state;
+        }
+
+        /** Returns the name of the file. */
+        public String name() {
+            return _name;
+        }
+
+        /** Returns the state of the file. */
+        public State state() {
+            return _state;
+        }
+
+        @Override
+        public String toString() {
+            return _state + " " + _name;
+        }
+
+        /** The file name. */
+        private final String _name;
+        /** Its state. */
+        private final State _state;
+    }
+
+    /** A commit, as seen through the library. */
+    public static final class LogEntry {
+        /** The entry for COMMIT. */
+        LogEntry(Commit commit) {
+            _commit = commit;
+        }
+
+        /** Returns the id of the commit. */
+        public String id() {
+            return _commit.getSha1();
+        }
+
+        /** Returns the id of the first parent, or null for the initial
+         *  commit. */
+        public String parent() {
+            return _commit.getParent();
+        }
+
+        /** Returns the id of the merged-in parent, or null if this is
+         *  not a merge commit. */
+        public String mergeParent() {
+            return _commit.getMergeParent();
+        }
+
+        /** Returns the commit's timestamp, as printed by log. */
+        public String timestamp() {
+            return _commit.getTimestamp();
+        }
+
+        /** Returns the commit message. */
+        public String message() {
+            return _commit.getMessage();
+        }
+
+        /** Returns the files the commit tracks, mapped to their blob
+         *  ids. */
+        public Map<String, String> tracked() {
+            return Collections.unmodifiableMap(_commit.getTracked());
+        }
+
+        @Override
+        public String toString() {
+            return id() + " " + message();
+        }
+
+        /** The commit. */
+        private final Commit _commit;
+    }
+
+    /** The outcome of merging one commit into another. */
+    public static final class MergeResult {
+        /** The outcome of a merge whose split point is BASE, tracking
+         *  TRACKED if it is clean, or with conflicts in CONFLICTS. */
+        MergeResult(String base, Map<String, String> tracked,
+                    List<String> conflicts) {
+            _base = base;
+            _tracked = tracked;
+            _conflicts = conflicts;
+        }
+
+        /** Returns true iff the merge has no conflicts. */
+        public boolean isClean() {
+            return _conflicts.isEmpty();
+        }
+
+        /** Returns the id of the split point, or null if the commits
+         *  share no history. */
+        public String base() {
+            return _base;
+        }
+
+        /** Returns the files a clean merge would track, mapped to their
+         *  blob ids, or null if the merge has conflicts. */
+        public Map<String, String> tracked() {
+            return _tracked;
+        }
+
+        /** Returns the files in conflict, in order. */
+        public List<String> conflicts() {
+            return _conflicts;
+        }
+
+        /** The split point. */
+        private final String _base;
+        /** The merged files, or null. */
+        private final Map<String, String> _tracked;
+        /** The conflicting files. */
+        private final List<String> _conflicts;
+    }
+
+    /** The repository in DIRECTORY, whose .gitlet directory is
+     *  GITLET. */
+    private Repository(File directory, File gitlet) {
+        _directory = directory;
+        _gitlet = gitlet;
+        _common = Worktree.commonDir(gitlet);
+        _objects = new CachingObjectStore(Main.openObjects(_common),
+                Main.OBJECT_CACHE_BYTES);
+    }
+
+    /** Returns the repository whose working directory is DIRECTORY.
+     *  Throws a GitletException if there is none. */
+    public static Repository open(File directory) {
+        File dir = directory.getAbsoluteFile();
+        File gitlet = new File(dir, Main.GITLET.getName());
+        if (!gitlet.isDirectory()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        return new Repository(dir, gitlet);
+    }
+
+    /** Returns the working directory. */
+    public File directory() {
+        return _directory;
+    }
+
+    /** Returns the name of the current branch. */
+    public String currentBranch() {
+        return Utils.readContentsAsString(
+                new File(_gitlet, Main.HEAD.getName()));
+    }
+
+    /** Returns every branch mapped to the id of its head, sorted by
+     *  name. */
+    public SortedMap<String, String> branches() {
+        return Collections.unmodifiableSortedMap(Refs.read(_common));
+    }
+
+    /** Returns the full id of the commit REV names: a branch, a commit
+     *  id or a unique prefix of one. Throws a GitletException if there
+     *  is no such commit. */
+    public String resolve(String rev) {
+        String head = Refs.read(_common, rev);
+        if (head != null) {
+            return head;
+        }
+        List<String> matches = _objects.list(Kind.COMMIT, rev);
+        if (matches.isEmpty()) {
+            throw Utils.error("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            throw Utils.error("Prefix does not identify a unique commit.");
+        }
+        return matches.get(0);
+    }
+
+    /** Returns the commit REV names, as resolve reads it. */
+    public LogEntry commit(String rev) {
+        return new LogEntry(read(resolve(rev)));
+    }
+
+    /** Returns the history of the commit REV names, following first
+     *  parents, newest first. Commits are read as the history is
+     *  iterated, so only as much of it as is used is ever read. */
+    public Iterable<LogEntry> log(String rev) {
+        final String tip = resolve(rev);
+        return () -> new Iterator<LogEntry>() {
+            @Override
+            public boolean hasNext() {
+                return _next != null;
+            }
+
+            @Override
+            public LogEntry next() {
+                if (_next == null) {
+                    throw new NoSuchElementException();
+                }
+                Commit commit = read(_next);
+                _next = commit.getParent();
+                if (_next != null && !_objects.contains(Kind.COMMIT, _next)) {
+                    _next = null;
+                }
+                return new LogEntry(commit);
+            }
+
+            /** Id of the next commit, or null at the end of the
+             *  history or at a shallow boundary. */
+            private String _next = tip;
+        };
+    }
+
+    /** Returns the contents of the file FILENAME in the commit REV
+     *  names. Throws a GitletException if it does not track the
+     *  file. */
+    public byte[] contents(String rev, String fileName) {
+        String blob = read(resolve(rev)).getTracked().get(fileName);
+        if (blob == null) {
+            throw Utils.error("File does not exist in that commit.");
+        }
+        byte[] contents = _objects.get(Kind.BLOB, blob);
+        if (contents == null) {
+            throw Utils.error("Missing blob %s.", blob);
+        }
+        return contents;
+    }
+
+    /** Returns the status of the staging area and working directory,
+     *  one entry per file in each state, with the states in the order
+     *  the status command prints them and names in order within each. */
+    public List<StatusEntry> status() {
+        HashMap<String, String> tracked =
+            read(Refs.read(_common, currentBranch())).getTracked();
+        Index index = Index.read(new File(_gitlet, Main.INDEX.getName()));
+        Sparse sparse = Sparse.read(_gitlet);
+        TreeMap<String, File> files = new TreeMap<>();
+        File[] list = _directory.listFiles(File::isFile);
+        if (list != null) {
+            for (File file : list) {
+                files.put(file.getName(), file);
+            }
+        }
+
+        List<StatusEntry> result = new ArrayList<>();
+        for (String name : index.staged()) {
+            result.add(new StatusEntry(name, StatusEntry.State.STAGED));
+        }
+        for (String name : index.removed()) {
+            result.add(new StatusEntry(name, StatusEntry.State.REMOVED));
+        }
+        TreeMap<String, StatusEntry.State> changed = new TreeMap<>();
+        List<String> untracked = new ArrayList<>();
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            String name = file.getKey();
+            Index.Entry entry = index.get(name);
+            if (entry != null && entry.isRemoval()
+                || entry == null && !tracked.containsKey(name)) {
+                untracked.add(name);
+            } else if (!unchanged(file.getValue(), entry,
+                                  tracked.get(name))) {
+                changed.put(name, StatusEntry.State.MODIFIED);
+            }
+        }
+        for (String name : index.staged()) {
+            if (!files.containsKey(name) && sparse.includes(name)) {
+                changed.put(name, StatusEntry.State.DELETED);
+            }
+        }
+        for (String name : tracked.keySet()) {
+            if (!files.containsKey(name) && !index.isRemoved(name)
+                && sparse.includes(name)) {
+                changed.put(name, StatusEntry.State.DELETED);
+            }
+        }
+        for (Map.Entry<String, StatusEntry.State> entry
+                 : changed.entrySet()) {
+            result.add(new StatusEntry(entry.getKey(), entry.getValue()));
+        }
+        for (String name : untracked) {
+            result.add(new StatusEntry(name, StatusEntry.State.UNTRACKED));
+        }
+        return result;
+    }
+
+    /** Returns the outcome of merging the commit THEIRS names into the
+     *  commit OURS names, worked out as the merge command would but
+     *  without touching the repository. */
+    public MergeResult merge(String ours, String theirs) {
+        final String oursSha1 = resolve(ours);
+        final String theirsSha1 = resolve(theirs);
+        return Main.withObjects(_objects, () -> {
+            String base = Main.splitPoint(oursSha1, theirsSha1);
+            HashMap<String, String> oursTracked =
+                read(oursSha1).getTracked();
+            MergePlan plan = new MergePlan(
+                    base == null ? new HashMap<>() : read(base).getTracked(),
+                    oursTracked, read(theirsSha1).getTracked());
+            List<String> conflicts = new ArrayList<>();
+            for (Map.Entry<String, MergePlan.Step> step
+                     : plan.steps().entrySet()) {
+                if (step.getValue().action() == MergePlan.Action.CONFLICT) {
+                    conflicts.add(step.getKey());
+                }
+            }
+            Map<String, String> tracked = conflicts.isEmpty()
+                ? Collections.unmodifiableMap(plan.result(oursTracked))
+                : null;
+            return new MergeResult(base, tracked,
+                    Collections.unmodifiableList(conflicts));
+        });
+    }
+
+    /** Returns the commit with the full id SHA1. */
+    private Commit read(String sha1) {
+        byte[] contents = _objects.get(Kind.COMMIT, sha1);
+        if (contents == null) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        Commit commit = Utils.deserialize(contents, Commit.class);
+        commit.setSha1(sha1);
+        return commit;
+    }
+
+    /** Returns true iff FILE holds what ENTRY stages for it, or, if
+     *  nothing is staged for it, the blob TRACKED. A file whose size and
+     *  modification time match its staging area entry is taken as
+     *  unchanged without being read, unless it was modified so recently
+     *  that an edit since staging might have kept that time. */
+    private static boolean unchanged(File file, Index.Entry entry,
+                                     String tracked) {
+        if (entry != null && entry.size() == file.length()
+            && entry.mtime() == file.lastModified()
+            && !WorkingTree.isRacy(entry.mtime())) {
+            return true;
+        }
+        String expected = entry != null ? entry.blob() : tracked;
+        return Utils.sha1(Utils.readContents(file)).equals(expected);
+    }
+
+    /** The working directory. */
+    private final File _directory;
+
+    /** The .gitlet directory. */
+    private final File _gitlet;
+
+    /** The .gitlet directory holding objects and branches, which is
+     *  the main repository's if this is a linked worktree. */
+    private final File _common;
+
+    /** The objects, behind this repository's own cache. */
+    private final ObjectStore _objects;
+
+}
@@ -0,0 +1,606 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/** A search index over every commit: the trigrams of each message, the
+ *  commits sorted by time, and for each file the commits that changed
+ *  it relative to their first parent. Queries answer with sets of
+ *  commits without deserializing any of them.
+ *
+ *  The index lives in .gitlet/search. The base file holds a serialized
+ *  snapshot, and each commit made since is appended to the log file as
+ *  a small record, so committing never rewrites the whole index. Once
+ *  the log grows long it is folded back into the base. Commits that
+ *  arrive some other way, such as by fetch, are picked up the next
+ *  time the index is loaded by walking back from the branch heads.
+ *  That walk stops at commits already indexed, so it misses older
+ *  commits that arrive later, as when the promisor fills in history
+ *  behind a shallow clone; loading therefore builds the index again
+ *  whenever it holds a different number of commits than the store.
+ *
+ *  Each log record is framed by its length before and after it and a
+ *  CRC-32 of its contents, so that a record torn by an interrupted
+ *  command is recognized from either end. Appending to the log first
+ *  cuts off everything from the first record that is not whole. Since
+ *  the commit a torn record held is lost with it, and walking back
+ *  from the branch heads stops at commits already indexed, a torn log
+ *  makes the index be built again from every commit.
+ *  @author Ed Scerbo
+ */
+class SearchIndex implements Serializable {
+
+    /** Returns the search index, building it from every commit if none
+     *  exists yet or it does not cover the object store, and bringing it
+     *  up to date with the branch heads. */
+    static SearchIndex load() {
+        long start = Trace.begin();
+        SearchIndex index = null;
+        if (BASE.isFile()) {
+            try {
+                index = Utils.readObject(BASE, SearchIndex.class);
+            } catch (IllegalArgumentException excp) {
+                index = null;
+            }
+        }
+        if (index == null || !index.replayLog()) {
+            index = build();
+        }
+        index.catchUp();
+        if (index._ids.size()
+                != Main.objects().list(ObjectStore.Kind.COMMIT, "").size()) {
+            index = build();
+        } else if (index._logged >= COMPACT_THRESHOLD) {
+            index.save();
+        }
+        Trace.end("SearchIndex.load", start);
+        return index;
+    }
+
+    /** Records the new commit COMMIT, whose first parent tracks
+     *  PARENTTRACKED, by appending it to the log. Does nothing if the
+     *  index has not been built yet, since building will include
+     *  COMMIT. */
+    static void record(Commit commit, Map<String, String> parentTracked) {
+        if (!BASE.isFile()) {
+            return;
+        }
+        List<String> paths =
+            Main.changedPaths(parentTracked, commit.getTracked());
+        try {
+            if (!appendLog(Collections.singletonList(record(commit,
+                    paths)))) {
+                BASE.delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the commits whose message contains TEXT. */
+    BitSet containing(String text) {
+        BitSet result = candidates(text);
+        for (int doc = result.nextSetBit(0); doc >= 0;
+             doc = result.nextSetBit(doc + 1)) {
+            if (!_messages.get(doc).contains(text)) {
+                result.clear(doc);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the commits whose message is exactly MESSAGE. */
+    BitSet equalTo(String message) {
+        BitSet result = candidates(message);
+        for (int doc = result.nextSetBit(0); doc >= 0;
+             doc = result.nextSetBit(doc + 1)) {
+            if (!_messages.get(doc).equals(message)) {
+                result.clear(doc);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the commits whose message matches REGEX somewhere. The
+     *  literal text REGEX requires, if any, narrows the candidates
+     *  through the trigram index first. */
+    BitSet matching(String regex) {
+        Pattern pattern = Pattern.compile(regex);
+        BitSet result = all();
+        for (String literal : literals(regex)) {
+            result.and(candidates(literal));
+        }
+        for (int doc = result.nextSetBit(0); doc >= 0;
+             doc = result.nextSetBit(doc + 1)) {
+            if (!pattern.matcher(_messages.get(doc)).find()) {
+                result.clear(doc);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the commits made from time FROM through time TO, both
+     *  in milliseconds since the epoch. */
+    BitSet between(long from, long to) {
+        BitSet result = new BitSet();
+        if (from > to) {
+            return result;
+        }
+        for (List<Integer> docs : _byTime.subMap(from, true, to, true)
+                 .values()) {
+            for (int doc : docs) {
+                result.set(doc);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the commits that added, changed or removed the file
+     *  PATH. */
+    BitSet touching(String path) {
+        BitSet result = new BitSet();
+        List<Integer> docs = _byPath.get(path);
+        if (docs != null) {
+            for (int doc : docs) {
+                result.set(doc);
+            }
+        }
+        return result;
+    }
+
+    /** Returns every commit. */
+    BitSet all() {
+        BitSet result = new BitSet();
+        result.set(0, _ids.size());
+        return result;
+    }
+
+    /** Returns the ids of the commits DOCS, newest first. */
+    List<String> ids(BitSet docs) {
+        List<Integer> order = new ArrayList<>();
+        for (int doc = docs.nextSetBit(0); doc >= 0;
+             doc = docs.nextSetBit(doc + 1)) {
+            order.add(doc);
+        }
+        order.sort((a, b) -> {
+            int cmp = Long.compare(_times.get(b), _times.get(a));
+            return cmp != 0 ? cmp : Integer.compare(b, a);
+        });
+        List<String> result = new ArrayList<>();
+        for (int doc : order) {
+            result.add(_ids.get(doc));
+        }
+        return result;
+    }
+
+    /** Returns the time, in milliseconds since the epoch, of the commit
+     *  timestamp TIMESTAMP, or 0 if it cannot be read. */
+    static long parseTimestamp(String timestamp) {
+        try {
+            return new SimpleDateFormat(TIMESTAMP_FORMAT).parse(timestamp)
+                .getTime();
+        } catch (ParseException excp) {
+            return 0;
+        }
+    }
+
+    /** Returns the commits whose messages contain every trigram of
+     *  TEXT, or every commit if TEXT is too short to have any. */
+    private BitSet candidates(String text) {
+        BitSet result = all();
+        for (String gram : trigrams(text)) {
+            List<Integer> docs = _grams.get(gram);
+            if (docs == null) {
+                return new BitSet();
+            }
+            BitSet posting = new BitSet();
+            for (int doc : docs) {
+                posting.set(doc);
+            }
+            result.and(posting);
+        }
+        return result;
+    }
+
+    /** Returns the distinct trigrams of TEXT. */
+    private static HashSet<String> trigrams(String text) {
+        HashSet<String> result = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            result.add(text.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    /** Returns runs of literal text that every match of REGEX must
+     *  contain, or none if REGEX has alternatives or groups. */
+    static List<String> literals(String regex) {
+        List<String> result = new ArrayList<>();
+        if (regex.contains("|") || regex.contains("(")) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+            if (c == '\\' && next != 0 && !Character.isLetterOrDigit(next)) {
+                run.append(next);
+                i += 1;
+            } else if (c == '\\' || META.indexOf(c) >= 0) {
+                if (c == '\\') {
+                    i += 1;
+                }
+                endRun(run, result);
+                if (c == '[' || c == '{') {
+                    int close = regex.indexOf(c == '[' ? ']' : '}', i + 1);
+                    if (close < 0) {
+                        return new ArrayList<>();
+                    }
+                    i = close;
+                }
+                continue;
+            } else {
+                run.append(c);
+            }
+            next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+            if (next == '*' || next == '?' || next == '{') {
+                run.setLength(run.length() - 1);
+                endRun(run, result);
+            }
+        }
+        endRun(run, result);
+        return result;
+    }
+
+    /** Moves RUN, if it is long enough to have a trigram, into
+     *  RESULT, and clears it. */
+    private static void endRun(StringBuilder run, List<String> result) {
+        if (run.length() >= GRAM) {
+            result.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    /** Returns a fresh index of every commit, saved as the base. */
+    private static SearchIndex build() {
+        SearchIndex index = new SearchIndex();
+        for (String sha1
+                 : Main.objects().list(ObjectStore.Kind.COMMIT, "")) {
+            index.addFromStore(sha1);
+        }
+        index.save();
+        return index;
+    }
+
+    /** Indexes every commit reachable from a branch head that is not
+     *  indexed yet, logging each. */
+    private void catchUp() {
+        ArrayDeque<String> queue = new ArrayDeque<>(
+                Remote.branchHeads(Main.COMMON));
+        List<String> added = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        while (!queue.isEmpty()) {
+            String sha1 = queue.poll();
+            if (_docs.containsKey(sha1) || !seen.add(sha1)
+                    || !Main.objects().contains(ObjectStore.Kind.COMMIT,
+                                                sha1)) {
+                continue;
+            }
+            Commit commit = Main.retrieveLocalCommit(sha1);
+            queue.addAll(Promisor.parents(commit));
+            added.add(sha1);
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        Collections.reverse(added);
+        List<byte[]> records = new ArrayList<>();
+        for (String sha1 : added) {
+            Commit commit = Main.retrieveLocalCommit(sha1);
+            List<String> paths = Main.changedPaths(parentTracked(commit),
+                    commit.getTracked());
+            add(sha1, commit.getMessage(),
+                    parseTimestamp(commit.getTimestamp()), paths);
+            records.add(record(commit, paths));
+            _logged += 1;
+        }
+        try {
+            appendLog(records);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Indexes the commit SHA1, reading it from the object store. */
+    private void addFromStore(String sha1) {
+        Commit commit = Main.retrieveLocalCommit(sha1);
+        add(sha1, commit.getMessage(), parseTimestamp(commit.getTimestamp()),
+                Main.changedPaths(parentTracked(commit), commit.getTracked()));
+    }
+
+    /** Returns the files tracked by COMMIT's first parent, or nothing
+     *  if it has none or the parent is not present. */
+    private static Map<String, String> parentTracked(Commit commit) {
+        String parent = commit.getParent();
+        if (parent == null
+                || !Main.objects().contains(ObjectStore.Kind.COMMIT, parent)) {
+            return Collections.emptyMap();
+        }
+        return Main.retrieveLocalCommit(parent).getTracked();
+    }
+
+    /** Adds the commit SHA1 with MESSAGE, TIME and changed PATHS,
+     *  unless it is already indexed. */
+    private void add(String sha1, String message, long time,
+                     List<String> paths) {
+        if (_docs.containsKey(sha1)) {
+            return;
+        }
+        int doc = _ids.size();
+        _ids.add(sha1);
+        _messages.add(message);
+        _times.add(time);
+        _docs.put(sha1, doc);
+        for (String gram : trigrams(message)) {
+            _grams.computeIfAbsent(gram, k -> new ArrayList<>()).add(doc);
+        }
+        _byTime.computeIfAbsent(time, k -> new ArrayList<>()).add(doc);
+        for (String path : paths) {
+            _byPath.computeIfAbsent(path, k -> new ArrayList<>()).add(doc);
+        }
+    }
+
+    /** Applies every whole record in the log, up to the first torn
+     *  one, left by an interrupted command. Returns true iff there is
+     *  none. */
+    private boolean replayLog() {
+        if (!LOG.isFile()) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(LOG.toPath(),
+                StandardOpenOption.READ)) {
+            long pos = 0;
+            for (long end; (end = frameEnd(channel, pos)) > 0; pos = end) {
+                ByteBuffer body = ByteBuffer.allocate(
+                        (int) (end - pos - FRAME_SIZE));
+                readFully(channel, body, pos + Integer.BYTES);
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(body.array()));
+                String sha1 = readString(in);
+                long time = in.readLong();
+                String message = readString(in);
+                int count = in.readInt();
+                List<String> paths = new ArrayList<>();
+                for (int i = 0; i < count; i += 1) {
+                    paths.add(readString(in));
+                }
+                add(sha1, message, time, paths);
+                _logged += 1;
+            }
+            return pos == channel.size();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends RECORDS, each the contents of one log record, to the
+     *  log, after cutting off any torn record at its end. Returns true
+     *  iff there was none. */
+    private static boolean appendLog(List<byte[]> records)
+        throws IOException {
+        if (records.isEmpty()) {
+            return true;
+        }
+        DIR.mkdirs();
+        try (FileChannel channel = FileChannel.open(LOG.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long end = wholeLength(channel);
+            boolean whole = end == channel.size();
+            if (!whole) {
+                channel.truncate(end);
+            }
+            int size = 0;
+            for (byte[] record : records) {
+                size += record.length + FRAME_SIZE;
+            }
+            ByteBuffer frames = ByteBuffer.allocate(size);
+            CRC32 crc = new CRC32();
+            for (byte[] record : records) {
+                crc.reset();
+                crc.update(record);
+                frames.putInt(record.length).put(record)
+                    .putInt((int) crc.getValue()).putInt(record.length);
+            }
+            frames.flip();
+            while (frames.hasRemaining()) {
+                end += channel.write(frames, end);
+            }
+            return whole;
+        }
+    }
+
+    /** Returns the length of the part of the log open as CHANNEL that
+     *  holds whole records. Only the last record is read if the log
+     *  ends whole. */
+    private static long wholeLength(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        if (size >= FRAME_SIZE) {
+            ByteBuffer last = ByteBuffer.allocate(Integer.BYTES);
+            readFully(channel, last, size - Integer.BYTES);
+            long start = size - FRAME_SIZE - (last.getInt(0) & 0xffffffffL);
+            if (start >= 0 && frameEnd(channel, start) == size) {
+                return size;
+            }
+        }
+        long pos = 0;
+        for (long end; (end = frameEnd(channel, pos)) > 0; pos = end) {
+            continue;
+        }
+        return pos;
+    }
+
+    /** Returns the offset just past the record starting at POS in the
+     *  log open as CHANNEL, or -1 if there is no whole record there. */
+    private static long frameEnd(FileChannel channel, long pos)
+        throws IOException {
+        long size = channel.size();
+        if (pos + FRAME_SIZE > size) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, header, pos);
+        long length = header.getInt(0) & 0xffffffffL;
+        long end = pos + FRAME_SIZE + length;
+        if (end > size) {
+            return -1;
+        }
+        ByteBuffer frame = ByteBuffer.allocate((int) length
+                + 2 * Integer.BYTES);
+        readFully(channel, frame, pos + Integer.BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), 0, (int) length);
+        if (frame.getInt((int) length) != (int) crc.getValue()
+            || frame.getInt((int) length + Integer.BYTES) != length) {
+            return -1;
+        }
+        return end;
+    }
+
+    /** Fills BUF from the file open as CHANNEL, starting at POS. */
+    private static void readFully(FileChannel channel, ByteBuffer buf,
+                                  long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+    }
+
+    /** Writes this index as the base and empties the log. */
+    private void save() {
+        DIR.mkdirs();
+        _logged = 0;
+        Utils.writeObject(BASE, this);
+        LOG.delete();
+    }
+
+    /** Returns the contents of the log record for COMMIT, which changed
+     *  PATHS. */
+    private static byte[] record(Commit commit, List<String> paths) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeString(out, commit.getSha1());
+            out.writeLong(parseTimestamp(commit.getTimestamp()));
+            writeString(out, commit.getMessage());
+            out.writeInt(paths.size());
+            for (String path : paths) {
+                writeString(out, path);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Writes S to OUT as a length and UTF-8 bytes. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Returns a string written by writeString from IN. */
+    private static String readString(DataInputStream in)
+        throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** The directory holding the index. */
+    static final File DIR = new File(Main.COMMON, "search");
+
+    /** The snapshot of the index. */
+    static final File BASE = new File(DIR, "base");
+
+    /** Commits indexed since the snapshot. */
+    static final File LOG = new File(DIR, "log");
+
+    /** Format of commit timestamps. */
+    static final String TIMESTAMP_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
+
+    /** Version of the serialized base. */
+    private static final long serialVersionUID = 1L;
+
+    /** Size of the framing around each log record: its length before
+     *  and after it, and its CRC-32. */
+    private static final int FRAME_SIZE = 3 * Integer.BYTES;
+
+    /** Length of the n-grams indexed. */
+    private static final int GRAM = 3;
+
+    /** Number of logged commits after which the log is folded into
+     *  the base. */
+    private static final int COMPACT_THRESHOLD = 256;
+
+    /** Regular-expression characters that end a literal run. */
+    private static final String META = ".^$*+?()[]{}";
+
+    /** Commit ids by document number. */
+    private final ArrayList<String> _ids = new ArrayList<>();
+
+    /** Commit messages by document number. */
+    private final ArrayList<String> _messages = new ArrayList<>();
+
+    /** Commit times by document number. */
+    private final ArrayList<Long> _times = new ArrayList<>();
+
+    /** Document numbers by commit id. */
+    private final HashMap<String, Integer> _docs = new HashMap<>();
+
+    /** Documents whose messages contain each trigram, ascending. */
+    private final HashMap<String, ArrayList<Integer>> _grams =
+        new HashMap<>();
+
+    /** Documents by commit time. */
+    private final TreeMap<Long, ArrayList<Integer>> _byTime =
+        new TreeMap<>();
+
+    /** Documents that changed each file, ascending. */
+    private final HashMap<String, ArrayList<Integer>> _byPath =
+        new HashMap<>();
+
+    /** Number of records read from or added to the log. */
+    private transient int _logged;
+
+}
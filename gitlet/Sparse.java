@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/** Sparse-checkout patterns, kept one per line in
+ *  .gitlet/sparse-checkout. Each line is a glob such as "*.txt" or
+ *  "src-*"; a file belongs to the working directory iff it matches at
+ *  least one of them. With no patterns file, every file does. Files
+ *  outside the patterns stay tracked, and commits carry them along
+ *  unchanged, but checkout, reset and merge do not write them and
+ *  status does not look for them.
+ *  @author Ed Scerbo
+ */
+class Sparse {
+
+    /** The patterns PATTERNS. */
+    private Sparse(List<String> patterns) {
+        _patterns = patterns;
+        _matchers = new ArrayList<>();
+        for (String pattern : patterns) {
+            _matchers.add(FileSystems.getDefault()
+                    .getPathMatcher("glob:" + pattern));
+        }
+    }
+
+    /** Returns the patterns in effect. */
+    static Sparse read() {
+        return read(Main.GITLET);
+    }
+
+    /** Returns the patterns in effect in the repository whose .gitlet
+     *  directory is GITLET. */
+    static Sparse read(File gitlet) {
+        File file = new File(gitlet, FILE.getName());
+        List<String> patterns = new ArrayList<>();
+        if (file.isFile()) {
+            for (String line
+                     : Utils.readContentsAsString(file).split("\n")) {
+                if (!line.trim().isEmpty()) {
+                    patterns.add(line.trim());
+                }
+            }
+        }
+        return new Sparse(patterns);
+    }
+
+    /** Replaces the patterns with PATTERNS, or removes them if PATTERNS
+     *  is empty. Throws a GitletException if a pattern is malformed. */
+    static void write(Collection<String> patterns) {
+        if (patterns.isEmpty()) {
+            FILE.delete();
+            return;
+        }
+        StringBuilder contents = new StringBuilder();
+        for (String pattern : patterns) {
+            try {
+                FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            } catch (PatternSyntaxException excp) {
+                throw Utils.error("Bad pattern: %s", pattern);
+            }
+            contents.append(pattern).append("\n");
+        }
+        Utils.writeContents(FILE, contents.toString());
+    }
+
+    /** Returns true iff the checkout is sparse. */
+    boolean isSparse() {
+        return !_matchers.isEmpty();
+    }
+
+    /** Returns the patterns. */
+    List<String> patterns() {
+        return _patterns;
+    }
+
+    /** Returns true iff the file NAME belongs in the working
+     *  directory. */
+    boolean includes(String name) {
+        if (_matchers.isEmpty()) {
+            return true;
+        }
+        for (PathMatcher matcher : _matchers) {
+            if (matcher.matches(Paths.get(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The patterns file. */
+    static final File FILE = new File(Main.GITLET, "sparse-checkout");
+
+    /** The patterns as written. */
+    private final List<String> _patterns;
+
+    /** One matcher per pattern. */
+    private final List<PathMatcher> _matchers;
+
+}
@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Optional tracing of a single Gitlet command. Tracing is turned on
+ *  by setting the environment variable GITLET_TRACE to a file name, or
+ *  by giving --trace=FILE before the command. While it is on, timed
+ *  phases and counters are recorded, and when the command finishes
+ *  they are written to FILE in Chrome trace-event format, which can be
+ *  loaded into chrome://tracing or Perfetto. When tracing is off every
+ *  hook returns at once.
+ *  @author Ed Scerbo
+ */
+class Trace {
+
+    /** The quantities counted while tracing. */
+    enum Counter {
+        /** Objects read from the object store. */
+        OBJECTS_READ,
+        /** Objects written to the object store. */
+        OBJECTS_WRITTEN,
+        /** Bytes fed through SHA-1. */
+        BYTES_HASHED,
+        /** Commits deserialized. */
+        COMMITS_DESERIALIZED,
+        /** Files whose metadata was examined. */
+        FILES_STATED,
+        /** Directories listed. */
+        DIRECTORY_LISTINGS,
+        /** Files forced to disk. */
+        FSYNCS,
+        /** Files checked out as links to their blobs. */
+        FILES_LINKED
+    }
+
+    /** Turns tracing on if it was requested, either by the environment
+     *  or by a leading --trace=FILE in ARGS. Returns ARGS without that
+     *  option. */
+    static String[] start(String[] args) {
+        String file = System.getenv(ENV_VAR);
+        if (args.length > 0 && args[0].startsWith(OPTION)) {
+            file = args[0].substring(OPTION.length());
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (file != null && !file.isEmpty()) {
+            _file = new File(file);
+            _origin = System.nanoTime();
+            _enabled = true;
+            _command = args.length > 0 ? args[0] : "";
+        }
+        return args;
+    }
+
+    /** Returns true iff tracing is on. */
+    static boolean enabled() {
+        return _enabled;
+    }
+
+    /** Returns the start time of a phase, to be handed to end. */
+    static long begin() {
+        return _enabled ? System.nanoTime() : 0;
+    }
+
+    /** Records the phase NAME as having run from START until now. */
+    static void end(String name, long start) {
+        if (!_enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (EVENTS) {
+            EVENTS.add(new long[] {start - _origin, now - start,
+                Thread.currentThread().getId()});
+            NAMES.add(name);
+            long[] total = TOTALS.get(name);
+            if (total == null) {
+                total = new long[2];
+                TOTALS.put(name, total);
+            }
+            total[0] += 1;
+            total[1] += now - start;
+        }
+    }
+
+    /** Adds N to COUNTER. */
+    static void count(Counter counter, long n) {
+        if (_enabled) {
+            COUNTS.addAndGet(counter.ordinal(), n);
+        }
+    }
+
+    /** Writes the trace, if tracing is on. */
+    static void finish() {
+        if (!_enabled) {
+            return;
+        }
+        end("command " + _command, _origin);
+        StringBuilder out = new StringBuilder();
+        out.append("{\"traceEvents\":[\n");
+        synchronized (EVENTS) {
+            for (int i = 0; i < EVENTS.size(); i += 1) {
+                long[] event = EVENTS.get(i);
+                out.append(String.format("{\"name\":\"%s\",\"ph\":\"X\","
+                        + "\"ts\":%d,\"dur\":%d,\"pid\":1,\"tid\":%d},\n",
+                        escape(NAMES.get(i)), event[0] / NANOS_PER_MICRO,
+                        event[1] / NANOS_PER_MICRO, event[2]));
+            }
+        }
+        long endTime = (System.nanoTime() - _origin) / NANOS_PER_MICRO;
+        out.append(String.format("{\"name\":\"counters\",\"ph\":\"C\","
+                + "\"ts\":%d,\"pid\":1,\"args\":{%s}}\n", endTime,
+                counterFields()));
+        out.append("],\n\"otherData\":{\"command\":\"")
+            .append(escape(_command)).append("\",")
+            .append(counterFields());
+        for (String name : TOTALS.keySet()) {
+            long[] total = TOTALS.get(name);
+            out.append(String.format(",\"%s calls\":%d,\"%s us\":%d",
+                    escape(name), total[0], escape(name),
+                    total[1] / NANOS_PER_MICRO));
+        }
+        out.append("}}\n");
+        Utils.writeContents(_file, out.toString());
+    }
+
+    /** Returns the counters as comma-separated JSON fields. */
+    private static String counterFields() {
+        List<String> fields = new ArrayList<>();
+        for (Counter counter : Counter.values()) {
+            fields.add(String.format("\"%s\":%d",
+                    counter.name().toLowerCase(),
+                    COUNTS.get(counter.ordinal())));
+        }
+        return String.join(",", fields);
+    }
+
+    /** Returns S escaped for use inside a JSON string. */
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /** Environment variable naming the trace file. */
+    static final String ENV_VAR = "GITLET_TRACE";
+
+    /** Command-line option naming the trace file. */
+    static final String OPTION = "--trace=";
+
+    /** Nanoseconds per microsecond, the unit of trace timestamps. */
+    private static final long NANOS_PER_MICRO = 1000;
+
+    /** True iff tracing is on. */
+    private static volatile boolean _enabled;
+
+    /** File the trace is written to. */
+    private static File _file;
+
+    /** The command being traced. */
+    private static String _command;
+
+    /** Time the trace started, in nanoseconds. */
+    private static long _origin;
+
+    /** Start offset, duration and thread of each recorded phase. */
+    private static final List<long[]> EVENTS = new ArrayList<>();
+
+    /** Name of each recorded phase. */
+    private static final List<String> NAMES = new ArrayList<>();
+
+    /** Number of calls and total time of each phase, by name. */
+    private static final TreeMap<String, long[]> TOTALS = new TreeMap<>();
+
+    /** Current value of each counter. */
+    private static final AtomicLongArray COUNTS =
+        new AtomicLongArray(Counter.values().length);
+
+}
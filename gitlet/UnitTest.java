@@ -3,7 +3,23 @@ package gitlet;
 import ucb.junit.textui;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /** The suite of all JUnit tests for the gitlet package.
  *  @author
@@ -25,9 +41,8 @@ public class UnitTest {
         Utils.writeContents(g, "This is not a wug.");
         Main.doAdd("add", "g.txt");
         Main.doAdd("add", "f.txt");
-        File stagedF = new File(Main.STAGED, "f.txt");
-        File stagedG = new File(Main.STAGED, "g.txt");
-        assertTrue(stagedF.exists() && stagedG.exists());
+        Index index = Index.read(Main.INDEX);
+        assertTrue(index.isStaged("f.txt") && index.isStaged("g.txt"));
         Utils.restrictedDelete(f);
         Utils.restrictedDelete(g);
         Utils.recursiveDelete(Main.GITLET);
@@ -43,11 +58,10 @@ public class UnitTest {
         Utils.writeContents(g, "This is not a wug.");
         Main.doAdd("add", "g.txt");
         Main.doAdd("add", "f.txt");
-        File stagedF = new File(Main.STAGED, "f.txt");
-        File stagedG = new File(Main.STAGED, "g.txt");
-        assertTrue(stagedF.exists() && stagedG.exists());
+        Index index = Index.read(Main.INDEX);
+        assertTrue(index.isStaged("f.txt") && index.isStaged("g.txt"));
         Main.doCommit("commit", "Two files");
-        assertTrue(!stagedF.exists() && !stagedG.exists());
+        assertTrue(Index.read(Main.INDEX).isEmpty());
         Main.doRemove("rm", "f.txt");
         assertFalse(f.exists());
         Utils.restrictedDelete(f);
@@ -125,8 +139,7 @@ public class UnitTest {
         Main.doAdd("add", "f.txt");
         Main.doCommit("commit", "Two files");
         Main.doAdd("add", "f.txt");
-        File stagedF = new File(Main.STAGED, "f.txt");
-        assertFalse(stagedF.exists());
+        assertFalse(Index.read(Main.INDEX).isStaged("f.txt"));
         Utils.restrictedDelete(f);
         Utils.restrictedDelete(g);
         Utils.recursiveDelete(Main.GITLET);
@@ -236,6 +249,837 @@ public class UnitTest {
         assertFalse(f.exists() || g.exists() || h.exists()
                 || k.exists() || Main.GITLET.exists());
     }
-}
 
+    @Test
+    public void tornJournalTest() {
+        Main.doInit("init");
+        File a = new File(Main.GITLET, "a");
+        File b = new File(Main.GITLET, "b");
+        Journal.begin();
+        Main.writeBlob(Utils.sha1("blob"), "blob".getBytes());
+        Journal.defer(a, "one".getBytes());
+        Journal.commit();
+        byte[] first = Utils.readContents(Journal.JOURNAL);
+        Journal.begin();
+        Journal.defer(b, "two".getBytes());
+        Journal.commit();
+        byte[] both = Utils.readContents(Journal.JOURNAL);
+        int applied = "APPLIED\n".length();
+        byte[] torn = Arrays.copyOf(first, first.length - applied
+                + (both.length - first.length) / 2);
+        System.arraycopy(both, first.length, torn, first.length - applied,
+                (both.length - first.length) / 2);
+        Utils.writeContents(Journal.JOURNAL, torn);
+        a.delete();
+        b.delete();
+        Journal.recover();
+        assertEquals("one", Utils.readContentsAsString(a));
+        assertFalse(b.exists());
+        assertEquals(0, Journal.JOURNAL.length());
+        assertEquals("blob", new String(Main.readBlob(Utils.sha1("blob"))));
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void journalReplayTest() {
+        Main.doInit("init");
+        File a = new File(Main.GITLET, "a");
+        File log = new File(Main.GITLET, "log");
+        Journal.begin();
+        Journal.defer(a, "one".getBytes());
+        Journal.deferAppend(log, "abcd".getBytes(), 4);
+        Journal.commit();
+        Utils.writeContents(a, "moved outside");
+        Utils.writeContents(Journal.JOURNAL,
+                Utils.readContents(Journal.JOURNAL), "B");
+        Journal.recover();
+        assertEquals("moved outside", Utils.readContentsAsString(a));
+        assertEquals("abcd", Utils.readContentsAsString(log));
+
+        Utils.writeContents(log, "abcd", "e");
+        Journal.begin();
+        Journal.defer(a, "two".getBytes());
+        Journal.deferAppend(log, "efgh".getBytes(), 4);
+        Journal.commit();
+        assertEquals("abcdefgh", Utils.readContentsAsString(log));
+        byte[] journal = Utils.readContents(Journal.JOURNAL);
+        Utils.writeContents(Journal.JOURNAL, Arrays.copyOf(journal,
+                journal.length - "APPLIED\n".length()));
+        Journal.recover();
+        assertEquals("two", Utils.readContentsAsString(a));
+        assertEquals("abcdefgh", Utils.readContentsAsString(log));
+
+        Journal.begin();
+        Journal.deferAppend(log, "ijkl".getBytes(), 4);
+        Journal.abort();
+        assertEquals("abcdefgh", Utils.readContentsAsString(log));
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void searchLiteralsTest() {
+        assertEquals(Arrays.asList("foo", "bar"),
+                SearchIndex.literals("foo.*bar"));
+        assertEquals(Arrays.asList("colo"), SearchIndex.literals("colou?r"));
+        assertEquals(Arrays.asList("a.b c"),
+                SearchIndex.literals("a\\.b\\ c"));
+        assertEquals(Arrays.asList("def"),
+                SearchIndex.literals("[abc]+def"));
+        assertTrue(SearchIndex.literals("ab").isEmpty());
+        assertTrue(SearchIndex.literals("wug|bug").isEmpty());
+        assertTrue(SearchIndex.literals("(wug)s").isEmpty());
+        assertTrue(SearchIndex.literals("\\d\\d\\d").isEmpty());
+    }
 
+    @Test
+    public void reflogResolveTest() {
+        Main.doInit("init");
+        String initial = Main.headSHA1();
+        File f = new File("f.txt");
+        Utils.writeContents(f, "This is a wug.");
+        Main.doAdd("add", "f.txt");
+        Main.doCommit("commit", "One");
+        String one = Main.headSHA1();
+        File log = new File(new File(Reflog.BRANCH_LOGS, "branches"),
+                "master");
+        Utils.writeContents(log, Utils.readContents(log), "torn");
+        Utils.writeContents(f, "This is not a wug.");
+        Main.doAdd("add", "f.txt");
+        Main.doCommit("commit", "Two");
+        String two = Main.headSHA1();
+        assertEquals(two, Reflog.resolve("master@{0}"));
+        assertEquals(one, Reflog.resolve("master@{1}"));
+        assertEquals(initial, Reflog.resolve("@{2}"));
+        assertEquals(two, Reflog.resolve("master@{2100-01-01}"));
+        try {
+            Reflog.resolve("master@{3}");
+            assertTrue(false);
+        } catch (GitletException excp) {
+            assertTrue(excp.getMessage().contains("only 3 entries"));
+        }
+        try {
+            Reflog.resolve("master@{2000-01-01}");
+            assertTrue(false);
+        } catch (GitletException excp) {
+            assertTrue(excp.getMessage().contains("that far"));
+        }
+        Utils.restrictedDelete(f);
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(f.exists() || Main.GITLET.exists());
+    }
+
+    /** Checks that STORE, which holds no objects, stores and returns
+     *  them as every ObjectStore must. */
+    private static void checkObjectStore(ObjectStore store) {
+        ObjectStore.Kind blob = ObjectStore.Kind.BLOB;
+        String[] ids = new String[3];
+        for (int i = 0; i < ids.length; i += 1) {
+            byte[] contents = ("object " + i).getBytes();
+            ids[i] = Utils.sha1(contents);
+            assertFalse(store.contains(blob, ids[i]));
+            assertNull(store.get(blob, ids[i]));
+            store.put(blob, ids[i], contents);
+            store.put(blob, ids[i], contents);
+        }
+        for (int i = 0; i < ids.length; i += 1) {
+            assertTrue(store.contains(blob, ids[i]));
+            assertFalse(store.contains(ObjectStore.Kind.COMMIT, ids[i]));
+            assertEquals("object " + i, new String(store.get(blob, ids[i])));
+        }
+        String[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        assertEquals(Arrays.asList(sorted), store.list(blob, ""));
+        assertEquals(Arrays.asList(ids[1]),
+                store.list(blob, ids[1].substring(0, 6)));
+        assertTrue(store.list(ObjectStore.Kind.COMMIT, "").isEmpty());
+        String absent = Utils.sha1("absent");
+        assertEquals(Arrays.asList(absent),
+                store.missing(blob, Arrays.asList(ids[0], absent)));
+        Map<String, byte[]> all =
+            store.getAll(blob, Arrays.asList(ids[2], absent, ids[0]));
+        assertEquals(Arrays.asList(ids[2], ids[0]),
+                new ArrayList<>(all.keySet()));
+        assertEquals("object 0", new String(all.get(ids[0])));
+    }
+
+    @Test
+    public void objectStoreContractTest() throws IOException {
+        File dir = new File("storetest");
+        dir.mkdir();
+        checkObjectStore(new MemoryObjectStore());
+        checkObjectStore(new LooseObjectStore(dir));
+        File pack = new File(dir, "test" + Main.PACK_SUFFIX);
+        File index = PackObjectStore.indexFile(pack);
+        PackObjectStore writer = new PackObjectStore(pack, index);
+        checkObjectStore(writer);
+        writer.close();
+        assertTrue(index.isFile());
+        PackObjectStore reader = new PackObjectStore(pack);
+        assertEquals(3, reader.list(ObjectStore.Kind.BLOB, "").size());
+        assertEquals("object 1", new String(reader.get(ObjectStore.Kind.BLOB,
+                Utils.sha1("object 1".getBytes()))));
+        reader.close();
+        Utils.recursiveDelete(dir);
+        assertFalse(dir.exists());
+    }
+
+    @Test
+    public void tornPackTest() throws IOException {
+        File dir = new File("storetest");
+        dir.mkdir();
+        File pack = new File(dir, "test" + Main.PACK_SUFFIX);
+        File index = PackObjectStore.indexFile(pack);
+        PackObjectStore writer = new PackObjectStore(pack, index);
+        checkObjectStore(writer);
+        writer.close();
+        long whole = pack.length();
+        index.delete();
+        byte[] torn = Arrays.copyOf(Utils.readContents(pack),
+                (int) whole + 10);
+        torn[(int) whole] = ObjectStore.Kind.BLOB.code();
+        Utils.writeContents(pack, torn);
+        PackObjectStore reader = new PackObjectStore(pack);
+        assertEquals(3, reader.list(ObjectStore.Kind.BLOB, "").size());
+        assertEquals("object 2", new String(reader.get(ObjectStore.Kind.BLOB,
+                Utils.sha1("object 2".getBytes()))));
+        reader.close();
+        assertEquals(whole + 10, pack.length());
+        writer = new PackObjectStore(pack, index);
+        assertEquals(whole, pack.length());
+        writer.put(ObjectStore.Kind.COMMIT, Utils.sha1("c"),
+                "c".getBytes());
+        writer.close();
+        reader = new PackObjectStore(pack);
+        assertEquals(3, reader.list(ObjectStore.Kind.BLOB, "").size());
+        assertEquals("c", new String(reader.get(ObjectStore.Kind.COMMIT,
+                Utils.sha1("c"))));
+        reader.close();
+        Utils.recursiveDelete(dir);
+        assertFalse(dir.exists());
+    }
+
+    /** Makes the repository in the current directory, and the files F
+     *  and G in it, those of the working directory DIR instead. */
+    private static void moveRepository(File dir, File... files)
+        throws IOException {
+        dir.mkdir();
+        Files.move(Main.GITLET.toPath(),
+                new File(dir, Main.GITLET.getName()).toPath());
+        for (File file : files) {
+            Files.move(file.toPath(), new File(dir, file.getName()).toPath());
+        }
+    }
+
+    /** Returns the messages of the commits of the log of REV in
+     *  REPOSITORY. */
+    private static List<String> messages(Repository repository,
+                                         String rev) {
+        List<String> result = new ArrayList<>();
+        for (Repository.LogEntry entry : repository.log(rev)) {
+            result.add(entry.message());
+        }
+        return result;
+    }
+
+    @Test
+    public void deepenedSearchIndexTest() throws IOException {
+        File f = new File("f.txt");
+        Main.doInit("init");
+        commitFile("f.txt", "one", "old one");
+        String two = commitFile("f.txt", "two", "old two");
+        commitFile("f.txt", "three", "new three");
+        File source = new File("promisortest");
+        moveRepository(source, f);
+        Main.useObjects(null);
+        Main.doClone("clone", source.getPath(), "--depth=1");
+        SearchIndex index = SearchIndex.load();
+        assertTrue(index.equalTo("old two").isEmpty());
+        int shallow = index.all().cardinality();
+        assertTrue(Promisor.fetchCommit(two));
+        index = SearchIndex.load();
+        assertEquals(Arrays.asList(two), index.ids(index.equalTo("old two")));
+        assertEquals(shallow + 3, index.all().cardinality());
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(source);
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void racyStatusTest() throws IOException {
+        File f = new File("f.txt");
+        Main.doInit("init");
+        Utils.writeContents(f, "one");
+        Main.doAdd("add", "f.txt");
+        File dir = new File("racytest");
+        moveRepository(dir, f);
+        File moved = new File(dir, f.getName());
+        long mtime = moved.lastModified();
+        Utils.writeContents(moved, "two");
+        moved.setLastModified(mtime);
+        assertEquals("[STAGED f.txt, MODIFIED f.txt]",
+                Repository.open(dir).status().toString());
+        Utils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void shallowNameStatusTest() throws IOException {
+        File f = new File("f.txt");
+        Main.doInit("init");
+        commitFile("f.txt", "one", "old one");
+        commitFile("f.txt", "two", "new two");
+        File source = new File("shallowtest");
+        moveRepository(source, f);
+        Main.useObjects(null);
+        Main.doClone("clone", source.getPath(), "--depth=1");
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(log));
+        try {
+            Main.commitHistory(Main.headCommit(), true);
+        } finally {
+            System.setOut(stdout);
+        }
+        assertTrue(log.toString().contains("new two"));
+        assertTrue(log.toString().contains("A f.txt"));
+        assertFalse(log.toString().contains("old one"));
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(source);
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void repairObjectTest() {
+        Main.doInit("init");
+        commitFile("f.txt", "one", "one");
+        String blob = Utils.sha1("one".getBytes());
+        LooseObjectStore store = new LooseObjectStore(Main.COMMON);
+        File stored = store.file(ObjectStore.Kind.BLOB, blob);
+        stored.setWritable(true);
+        Utils.writeContents(stored, "two");
+        store.put(ObjectStore.Kind.BLOB, blob, "one".getBytes());
+        assertEquals("one", Utils.readContentsAsString(stored));
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void repositoriesTest() throws IOException {
+        File f = new File("f.txt");
+        File g = new File("g.txt");
+        Main.doInit("init");
+        Utils.writeContents(f, "A one");
+        Main.doAdd("add", "f.txt");
+        Main.doCommit("commit", "A one");
+        Main.doBranch("branch", "side");
+        Utils.writeContents(f, "A two");
+        Main.doAdd("add", "f.txt");
+        Main.doCommit("commit", "A two");
+        Main.doCheckout("checkout", "side");
+        Utils.writeContents(g, "side");
+        Main.doAdd("add", "g.txt");
+        Main.doCommit("commit", "A side");
+        Main.doCheckout("checkout", "master");
+        File dirA = new File("repotestA");
+        moveRepository(dirA, f);
+        Main.doInit("init");
+        Utils.writeContents(f, "B one");
+        Main.doAdd("add", "f.txt");
+        Main.doCommit("commit", "B one");
+        Utils.writeContents(g, "untracked");
+        File dirB = new File("repotestB");
+        moveRepository(dirB, f, g);
+
+        Repository a = Repository.open(dirA);
+        Repository b = Repository.open(dirB);
+        assertTrue(a.status().isEmpty());
+        assertEquals("[UNTRACKED g.txt]", b.status().toString());
+        assertEquals(Arrays.asList("A two", "A one", "initial commit"),
+                messages(a, "master"));
+        assertEquals(Arrays.asList("B one", "initial commit"),
+                messages(b, "master"));
+        Repository.MergeResult merge = a.merge("master", "side");
+        assertTrue(merge.isClean());
+        assertEquals(a.log("side").iterator().next().parent(), merge.base());
+        assertEquals(new HashSet<>(Arrays.asList("f.txt", "g.txt")),
+                merge.tracked().keySet());
+        assertEquals("A two", new String(a.contents("master", "f.txt")));
+        assertEquals("B one", new String(b.contents("master", "f.txt")));
+        try {
+            b.merge("master", "side");
+            assertTrue(false);
+        } catch (GitletException excp) {
+            assertTrue(b.branches().keySet().equals(
+                    new HashSet<>(Arrays.asList("master"))));
+        }
+        Utils.recursiveDelete(dirA);
+        Utils.recursiveDelete(dirB);
+        assertFalse(dirA.exists() || dirB.exists());
+    }
+
+    @Test
+    public void indexRoundTripTest() {
+        File f = new File("f.txt");
+        Utils.writeContents(f, "This is a wug.");
+        String wug = Utils.sha1("This is a wug.".getBytes());
+        String sparse = Utils.sha1("sparse");
+        Index index = new Index();
+        index.stage("f.txt", wug, f);
+        index.stage("d/\u00e9t\u00e9.txt", sparse);
+        index.remove("gone.txt");
+        File file = new File("indextest");
+        index.write(file);
+        Index read = Index.read(file);
+        assertEquals(index.staged(), read.staged());
+        assertEquals(index.removed(), read.removed());
+        assertEquals(new TreeSet<>(Arrays.asList("f.txt",
+                "d/\u00e9t\u00e9.txt")), read.staged());
+        assertEquals(wug, read.get("f.txt").blob());
+        assertEquals(f.length(), read.get("f.txt").size());
+        assertEquals(f.lastModified(), read.get("f.txt").mtime());
+        assertEquals(-1, read.get("d/\u00e9t\u00e9.txt").size());
+        assertTrue(read.isRemoved("gone.txt"));
+        assertNull(read.get("gone.txt").blob());
+        assertTrue(Index.read(new File("noindex")).isEmpty());
+        byte[] contents = Utils.readContents(file);
+        contents[contents.length / 2] ^= 1;
+        Utils.writeContents(file, contents);
+        try {
+            Index.read(file);
+            assertTrue(false);
+        } catch (GitletException excp) {
+            assertEquals("Corrupt index file.", excp.getMessage());
+        }
+        Utils.writeContents(file, Arrays.copyOf(contents, 10));
+        try {
+            Index.read(file);
+            assertTrue(false);
+        } catch (GitletException excp) {
+            assertEquals("Corrupt index file.", excp.getMessage());
+        }
+        assertEquals(wug, Index.toHex(Index.toBytes(wug)));
+        file.delete();
+        f.delete();
+        assertFalse(file.exists() || f.exists());
+    }
+
+    /** Stores CONTENTS as a blob in STORE and returns its id. */
+    private static String blob(ObjectStore store, String contents) {
+        byte[] bytes = contents.getBytes();
+        String sha1 = Utils.sha1(bytes);
+        store.put(ObjectStore.Kind.BLOB, sha1, bytes);
+        return sha1;
+    }
+
+    /** Returns N numbered lines, each starting with PREFIX. */
+    private static String lines(String prefix, int n) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            result.append(prefix).append(i).append("\n");
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void renamesTest() {
+        MemoryObjectStore store = new MemoryObjectStore();
+        String text = lines("line ", 40);
+        String edited = text.replace("line 7\n", "line seven\n");
+        String moved = blob(store, lines("moved ", 10));
+        String same = blob(store, lines("same ", 10));
+        HashMap<String, String> before = new HashMap<>();
+        before.put("a.txt", blob(store, text));
+        before.put("b.txt", moved);
+        before.put("same.txt", same);
+        before.put("gone.txt", blob(store, lines("gone ", 10)));
+        HashMap<String, String> after = new HashMap<>();
+        after.put("a2.txt", blob(store, edited));
+        after.put("b2.txt", moved);
+        after.put("same.txt", same);
+        after.put("copy.txt", same);
+        after.put("new.txt", blob(store, lines("unrelated ", 10)));
+        List<String> renames = Main.withObjects(store, () -> {
+            List<String> result = new ArrayList<>();
+            for (Renames.Pair pair : Renames.detect(before, after, false)) {
+                result.add(pair.toString());
+            }
+            return result;
+        });
+        assertEquals(2, renames.size());
+        assertTrue(renames.get(0).matches("R0[5-9][0-9] a.txt -> a2.txt"));
+        assertEquals("R100 b.txt -> b2.txt", renames.get(1));
+        List<String> copies = Main.withObjects(store, () -> {
+            List<String> result = new ArrayList<>();
+            for (Renames.Pair pair : Renames.detect(before, after, true)) {
+                result.add(pair.toString());
+            }
+            return result;
+        });
+        assertEquals(3, copies.size());
+        assertEquals("C100 same.txt -> copy.txt", copies.get(2));
+        int[] sig = Renames.signature(text.getBytes());
+        assertEquals(Renames.MAX_SCORE, Renames.similarity(sig, sig));
+        assertTrue(Renames.similarity(sig,
+                Renames.signature(lines("other ", 40).getBytes()))
+                < Renames.MIN_SCORE);
+        assertNull(Renames.signature(new byte[0]));
+    }
+
+    /** Writes CONTENTS to the file NAME, stages it and commits it with
+     *  MESSAGE, returning the new commit's id. */
+    private static String commitFile(String name, String contents,
+                                     String message) {
+        Utils.writeContents(new File(name), contents);
+        Main.doAdd("add", name);
+        Main.doCommit("commit", message);
+        return Main.headSHA1();
+    }
+
+    @Test
+    public void commitGraphTest() {
+        Main.doInit("init");
+        String initial = Main.headSHA1();
+        String one = commitFile("f.txt", "one", "one");
+        Main.doBranch("branch", "side");
+        String two = commitFile("f.txt", "two", "two");
+        Main.doCheckout("checkout", "side");
+        String three = commitFile("g.txt", "three", "three");
+        Main.doCommitGraph("commit-graph");
+        String four = commitFile("g.txt", "four", "four");
+        CommitGraph graph = CommitGraph.read(Main.COMMON);
+        assertEquals(4, graph.size());
+        assertEquals(-1, graph.position(four));
+        assertTrue(graph.isAncestor(initial, two));
+        assertTrue(graph.isAncestor(one, three));
+        assertTrue(graph.isAncestor(two, two));
+        assertFalse(graph.isAncestor(two, three));
+        assertFalse(graph.isAncestor(three, two));
+        assertFalse(graph.isAncestor(two, initial));
+        assertTrue(graph.isAncestor(one, four));
+        assertTrue(graph.isAncestor(three, four));
+        assertFalse(graph.isAncestor(four, three));
+        assertFalse(graph.isAncestor(two, four));
+        assertEquals(Arrays.asList(four, three),
+                graph.missing(Arrays.asList(four), Arrays.asList(two)));
+        assertTrue(graph.missing(Arrays.asList(one),
+                Arrays.asList(two)).isEmpty());
+        Utils.restrictedDelete("f.txt");
+        Utils.restrictedDelete("g.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void truncatedCommitGraphTest() {
+        Main.doInit("init");
+        String one = commitFile("f.txt", "one", "one");
+        String two = commitFile("f.txt", "two", "two");
+        Main.doCommitGraph("commit-graph");
+        File file = new File(Main.COMMON, CommitGraph.FILE_NAME);
+        byte[] bytes = Utils.readContents(file);
+        assertFalse(new File(Main.COMMON,
+                CommitGraph.FILE_NAME + ".tmp").exists());
+        Utils.writeContents(file, Arrays.copyOf(bytes, bytes.length / 2));
+        assertEquals(0, CommitGraph.read(Main.COMMON).size());
+        assertTrue(Main.isAncestor(one, two));
+        assertFalse(Main.isAncestor(two, one));
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void pathBloomTest() {
+        Main.doInit("init");
+        String[] commits = new String[10];
+        for (int i = 0; i < commits.length; i += 1) {
+            commits[i] = commitFile("f" + i + ".txt", "version " + i,
+                    "commit " + i);
+        }
+        Main.doCommitGraph("commit-graph");
+        CommitGraph graph = CommitGraph.read(Main.COMMON);
+        assertFalse(graph.mayHaveChanged(0, "f0.txt"));
+        int ruledOut = 0;
+        for (int i = 0; i < commits.length; i += 1) {
+            int pos = graph.position(commits[i]);
+            assertTrue(graph.mayHaveChanged(pos, "f" + i + ".txt"));
+            for (int j = 0; j < 50; j += 1) {
+                if (!graph.mayHaveChanged(pos, "other/g" + j + ".txt")) {
+                    ruledOut += 1;
+                }
+            }
+        }
+        assertTrue(ruledOut >= 450);
+        for (int i = 0; i < commits.length; i += 1) {
+            Utils.restrictedDelete("f" + i + ".txt");
+        }
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    /** Returns the result of Blame.match on the lines of OLD and NOW,
+     *  given as strings of one-character lines. */
+    private static String match(String old, String now) {
+        return Arrays.toString(Blame.match(old.isEmpty() ? new String[0]
+                : old.split(""), now.isEmpty() ? new String[0]
+                : now.split("")));
+    }
+
+    @Test
+    public void blameMatchTest() {
+        assertEquals("[0, 1, 2]", match("abc", "abc"));
+        assertEquals("[0, -1, 1, 2]", match("abc", "axbc"));
+        assertEquals("[0, 2]", match("abc", "ac"));
+        assertEquals("[0, -1, 2]", match("abc", "ayc"));
+        assertEquals("[-1, -1]", match("", "ab"));
+        assertEquals("[]", match("ab", ""));
+        assertEquals("[-1, -1]", match("ab", "cd"));
+        String old = "abcabba";
+        String now = "cbabac";
+        int[] kept = Blame.match(old.split(""), now.split(""));
+        int matched = 0;
+        int last = -1;
+        for (int i = 0; i < kept.length; i += 1) {
+            if (kept[i] >= 0) {
+                assertEquals(old.charAt(kept[i]), now.charAt(i));
+                assertTrue(kept[i] > last);
+                last = kept[i];
+                matched += 1;
+            }
+        }
+        assertEquals(4, matched);
+    }
+
+    @Test
+    public void blameOriginsTest() {
+        Main.doInit("init");
+        String one = commitFile("f.txt", "a\nb\n", "one");
+        String two = commitFile("f.txt", "a\nx\nb\n", "two");
+        String three = commitFile("f.txt", "a\nx\n", "three");
+        assertEquals(Arrays.asList(one, two, one),
+                Arrays.asList(new Blame(two, "f.txt").origins()));
+        assertEquals(Arrays.asList(one, two),
+                Arrays.asList(new Blame(three, "f.txt").origins()));
+        assertEquals(Arrays.asList("a", "x"),
+                Arrays.asList(new Blame(three, "f.txt").lines()));
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    /** Returns the message of the GitletException thrown by BODY, or
+     *  null if it throws none. */
+    private static String gitletError(Runnable body) {
+        try {
+            body.run();
+            return null;
+        } catch (GitletException excp) {
+            return excp.getMessage();
+        }
+    }
+
+    @Test
+    public void packRoundTripTest() throws IOException {
+        Main.doInit("init");
+        String blobOne = Utils.sha1("one".getBytes());
+        String blobTwo = Utils.sha1("two".getBytes());
+        String one = commitFile("f.txt", "one", "one");
+        String two = commitFile("f.txt", "two", "two");
+        File pack = new File("packtest");
+        Pack.write(pack, Main.COMMON, Arrays.asList(two, one),
+                Arrays.asList(blobOne, blobTwo));
+        File target = new File("packtarget");
+        assertEquals(4, Pack.unpack(pack, target));
+        assertEquals(0, Pack.unpack(pack, target));
+        ObjectStore store = Main.objects(target);
+        assertEquals("two", new String(store.get(ObjectStore.Kind.BLOB,
+                blobTwo)));
+        assertEquals("two", Main.readCommit(target, two).getMessage());
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        try (InflaterInputStream in = new InflaterInputStream(
+                new FileInputStream(pack))) {
+            in.transferTo(raw);
+        }
+        byte[] bytes = raw.toByteArray();
+        int at = new String(bytes, "ISO-8859-1").indexOf("one");
+        bytes[at] = 'O';
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(packed)) {
+            out.write(bytes);
+        }
+        File corrupt = new File("packcorrupt");
+        Utils.writeContents(corrupt, packed.toByteArray());
+        File other = new File("packother");
+        assertEquals("Corrupt object " + blobOne + " in pack.",
+                gitletError(() -> Pack.unpack(corrupt, other)));
+        byte[] whole = Utils.readContents(pack);
+        Utils.writeContents(corrupt, Arrays.copyOf(whole,
+                whole.length / 2));
+        assertEquals("Truncated pack.",
+                gitletError(() -> Pack.unpack(corrupt, other)));
+        for (File file : new File[] {pack, corrupt, target, other}) {
+            if (file.exists()) {
+                Utils.recursiveDelete(file);
+            }
+        }
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(pack.exists() || target.exists() || other.exists());
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void bundleRoundTripTest() {
+        Main.doInit("init");
+        String one = commitFile("f.txt", "one", "one");
+        Main.doBranch("branch", "side");
+        String two = commitFile("f.txt", "two", "two");
+        Map<String, String> branches = new LinkedHashMap<>();
+        branches.put("master", two);
+        branches.put("side", one);
+        File bundle = new File("bundletest");
+        assertEquals(5, Bundle.create(bundle, branches));
+        Utils.recursiveDelete(Main.GITLET);
+        Main.doInit("init");
+        assertEquals(branches, Bundle.unbundle(bundle));
+        assertEquals("two", Main.retrieveCommit(two).getMessage());
+        assertEquals("one", new String(Main.readBlob(
+                Main.retrieveCommit(one).getTracked().get("f.txt"))));
+        assertEquals(branches, Bundle.unbundle(bundle));
+
+        byte[] whole = Utils.readContents(bundle);
+        File corrupt = new File("bundlecorrupt");
+        byte[] bytes = whole.clone();
+        bytes[bytes.length - 1] ^= 1;
+        Utils.writeContents(corrupt, bytes);
+        assertEquals("Corrupt bundle.",
+                gitletError(() -> Bundle.unbundle(corrupt)));
+        bytes = whole.clone();
+        bytes[0] = 'X';
+        Utils.writeContents(corrupt, bytes);
+        assertEquals("Not a bundle.",
+                gitletError(() -> Bundle.unbundle(corrupt)));
+        Utils.writeContents(corrupt, Arrays.copyOf(whole,
+                whole.length - 4));
+        assertEquals("Truncated bundle.",
+                gitletError(() -> Bundle.unbundle(corrupt)));
+        bundle.delete();
+        corrupt.delete();
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(bundle.exists() || Main.GITLET.exists());
+    }
+
+    @Test
+    public void packedRefsTest() {
+        Main.doInit("init");
+        String initial = Main.headSHA1();
+        Main.doBranch("branch", "b1");
+        Main.doBranch("branch", "b2");
+        Refs.set("origin/b3", initial, Reflog.Action.FETCH);
+        assertEquals(4, Refs.pack());
+        assertFalse(new File(Main.BRANCHES, "b1").exists());
+        assertFalse(new File(Main.BRANCHES, "origin").exists());
+        assertTrue(new File(Main.COMMON, Refs.PACKED_NAME).isFile());
+        String one = commitFile("f.txt", "one", "one");
+        Refs.set("b1", one, Reflog.Action.RESET);
+        Refs.delete("b2");
+        TreeMap<String, String> expected = new TreeMap<>();
+        expected.put("master", one);
+        expected.put("b1", one);
+        expected.put("origin/b3", initial);
+        assertEquals(expected, Refs.all());
+        Refs.clear();
+        assertEquals(expected, Refs.all());
+        assertEquals(expected, Refs.read(Main.COMMON));
+        assertNull(Refs.get("b2"));
+        assertEquals(initial, Refs.get("origin/b3"));
+        assertEquals(2, Refs.pack());
+        Refs.clear();
+        assertEquals(expected, Refs.all());
+        assertEquals(one, Main.headSHA1());
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void linkedBlobTest() throws IOException {
+        Main.doInit("init");
+        commitFile("f.txt", "one", "one");
+        String blob = Utils.sha1("one".getBytes());
+        File stored = Main.objects().file(ObjectStore.Kind.BLOB, blob);
+        assertEquals(1, Main.linkCount(stored));
+        File link = new File("linked.txt");
+        Files.createLink(link.toPath(), stored.toPath());
+        assertEquals(2, Main.linkCount(stored));
+        assertTrue(Fsck.check().isEmpty());
+        link.setWritable(true);
+        Utils.writeContents(link, "edited");
+        Main.useObjects(null);
+        assertEquals(Arrays.asList("corrupt blob " + blob
+                + " (hard-linked into a working tree)"), Fsck.check());
+        link.delete();
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(Main.GITLET.exists());
+    }
+
+    /** Rewrites the stored commit SHA1 in the older form, which
+     *  serializes the commit with its own id set, and returns the new
+     *  contents. */
+    private static byte[] legacyCommit(String sha1) {
+        Commit commit = Main.retrieveCommit(sha1);
+        byte[] legacy = Utils.serialize(commit);
+        File stored = Main.objects().file(ObjectStore.Kind.COMMIT, sha1);
+        stored.setWritable(true);
+        Utils.writeContents(stored, legacy);
+        Main.useObjects(null);
+        return legacy;
+    }
+
+    @Test
+    public void legacyCommitPackTest() {
+        Main.doInit("init");
+        String blob = Utils.sha1("one".getBytes());
+        String one = commitFile("f.txt", "one", "one");
+        byte[] legacy = legacyCommit(one);
+        assertFalse(Utils.sha1(legacy).equals(one));
+        File pack = new File("packtest");
+        Pack.write(pack, Main.COMMON, Arrays.asList(one),
+                Arrays.asList(blob));
+        File target = new File("packtarget");
+        assertEquals(2, Pack.unpack(pack, target));
+        assertEquals("one", Main.readCommit(target, one).getMessage());
+        pack.delete();
+        Utils.recursiveDelete(target);
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(pack.exists() || target.exists());
+        assertFalse(Main.GITLET.exists());
+    }
+
+    @Test
+    public void legacyCommitBundleTest() {
+        Main.doInit("init");
+        String one = commitFile("f.txt", "one", "one");
+        legacyCommit(one);
+        Map<String, String> branches = new LinkedHashMap<>();
+        branches.put("master", one);
+        File bundle = new File("bundletest");
+        assertEquals(3, Bundle.create(bundle, branches));
+        Utils.recursiveDelete(Main.GITLET);
+        Main.doInit("init");
+        assertEquals(branches, Bundle.unbundle(bundle));
+        assertEquals("one", Main.retrieveCommit(one).getMessage());
+        bundle.delete();
+        Utils.restrictedDelete("f.txt");
+        Utils.recursiveDelete(Main.GITLET);
+        assertFalse(bundle.exists() || Main.GITLET.exists());
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,8 +10,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -37,8 +41,13 @@ class Utils {
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    Trace.count(Trace.Counter.BYTES_HASHED,
+                            ((byte[]) val).length);
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    String str = (String) val;
+                    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                    md.update(bytes);
+                    Trace.count(Trace.Counter.BYTES_HASHED, bytes.length);
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
@@ -144,6 +153,25 @@ class Utils {
         }
     }
 
+    /** Append RECORDS, a whole number of fixed-size records of
+     *  RECORDSIZE bytes each, to FILE, creating it as needed.  A torn
+     *  record at the end of FILE, left by an interrupted write, is cut
+     *  off first, so that every record stays on a record boundary.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void appendRecords(File file, byte[] records, int recordSize) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long end = channel.size() - channel.size() % recordSize;
+            channel.truncate(end);
+            ByteBuffer buf = ByteBuffer.wrap(records);
+            while (buf.hasRemaining()) {
+                end += channel.write(buf, end);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -153,6 +181,29 @@ class Utils {
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            if (result instanceof Commit) {
+                Trace.count(Trace.Counter.COMMITS_DESERIALIZED, 1);
+            }
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T read from the serialized CONTENTS,
+     *  casting it to EXPECTEDCLASS.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(contents));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            if (result instanceof Commit) {
+                Trace.count(Trace.Counter.COMMITS_DESERIALIZED, 1);
+            }
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -172,6 +223,7 @@ class Utils {
         new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
+                Trace.count(Trace.Counter.FILES_STATED, 1);
                 return new File(dir, name).isFile();
             }
         };
@@ -180,6 +232,7 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        Trace.count(Trace.Counter.DIRECTORY_LISTINGS, 1);
         String[] files = dir.list(PLAIN_FILES);
         if (files == null) {
             return null;
@@ -0,0 +1,342 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** A cached view of the plain files in the working directory: for each
+ *  one its size, modification time and, once computed, the SHA-1 of its
+ *  contents. The cache lives in .gitlet/working-tree. On each scan only
+ *  files whose size or modification time changed are hashed again, and
+ *  when the file-system monitor is running only the files it reports as
+ *  changed are even looked at. Without the monitor, or when it cannot
+ *  vouch for everything that happened since the last scan, the whole
+ *  directory is listed. Large listings are stat'ed, and files needing
+ *  a fresh hash are hashed, in parallel on the common fork/join pool.
+ *  Files outside the sparse-checkout patterns are never looked at.
+ *  @author Ed Scerbo
+ */
+class WorkingTree implements Serializable {
+
+    /** What is known about one working file. */
+    private static class Entry implements Serializable {
+        /** Size of the file in bytes. */
+        private long _size;
+        /** Modification time of the file. */
+        private long _mtime;
+        /** SHA-1 of the contents, or null if not yet computed or not
+         *  to be trusted. */
+        private String _sha1;
+
+        /** Version of the serialized entry. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Returns the working directory as it is now, refreshing the
+     *  cache from the file-system monitor or by a full listing. */
+    static WorkingTree scan() {
+        long start = Trace.begin();
+        WorkingTree tree = null;
+        if (CACHE.isFile()) {
+            try {
+                tree = Utils.readObject(CACHE, WorkingTree.class);
+            } catch (IllegalArgumentException excp) {
+                tree = null;
+            }
+        }
+        if (tree == null) {
+            tree = new WorkingTree();
+        }
+        tree._racy = new IdentityHashMap<>();
+        FsMonitor.Changes changes = FsMonitor.query(tree._token);
+        tree._token = changes == null ? null : changes.token();
+        if (changes == null || changes.full()) {
+            tree.refreshAll();
+        } else {
+            Sparse sparse = Sparse.read();
+            for (String name : changes.names()) {
+                if (sparse.includes(name)) {
+                    tree.refresh(name);
+                }
+            }
+        }
+        tree.save();
+        Trace.end("WorkingTree.scan", start);
+        return tree;
+    }
+
+    /** Stats the files NAMES[LO .. HI-1] into STATS, splitting the work
+     *  across the fork/join pool. */
+    private static class StatTask extends RecursiveAction {
+        /** A task covering NAMES[LO .. HI-1], storing into STATS. */
+        StatTask(List<String> names, Entry[] stats, int lo, int hi) {
+            _names = names;
+            _stats = stats;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= BATCH_SIZE) {
+                for (int i = _lo; i < _hi; i += 1) {
+                    _stats[i] = stat(_names.get(i));
+                }
+            } else {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new StatTask(_names, _stats, _lo, mid),
+                        new StatTask(_names, _stats, mid, _hi));
+            }
+        }
+
+        /** The names to stat. */
+        private final List<String> _names;
+        /** Where the results go, null for anything not a plain file. */
+        private final Entry[] _stats;
+        /** The range covered. */
+        private final int _lo, _hi;
+
+        /** Fixed, though tasks are never serialized. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Hashes the files ENTRIES[LO .. HI-1], named by NAMES, splitting
+     *  the work across the fork/join pool. */
+    private static class HashTask extends RecursiveAction {
+        /** A task covering NAMES[LO .. HI-1] and ENTRIES[LO .. HI-1]. */
+        HashTask(List<String> names, List<Entry> entries, int lo, int hi) {
+            _names = names;
+            _entries = entries;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= BATCH_SIZE) {
+                for (int i = _lo; i < _hi; i += 1) {
+                    File file = new File(_names.get(i));
+                    _entries.get(i)._sha1 =
+                        Utils.sha1(Utils.readContents(file));
+                }
+            } else {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new HashTask(_names, _entries, _lo, mid),
+                        new HashTask(_names, _entries, mid, _hi));
+            }
+        }
+
+        /** The names of the files to hash. */
+        private final List<String> _names;
+        /** The entries receiving their hashes. */
+        private final List<Entry> _entries;
+        /** The range covered. */
+        private final int _lo, _hi;
+
+        /** Fixed, though tasks are never serialized. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Returns the names of the plain files in the working directory. */
+    Set<String> names() {
+        return _entries.keySet();
+    }
+
+    /** Returns true iff NAME is a plain file in the working directory. */
+    boolean contains(String name) {
+        return _entries.containsKey(name);
+    }
+
+    /** Returns the SHA-1 of the contents of working file NAME, or null
+     *  if there is no such file. */
+    String sha1(String name) {
+        Entry entry = _entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (entry._sha1 == null && !_racy.containsKey(entry)) {
+            hash(Collections.singleton(name));
+        }
+        return entry._sha1 == null ? _racy.get(entry) : entry._sha1;
+    }
+
+    /** Makes sure the hashes of the working files among NAMES are
+     *  known, computing the missing ones in parallel. */
+    void hash(Collection<String> names) {
+        List<String> toHash = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        for (String name : names) {
+            Entry entry = _entries.get(name);
+            if (entry != null && entry._sha1 == null) {
+                toHash.add(name);
+                entries.add(entry);
+            }
+        }
+        if (toHash.isEmpty()) {
+            return;
+        }
+        long start = Trace.begin();
+        if (toHash.size() <= BATCH_SIZE) {
+            new HashTask(toHash, entries, 0, toHash.size()).compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(
+                    new HashTask(toHash, entries, 0, toHash.size()));
+        }
+        for (Entry entry : entries) {
+            if (isRacy(entry)) {
+                _racy.put(entry, entry._sha1);
+                entry._sha1 = null;
+            }
+        }
+        _dirty = true;
+        Trace.end("WorkingTree.hash", start);
+    }
+
+    /** Writes the cache back if anything was learned since it was
+     *  read. */
+    void save() {
+        if (_dirty) {
+            _dirty = false;
+            Utils.writeObject(CACHE, this);
+        }
+    }
+
+    /** Brings every entry up to date by listing the directory once and
+     *  statting what it holds, in parallel if there is much of it. */
+    private void refreshAll() {
+        List<String> names = new ArrayList<>();
+        Sparse sparse = Sparse.read();
+        Trace.count(Trace.Counter.DIRECTORY_LISTINGS, 1);
+        try (DirectoryStream<Path> dir =
+                 Files.newDirectoryStream(Paths.get("."))) {
+            for (Path path : dir) {
+                String name = path.getFileName().toString();
+                if (sparse.includes(name)) {
+                    names.add(name);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Entry[] stats = new Entry[names.size()];
+        if (names.size() <= BATCH_SIZE) {
+            new StatTask(names, stats, 0, names.size()).compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(
+                    new StatTask(names, stats, 0, names.size()));
+        }
+        HashSet<String> present = new HashSet<>();
+        for (int i = 0; i < stats.length; i += 1) {
+            if (stats[i] != null) {
+                present.add(names.get(i));
+                update(names.get(i), stats[i]);
+            }
+        }
+        if (_entries.keySet().retainAll(present)) {
+            _dirty = true;
+        }
+    }
+
+    /** Brings the entry for working file NAME up to date, dropping it
+     *  if the file is gone. */
+    private void refresh(String name) {
+        Entry stat = stat(name);
+        if (stat == null) {
+            if (_entries.remove(name) != null) {
+                _dirty = true;
+            }
+        } else {
+            update(name, stat);
+        }
+    }
+
+    /** Replaces the entry for NAME with the fresh STAT unless the entry
+     *  already has the same size and modification time and a hash that
+     *  can be trusted. */
+    private void update(String name, Entry stat) {
+        Entry entry = _entries.get(name);
+        if (entry != null && entry._size == stat._size
+                && entry._mtime == stat._mtime
+                && entry._sha1 != null && !isRacy(entry)) {
+            return;
+        }
+        _entries.put(name, stat);
+        _dirty = true;
+    }
+
+    /** Returns a new entry with the size and modification time of NAME,
+     *  read with a single stat, or null if NAME is not a plain file. */
+    private static Entry stat(String name) {
+        Trace.count(Trace.Counter.FILES_STATED, 1);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(Paths.get(name),
+                    BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+        if (!attrs.isRegularFile()) {
+            return null;
+        }
+        Entry entry = new Entry();
+        entry._size = attrs.size();
+        entry._mtime = attrs.lastModifiedTime().toMillis();
+        return entry;
+    }
+
+    /** Returns true iff ENTRY was modified so recently that a further
+     *  change might not alter its modification time, so its hash must
+     *  not be cached. */
+    private static boolean isRacy(Entry entry) {
+        return isRacy(entry._mtime);
+    }
+
+    /** Returns true iff a file last modified at time MTIME, in
+     *  milliseconds since the epoch, was modified so recently that a
+     *  further change might not alter its modification time. */
+    static boolean isRacy(long mtime) {
+        return System.currentTimeMillis() - mtime < RACY_MILLIS;
+    }
+
+    /** The cache file. */
+    static final File CACHE = new File(Main.GITLET, "working-tree");
+
+    /** Files modified less than this many milliseconds ago are always
+     *  hashed again. */
+    private static final long RACY_MILLIS = 2000;
+
+    /** Number of files statted or hashed by one fork/join task. */
+    private static final int BATCH_SIZE = 64;
+
+    /** Version of the serialized cache. A cache of another version
+     *  fails to read and is rebuilt by a full scan. */
+    private static final long serialVersionUID = 1L;
+
+    /** Entries by file name. */
+    private final TreeMap<String, Entry> _entries = new TreeMap<>();
+
+    /** The monitor's token as of the last scan, or null. */
+    private String _token;
+
+    /** Hashes of entries too recently modified to be cached. */
+    private transient IdentityHashMap<Entry, String> _racy;
+
+    /** True iff the cache differs from what is on disk. */
+    private transient boolean _dirty;
+
+}
@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Linked worktrees: further working directories of one repository,
+ *  each with a branch of its own checked out.
+ *
+ *  A linked worktree has a .gitlet directory of its own holding only
+ *  what belongs to one working directory: HEAD and its log, the staging
+ *  area, the working tree cache, the sparse-checkout patterns and the
+ *  journal. A commondir file in it names the .gitlet directory of the
+ *  main repository, which holds everything shared: objects, branches,
+ *  their logs, remotes and the caches built from them. The main
+ *  repository lists its linked worktrees under .gitlet/worktrees, one
+ *  directory each holding a gitdir file with the path of the
+ *  worktree's .gitlet directory.
+ *
+ *  No branch may be checked out in two worktrees at once, since a
+ *  commit in one would silently change what the other has checked out.
+ *  Commands that check out or delete a branch therefore take the
+ *  worktree lock, .gitlet/worktrees/lock in the main repository, hold it
+ *  until the command ends, and refuse if another worktree has the
+ *  branch. Repositories with no linked worktrees skip all of this.
+ *  @author Ed Scerbo
+ */
+class Worktree {
+
+    /** Returns the .gitlet directory holding the objects and branches
+     *  used by the .gitlet directory GITLET: the one its commondir file
+     *  names if it is a linked worktree's, and GITLET itself
+     *  otherwise. */
+    static File commonDir(File gitlet) {
+        File common = new File(gitlet, COMMONDIR);
+        if (!common.isFile()) {
+            return gitlet;
+        }
+        return new File(Utils.readContentsAsString(common).trim());
+    }
+
+    /** Returns every worktree of this repository, the main one first,
+     *  each working directory mapped to its .gitlet directory. Linked
+     *  worktrees that have been deleted are left out. */
+    static LinkedHashMap<File, File> all() {
+        LinkedHashMap<File, File> result = new LinkedHashMap<>();
+        File main = Main.COMMON.getAbsoluteFile();
+        result.put(main.getParentFile(), main);
+        File[] entries = registry().listFiles(File::isDirectory);
+        if (entries != null) {
+            Arrays.sort(entries);
+            for (File entry : entries) {
+                File gitdir = new File(entry, GITDIR);
+                if (gitdir.isFile()) {
+                    File gitlet = new File(
+                            Utils.readContentsAsString(gitdir).trim());
+                    if (gitlet.isDirectory()) {
+                        result.put(gitlet.getParentFile(), gitlet);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the branch checked out in the worktree whose .gitlet
+     *  directory is GITLET. */
+    static String branch(File gitlet) {
+        return Utils.readContentsAsString(
+                new File(gitlet, Main.HEAD.getName()));
+    }
+
+    /** Returns the working directory of another worktree that has
+     *  BRANCH checked out, or null if there is none. Takes the worktree
+     *  lock first, if this repository has linked worktrees, so that the
+     *  answer holds until the command ends. */
+    static File checkedOutElsewhere(String branch) {
+        if (!registry().isDirectory()) {
+            return null;
+        }
+        lock();
+        File self = Main.GITLET.getAbsoluteFile();
+        for (Map.Entry<File, File> tree : all().entrySet()) {
+            if (!same(tree.getValue(), self)
+                && branch.equals(branch(tree.getValue()))) {
+                return tree.getKey();
+            }
+        }
+        return null;
+    }
+
+    /** Creates a worktree in the directory DIR, which must not exist or
+     *  be empty, with BRANCH checked out. Only the files of BRANCH's
+     *  head are written: objects and branches stay in this
+     *  repository. */
+    static void add(File dir, String branch) {
+        String[] existing = dir.list();
+        if (dir.exists() && (existing == null || existing.length > 0)) {
+            throw Utils.error("%s already exists.", dir.getPath());
+        }
+        File elsewhere = checkedOutElsewhere(branch);
+        if (elsewhere != null || branch.equals(Refs.head())) {
+            throw Utils.error("'%s' is already checked out at '%s'.", branch,
+                    elsewhere != null ? elsewhere.getPath()
+                    : Main.GITLET.getAbsoluteFile().getParent());
+        }
+        registry().mkdirs();
+        lock();
+        dir = dir.getAbsoluteFile().toPath().normalize().toFile();
+        File gitlet = new File(dir, Main.GITLET.getName());
+        gitlet.mkdirs();
+        Utils.writeContents(new File(gitlet, COMMONDIR),
+                Main.COMMON.getAbsolutePath() + "\n");
+        Utils.writeContents(new File(gitlet, Main.HEAD.getName()), branch);
+        File entry = new File(registry(), dir.getName());
+        for (int n = 1; entry.exists(); n += 1) {
+            entry = new File(registry(), dir.getName() + n);
+        }
+        entry.mkdir();
+        Utils.writeContents(new File(entry, GITDIR), gitlet.getPath() + "\n");
+
+        Commit head = Main.retrieveCommit(Refs.get(branch));
+        Promisor.fetchBlobs(head.getTracked().values());
+        for (Map.Entry<String, String> file : head.getTracked().entrySet()) {
+            Main.checkoutBlob(file.getValue(), new File(dir, file.getKey()));
+        }
+    }
+
+    /** Takes the worktree lock, if it is not already held, waiting for
+     *  any other command holding it. */
+    static synchronized void lock() {
+        if (_lock != null) {
+            return;
+        }
+        try {
+            _lockChannel = FileChannel.open(
+                    new File(registry(), LOCK).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            _lock = _lockChannel.lock();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Releases the worktree lock, if it is held. */
+    static synchronized void release() {
+        if (_lock == null) {
+            return;
+        }
+        try {
+            _lock.release();
+            _lockChannel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            _lock = null;
+            _lockChannel = null;
+        }
+    }
+
+    /** Returns the directory listing this repository's linked
+     *  worktrees. */
+    private static File registry() {
+        return new File(Main.COMMON, "worktrees");
+    }
+
+    /** Returns true iff the .gitlet directories A and B are the
+     *  same. */
+    private static boolean same(File a, File b) {
+        try {
+            return a.getCanonicalFile().equals(b.getCanonicalFile());
+        } catch (IOException excp) {
+            return a.getAbsoluteFile().equals(b.getAbsoluteFile());
+        }
+    }
+
+    /** Name of the file naming the main repository's .gitlet
+     *  directory. */
+    static final String COMMONDIR = "commondir";
+
+    /** Name of the file naming a linked worktree's .gitlet
+     *  directory. */
+    private static final String GITDIR = "gitdir";
+
+    /** Name of the worktree lock file. */
+    private static final String LOCK = "lock";
+
+    /** The channel holding the worktree lock, or null. */
+    private static FileChannel _lockChannel;
+
+    /** The worktree lock, or null if it is not held. */
+    private static FileLock _lock;
+
+}